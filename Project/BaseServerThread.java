@@ -1,18 +1,58 @@
 package Project;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.SequenceInputStream;
 import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Base class the handles the underlying connection between Client and Server-side
+ * Base class the handles the underlying connection between Client and Server-side.
+ * The read loop runs on whatever thread {@link #start(ThreadFactory)} is given
+ * (platform or virtual) or, for NIO, on the event loop.
+ * Sends only enqueue to a bounded {@link OutboundQueue}; a dedicated writer
+ * thread (or the NIO event loop) does the actual socket writes.
  */
-public abstract class BaseServerThread extends Thread {
+public abstract class BaseServerThread implements Runnable {
 
-    protected boolean isRunning = false; // control variable to stop this thread
-    protected ObjectOutputStream out; // exposed here for send()
+    protected volatile boolean isRunning = false; // control variable to stop this thread
+    protected ObjectStreamWriter out; // used by the writer (legacy stream clients), resets periodically
+    // used by the writer (framed clients); not a DataOutputStream, whose synchronized writes pin a virtual
+    // writer to its carrier while the socket is full
+    protected BufferedOutputStream framedOut;
     protected Socket client; // communication directly to "my" client
+    protected final OutboundQueue outbound = new OutboundQueue(); // payloads waiting for the writer
+    private NioConnection nioConnection; // set instead of client when driven by the NioServer
+    private byte[] preRead; // bytes consumed before this thread took over the socket
+    private Thread thread; // runs the read loop for socket based connections
+    private Thread writer; // drains outbound for socket based connections
+    private ThreadFactory threadFactory;
+    private boolean legacyStream = false; // client uses a raw ObjectOutputStream rather than frames
+    // large enough that a whole batch goes out in one socket write
+    private static final int WRITE_BUFFER_SIZE = Math.max(8192, ServerConfig.FLUSH_MAX_BYTES);
+    // features this server can offer a client during CLIENT_CONNECT
+    protected static final int SUPPORTED_FEATURES = ConnectionPayload.FEATURE_BINARY_CODEC
+            | ConnectionPayload.FEATURE_ROOM_SNAPSHOT | ConnectionPayload.FEATURE_PRESENCE_DELTA
+            | ConnectionPayload.FEATURE_RICH_TEXT
+            | (ServerConfig.COMPRESSION ? ConnectionPayload.FEATURE_COMPRESSION : 0);
+    protected volatile int features = 0; // negotiated ConnectionPayload.FEATURE_* flags
+    protected volatile byte frameFormat = Frames.FORMAT_SERIALIZED; // format used for outgoing frames
+    private volatile FrameDeflater deflater; // set when compression is negotiated, used only by the writer
+
+    /**
+     * Reads the next Payload from whichever stream the client negotiated
+     */
+    private interface PayloadReader {
+        Payload read() throws IOException, ClassNotFoundException;
+    }
 
     /**
      * A wrapper method so we don't need to keep typing out the long/complex sysout
@@ -34,26 +74,149 @@ public abstract class BaseServerThread extends Thread {
     protected abstract void processPayload(Payload payload);
 
     /**
-     * Sends the payload over the socket
+     * Queues the payload for this client's writer
      * 
      * @param payload
-     * @return true if no errors were encountered
+     * @return true if no errors were encountered (false means the client is gone
+     *         or couldn't keep up and should be disconnected)
      */
     protected boolean send(Payload payload) {
+        return send(new OutboundFrame(payload));
+    }
+
+    /**
+     * Queues an already wrapped frame; broadcasts pass the same frame to every
+     * recipient so it's only encoded once
+     * 
+     * @param frame
+     * @return see {@link #send(Payload)}
+     */
+    protected boolean send(OutboundFrame frame) {
         if(!isRunning){
             return true;
         }
-        try {
-            out.writeObject(payload);
-            out.flush();
+        // an NIO event loop must never wait on another client's queue
+        boolean mayBlock = !(Thread.currentThread() instanceof NioServer.EventLoop);
+        if (!outbound.offer(frame, mayBlock)) {
+            if (outbound.isOverflowed()) {
+                info("Disconnecting slow consumer: " + outbound);
+            } else {
+                info("Error queuing message to client (most likely disconnected)");
+            }
+            cleanup();
+            return false;
+        }
+        if (nioConnection != null) {
+            nioConnection.requestFlush();
+        }
+        return true;
+    }
+
+    /**
+     * Queues several frames at once, in order; the writer picks them up
+     * together and sends them with as few flushes as FLUSH_MAX_BYTES allows
+     * 
+     * @param frames
+     * @return see {@link #send(Payload)}
+     */
+    protected boolean sendAll(List<OutboundFrame> frames) {
+        if (!isRunning || frames.isEmpty()) {
             return true;
-        } catch (IOException e) {
-            info("Error sending message to client (most likely disconnected)");
-            // comment this out to inspect the stack trace
-            // e.printStackTrace();
+        }
+        boolean mayBlock = !(Thread.currentThread() instanceof NioServer.EventLoop);
+        if (!outbound.offerAll(frames, mayBlock)) {
+            if (outbound.isOverflowed()) {
+                info("Disconnecting slow consumer: " + outbound);
+            } else {
+                info("Error queuing message to client (most likely disconnected)");
+            }
             cleanup();
             return false;
         }
+        if (nioConnection != null) {
+            nioConnection.requestFlush();
+        }
+        return true;
+    }
+
+    /**
+     * Accepts the subset of the client's offered features this connection can
+     * honor; legacy stream clients never offer any
+     * 
+     * @param offered ConnectionPayload.FEATURE_* flags from CLIENT_CONNECT
+     * @return the accepted flags (to be echoed back in CLIENT_ID)
+     */
+    protected int negotiateFeatures(int offered) {
+        features = legacyStream ? 0 : offered & SUPPORTED_FEATURES;
+        frameFormat = hasFeature(ConnectionPayload.FEATURE_BINARY_CODEC) ? Frames.FORMAT_BINARY
+                : Frames.FORMAT_SERIALIZED;
+        if (hasFeature(ConnectionPayload.FEATURE_COMPRESSION) && deflater == null) {
+            deflater = new FrameDeflater();
+        }
+        return features;
+    }
+
+    public boolean hasFeature(int feature) {
+        return (features & feature) != 0;
+    }
+
+    public byte getFrameFormat() {
+        return frameFormat;
+    }
+
+    /**
+     * @return true if the client reads a raw ObjectOutputStream; its writer
+     *         serializes payloads itself and never uses the frame encodings
+     */
+    public boolean isLegacyStream() {
+        return legacyStream;
+    }
+
+    /**
+     * @return this client's outbound queue (depth, high water mark, drops)
+     */
+    public OutboundQueue getOutboundQueue() {
+        return outbound;
+    }
+
+    /**
+     * @return compression ratio and CPU cost for this client, or null if it
+     *         didn't negotiate compression
+     */
+    public FrameDeflater getDeflater() {
+        return deflater;
+    }
+
+    /**
+     * The bytes to put on the wire for a frame: the shared encoding in this
+     * client's format, compressed if negotiated. Writer (or NIO loop) only.
+     * 
+     * @param frame
+     * @return a complete frame
+     * @throws IOException
+     */
+    protected byte[] wireFrame(OutboundFrame frame) throws IOException {
+        byte[] encoded = frame.encoded(frameFormat);
+        FrameDeflater d = deflater;
+        return d == null ? encoded : d.compress(encoded);
+    }
+
+    /**
+     * Frees the compression state once the writer is done with it
+     */
+    protected void releaseDeflater() {
+        FrameDeflater d = deflater;
+        if (d != null) {
+            d.end();
+        }
+    }
+
+    /**
+     * @return serialization state retained for a legacy stream client, or null
+     *         for framed clients (every frame is a standalone stream)
+     */
+    public ObjectStreamWriter getObjectStream() {
+        return out;
     }
 
     /**
@@ -62,63 +225,240 @@ public abstract class BaseServerThread extends Thread {
     protected void disconnect() {
         info("Thread being disconnected by server");
         isRunning = false;
-        this.interrupt(); // breaks out of blocking read in the run() method
+        outbound.close();
+        if (writer != null) {
+            return; // the writer sends whatever is still queued and then runs cleanup()
+        }
+        if (thread != null) {
+            thread.interrupt(); // breaks out of blocking read in the run() method
+        }
         cleanup(); // good practice to ensure data is written out immediately
     }
 
+    /**
+     * Starts the read loop on a new platform thread
+     */
+    public void start() {
+        start(Thread.ofPlatform().factory());
+    }
+
+    /**
+     * Starts the read loop on a thread from the given factory (i.e., virtual
+     * threads for TransportMode.VIRTUAL)
+     * 
+     * @param factory
+     */
+    public void start(ThreadFactory factory) {
+        threadFactory = factory;
+        thread = factory.newThread(this);
+        thread.start();
+    }
+
+    /**
+     * Attaches this object to a selector-managed connection instead of a Socket.
+     * The thread itself is never started in that case; the event loop calls
+     * {@link #receive(Payload)} and {@link #onConnectionClosed()} directly.
+     * 
+     * @param connection
+     */
+    protected void attach(NioConnection connection) {
+        this.nioConnection = connection;
+        isRunning = true;
+    }
+
+    /**
+     * Bytes that were already read from the socket (i.e., while sniffing the
+     * protocol) and need to be replayed before the socket's own stream
+     * 
+     * @param preRead
+     */
+    protected void setPreRead(byte[] preRead) {
+        this.preRead = preRead;
+    }
+
+    /**
+     * Entry point for every Payload received regardless of transport
+     * 
+     * @param fromClient
+     */
+    protected void receive(Payload fromClient) {
+        Log.debug(this, () -> "Received from my client: " + fromClient);
+        Metrics.received(fromClient.getPayloadType());
+        processPayload(fromClient);
+    }
+
+    /**
+     * Triggered once the underlying connection is gone
+     */
+    protected void onConnectionClosed() {
+        isRunning = false;
+        info("Exited thread loop. Cleaning up connection");
+        cleanup();
+    }
+
     @Override
     public void run() {
         info("Thread starting");
-        try (ObjectOutputStream out = new ObjectOutputStream(client.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(client.getInputStream());) {
-            this.out = out;
-            isRunning = true;
-            //onInitialized();
-            Payload fromClient;
-            /**
-             * isRunning is a flag to let us manage the loop exit condition
-             * fromClient (in.readObject()) is a blocking method that waits until data is received
-             *  - null would likely mean a disconnect so we use a "set and check" logic to alternatively exit the loop
-             */
-            while (isRunning) {
-                try{
-                    fromClient = (Payload) in.readObject(); // blocking method
-                    if (fromClient != null) {
-                        info("Received from my client: " + fromClient);
-                        processPayload(fromClient);
-                    }
-                    else{
-                        throw new IOException("Connection interrupted"); // Specific exception for a clean break
-                    }
+        InputStream source;
+        try {
+            client.setTcpNoDelay(true); // the writer coalesces frames itself, Nagle would only add delay
+            source = client.getInputStream();
+        } catch (IOException e) {
+            info("Unable to open client stream");
+            onConnectionClosed();
+            return;
+        }
+        if (preRead != null) {
+            source = new SequenceInputStream(new ByteArrayInputStream(preRead), source);
+        }
+        try (InputStream rawIn = new BufferedInputStream(new CountingInputStream(source))) {
+            // sniff the first two bytes to tell legacy ObjectOutputStream clients from framed ones
+            rawIn.mark(2);
+            int b0 = rawIn.read();
+            int b1 = rawIn.read();
+            rawIn.reset();
+            if (Frames.isSerializationStream(b0, b1)) {
+                try (ObjectStreamWriter out = new ObjectStreamWriter(
+                        new BufferedOutputStream(client.getOutputStream(), WRITE_BUFFER_SIZE));
+                        ObjectInputStream in = new ObjectInputStream(rawIn);) {
+                    this.out = out;
+                    legacyStream = true;
+                    startWriter();
+                    isRunning = true;
+                    readLoop(() -> (Payload) in.readObject());
+                }
+            } else {
+                DataInputStream in = new DataInputStream(rawIn);
+                Frames.readPreamble(in);
+                try (BufferedOutputStream out = new BufferedOutputStream(client.getOutputStream(),
+                        WRITE_BUFFER_SIZE)) {
+                    this.framedOut = out;
+                    startWriter();
+                    isRunning = true;
+                    readLoop(() -> Frames.read(in));
+                }
+            }
+        } catch (Exception e) {
+            // happens when client disconnects
+            Log.error(this, "General Exception, my client disconnected", e);
+        } finally {
+            onConnectionClosed();
+        }
+    }
+
+    private void readLoop(PayloadReader reader) {
+        //onInitialized();
+        Payload fromClient;
+        /**
+         * isRunning is a flag to let us manage the loop exit condition
+         * fromClient (reader.read()) is a blocking method that waits until data is received
+         *  - null would likely mean a disconnect so we use a "set and check" logic to alternatively exit the loop
+         */
+        while (isRunning) {
+            try{
+                fromClient = reader.read(); // blocking method
+                if (fromClient != null) {
+                    receive(fromClient);
+                }
+                else{
+                    throw new IOException("Connection interrupted"); // Specific exception for a clean break
                 }
-                catch (ClassCastException | ClassNotFoundException cce) {
-                    System.err.println("Error reading object as specified type: " + cce.getMessage());
-                    cce.printStackTrace();
+            }
+            catch (ClassCastException | ClassNotFoundException cce) {
+                Log.error(this, "Error reading object as specified type: " + cce.getMessage(), cce);
+            }
+            catch (IOException e) {
+                if (Thread.currentThread().isInterrupted() || !isRunning) {
+                    info("Connection closed during read (likely from the disconnect() method)");
+                    break;
                 }
-                catch (IOException e) {
-                    if (Thread.currentThread().isInterrupted()) {
-                        info("Thread interrupted during read (likely from the disconnect() method)");
+                Log.error(this, "IO exception while reading from client", e);
+                break;
+            }
+        } // close while loop
+    }
+
+    private void startWriter() {
+        writer = threadFactory.newThread(this::writeLoop);
+        writer.start();
+    }
+
+    /**
+     * Drains the outbound queue to the socket until it's closed and empty.
+     * Whatever is already queued is written as one batch with a single flush
+     * (up to ServerConfig.FLUSH_MAX_BYTES). An idle connection flushes each
+     * frame right away; only when the previous batch had more than one frame
+     * does the writer wait up to ServerConfig.FLUSH_WINDOW_MICROS for more.
+     */
+    private void writeLoop() {
+        long windowNanos = TimeUnit.MICROSECONDS.toNanos(ServerConfig.FLUSH_WINDOW_MICROS);
+        boolean busy = false;
+        try {
+            OutboundFrame next;
+            while ((next = outbound.take()) != null) {
+                long deadline = System.nanoTime() + windowNanos;
+                long bytes = 0;
+                int frames = 0;
+                while (next != null) {
+                    bytes += writeFrame(next);
+                    Metrics.sent(next.getPayloadType());
+                    frames++;
+                    if (bytes >= ServerConfig.FLUSH_MAX_BYTES) {
                         break;
                     }
-                    info("IO exception while reading from client");
-                    e.printStackTrace();
-                    break;
+                    next = outbound.poll();
+                    if (next == null && busy) {
+                        next = outbound.poll(deadline - System.nanoTime());
+                    }
                 }
-            } // close while loop
-        } catch (Exception e) {
-            // happens when client disconnects
-            info("General Exception");
-            e.printStackTrace();
-            info("My Client disconnected");
+                if (framedOut != null) {
+                    framedOut.flush();
+                } else {
+                    out.flush();
+                }
+                outbound.recordFlush(frames);
+                Metrics.bytesOut(bytes);
+                busy = frames > 1;
+            }
+        } catch (IOException e) {
+            info("Error sending message to client (most likely disconnected)");
+            // comment this out to inspect the stack trace
+            // e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
-            isRunning = false;
-            info("Exited thread loop. Cleaning up connection");
+            releaseDeflater();
             cleanup();
         }
     }
 
+    /**
+     * Writes a frame without flushing
+     * 
+     * @param frame
+     * @return bytes written
+     * @throws IOException
+     */
+    private long writeFrame(OutboundFrame frame) throws IOException {
+        if (framedOut != null) {
+            byte[] encoded = wireFrame(frame);
+            framedOut.write(encoded);
+            return encoded.length;
+        }
+        long before = out.getBytesWritten();
+        out.write(frame.getPayload());
+        return out.getBytesWritten() - before;
+    }
+
     protected void cleanup() {
         info("ServerThread cleanup() start");
+        isRunning = false; // later sends are ignored instead of failing (and re-triggering a disconnect)
+        outbound.close();
+        if (nioConnection != null) {
+            nioConnection.close();
+            info("ServerThread cleanup() end");
+            return;
+        }
         try {
             client.close();
         } catch (IOException e) {
@@ -127,4 +467,32 @@ public abstract class BaseServerThread extends Thread {
 
         info("ServerThread cleanup() end");
     }
-}
\ No newline at end of file
+
+    /**
+     * Reports bytes read from the socket to Metrics; sits below the
+     * BufferedInputStream so it's called once per socket read, not per byte
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                Metrics.bytesIn(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                Metrics.bytesIn(count);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package Project;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks declared in {@link ChatBenchmarks} the way JMH does,
+ * with nothing but the JDK (see Project/bench.sh).
+ * <p>
+ * Each benchmark and parameter value runs in a fresh JVM (a fork), so the JIT
+ * profile of one doesn't leak into the next. A fork runs warmup iterations,
+ * then measured iterations of a fixed duration, calling the operation in
+ * batches between clock reads; the score is the average time per operation
+ * over all measured iterations of all forks, with its 99.9% confidence
+ * interval. With -prof gc it also reports the bytes the benchmark thread
+ * allocated per operation (from the JVM's per-thread allocation counter, so
+ * background threads aren't charged to the operation) and the collections
+ * during the measured iterations.
+ * </p>
+ * Usage: java Project.BenchmarkRunner [options] [regex...]
+ * <br>
+ * -l list the benchmarks and their parameters
+ * <br>
+ * -f forks per benchmark (default 1; 0 runs everything in this JVM)
+ * <br>
+ * -wi / -i warmup / measured iterations (default 3 / 5)
+ * <br>
+ * -w / -r seconds per warmup / measured iteration (default 1 / 1)
+ * <br>
+ * -p name=v1,v2 replaces a benchmark parameter's values
+ * <br>
+ * -prof gc allocation and GC per operation
+ * <br>
+ * -jvmArgs "..." extra options for the forked JVMs
+ */
+public class BenchmarkRunner {
+    private static final String RESULT = "@result ";
+    private static final String PLUS_MINUS = System.out.charset().newEncoder().canEncode('\u00b1') ? "\u00b1 " : "+- ";
+    // Student's t for a two-sided 99.9% interval, by degrees of freedom (1-30); larger samples use the normal value
+    private static final double[] T_999 = { 636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781,
+            4.587, 4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850, 3.819, 3.792, 3.768, 3.745,
+            3.725, 3.707, 3.690, 3.674, 3.659, 3.646 };
+
+    /**
+     * A benchmark: one operation measured for each value of its parameter
+     *
+     * @param name
+     * @param param  parameter name
+     * @param values parameter values
+     * @param setup  builds the state for a parameter value
+     */
+    record Benchmark(String name, String param, List<String> values, Function<String, Case> setup) {
+    }
+
+    /**
+     * State of a benchmark for one parameter value
+     */
+    interface Case {
+        /**
+         * @return a result, consumed so the work can't be optimized away
+         */
+        Object run() throws Exception;
+
+        /**
+         * @return operations between calls to reset(), or 0 if it isn't needed
+         */
+        default int batch() {
+            return 0;
+        }
+
+        /**
+         * Untimed; puts the state back, i.e., empties queues the operations
+         * filled
+         */
+        default void reset() {
+        }
+    }
+
+    private static final class Options {
+        int forks = 1;
+        int warmups = 3;
+        int iterations = 5;
+        double warmupSeconds = 1;
+        double seconds = 1;
+        boolean gc = false;
+        boolean list = false;
+        String jvmArgs = "";
+        String single; // benchmark=value to run in this (forked) JVM
+        final Map<String, List<String>> params = new LinkedHashMap<>();
+        final List<Pattern> include = new ArrayList<>();
+        final List<String> forwarded = new ArrayList<>(); // what a fork needs to measure the same way
+    }
+
+    /**
+     * Measurements of one benchmark and parameter value
+     */
+    private static final class Result {
+        final String name;
+        final String param;
+        final List<Double> nanosPerOp = new ArrayList<>();
+        final List<Double> bytesPerOp = new ArrayList<>();
+        long gcCount;
+        long gcMillis;
+
+        Result(String name, String param) {
+            this.name = name;
+            this.param = param;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = parse(args);
+        List<Benchmark> selected = new ArrayList<>();
+        for (Benchmark benchmark : ChatBenchmarks.all()) {
+            if (options.include.isEmpty() || options.include.stream().anyMatch(p -> p.matcher(benchmark.name()).find())) {
+                List<String> values = options.params.getOrDefault(benchmark.param(), benchmark.values());
+                selected.add(new Benchmark(benchmark.name(), benchmark.param(), values, benchmark.setup()));
+            }
+        }
+        if (options.list) {
+            for (Benchmark benchmark : selected) {
+                System.out.println(String.format("%-20s %s=%s", benchmark.name(), benchmark.param(),
+                        String.join(",", benchmark.values())));
+            }
+            return;
+        }
+        if (options.single != null) {
+            String name = options.single.substring(0, options.single.indexOf('='));
+            String value = options.single.substring(name.length() + 1);
+            for (Benchmark benchmark : selected) {
+                if (benchmark.name().equals(name)) {
+                    Result result = measure(benchmark, value, options);
+                    System.out.println(RESULT + encode(result));
+                    System.exit(0);
+                }
+            }
+            throw new IllegalArgumentException("No benchmark " + name);
+        }
+        List<Result> results = new ArrayList<>();
+        for (Benchmark benchmark : selected) {
+            for (String value : benchmark.values()) {
+                Result total = new Result(benchmark.name(), benchmark.param() + "=" + value);
+                if (options.forks == 0) {
+                    merge(total, measure(benchmark, value, options));
+                }
+                for (int fork = 1; fork <= options.forks; fork++) {
+                    System.out.println(String.format("# Fork %d of %d", fork, options.forks));
+                    merge(total, fork(benchmark, value, options));
+                }
+                results.add(total);
+            }
+        }
+        report(results, options.gc);
+        System.exit(0); // benchmark state may have started non-daemon threads
+    }
+
+    private static Options parse(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-l" -> options.list = true;
+                case "-f" -> options.forks = Integer.parseInt(args[++i]);
+                case "-wi" -> options.warmups = forward(options, arg, args[++i], Integer::parseInt);
+                case "-i" -> options.iterations = forward(options, arg, args[++i], Integer::parseInt);
+                case "-w" -> options.warmupSeconds = forward(options, arg, args[++i], Double::parseDouble);
+                case "-r" -> options.seconds = forward(options, arg, args[++i], Double::parseDouble);
+                case "-jvmArgs" -> options.jvmArgs = args[++i];
+                case "--single" -> options.single = args[++i];
+                case "-p" -> {
+                    String[] param = args[++i].split("=", 2);
+                    options.params.put(param[0], List.of(param[1].split(",")));
+                }
+                case "-prof" -> {
+                    String profiler = args[++i];
+                    if (!profiler.equals("gc")) {
+                        throw new IllegalArgumentException("Only -prof gc is supported");
+                    }
+                    options.gc = true;
+                    options.forwarded.add("-prof");
+                    options.forwarded.add("gc");
+                }
+                default -> {
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option " + arg
+                                + "; usage: [-l] [-f forks] [-wi n] [-i n] [-w s] [-r s] [-p name=v1,v2] [-prof gc] [-jvmArgs \"...\"] [regex...]");
+                    }
+                    options.include.add(Pattern.compile(arg));
+                }
+            }
+        }
+        return options;
+    }
+
+    private static <T> T forward(Options options, String option, String value, Function<String, T> parser) {
+        options.forwarded.add(option);
+        options.forwarded.add(value);
+        return parser.apply(value);
+    }
+
+    /**
+     * Runs one benchmark and parameter value in a new JVM, echoing its
+     * progress
+     */
+    private static Result fork(Benchmark benchmark, String value, Options options) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        // the server's own logging and endpoints stay out of the way
+        command.add("-Dchat.log.level=warn");
+        command.add("-Dchat.metrics.port=0");
+        for (String arg : options.jvmArgs.trim().split("\\s+")) {
+            if (!arg.isEmpty()) {
+                command.add(arg);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(BenchmarkRunner.class.getName());
+        command.addAll(options.forwarded);
+        command.add("--single");
+        command.add(benchmark.name() + "=" + value);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Result result = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT)) {
+                    result = decode(benchmark.name(), benchmark.param() + "=" + value,
+                            line.substring(RESULT.length()));
+                } else {
+                    System.out.println(line);
+                }
+            }
+        }
+        int exit = process.waitFor();
+        if (result == null) {
+            throw new IllegalStateException(String.format("Fork of %s (%s=%s) exited with %d without a result",
+                    benchmark.name(), benchmark.param(), value, exit));
+        }
+        return result;
+    }
+
+    private static Result measure(Benchmark benchmark, String value, Options options) throws Exception {
+        System.out.println(String.format("# Benchmark: %s (%s = %s)", benchmark.name(), benchmark.param(), value));
+        Case state = benchmark.setup().apply(value);
+        Result result = new Result(benchmark.name(), benchmark.param() + "=" + value);
+        for (int i = 1; i <= options.warmups; i++) {
+            double[] sample = iteration(state, options.warmupSeconds, options.gc);
+            System.out.println(String.format("# Warmup Iteration %3d: %s", i, format(sample, options.gc)));
+        }
+        long[] gcBefore = collections();
+        for (int i = 1; i <= options.iterations; i++) {
+            double[] sample = iteration(state, options.seconds, options.gc);
+            result.nanosPerOp.add(sample[0]);
+            result.bytesPerOp.add(sample[1]);
+            System.out.println(String.format("Iteration %3d: %s", i, format(sample, options.gc)));
+        }
+        long[] gcAfter = collections();
+        result.gcCount = gcAfter[0] - gcBefore[0];
+        result.gcMillis = gcAfter[1] - gcBefore[1];
+        return result;
+    }
+
+    /**
+     * @return nanoseconds and bytes allocated per operation
+     */
+    private static double[] iteration(Case state, double seconds, boolean gc) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        int batch = state.batch() > 0 ? state.batch() : 256;
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        do {
+            long allocated = gc ? threads.getCurrentThreadAllocatedBytes() : 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                Benchmarks.consume(state.run());
+            }
+            nanos += System.nanoTime() - start;
+            if (gc) {
+                bytes += threads.getCurrentThreadAllocatedBytes() - allocated;
+            }
+            ops += batch;
+            if (state.batch() > 0) {
+                state.reset();
+            }
+        } while (System.nanoTime() < end);
+        return new double[] { (double) nanos / ops, (double) bytes / ops };
+    }
+
+    /**
+     * @return collections and milliseconds spent in them so far, all
+     *         collectors
+     */
+    private static long[] collections() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return new long[] { count, millis };
+    }
+
+    private static String format(double[] sample, boolean gc) {
+        return gc ? String.format("%.3f ns/op, %.1f B/op", sample[0], sample[1])
+                : String.format("%.3f ns/op", sample[0]);
+    }
+
+    private static void merge(Result into, Result from) {
+        into.nanosPerOp.addAll(from.nanosPerOp);
+        into.bytesPerOp.addAll(from.bytesPerOp);
+        into.gcCount += from.gcCount;
+        into.gcMillis += from.gcMillis;
+    }
+
+    private static String encode(Result result) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(result.gcCount).append(';').append(result.gcMillis);
+        for (int i = 0; i < result.nanosPerOp.size(); i++) {
+            sb.append(';').append(result.nanosPerOp.get(i)).append(',').append(result.bytesPerOp.get(i));
+        }
+        return sb.toString();
+    }
+
+    private static Result decode(String name, String param, String line) {
+        Result result = new Result(name, param);
+        String[] fields = line.split(";");
+        result.gcCount = Long.parseLong(fields[0]);
+        result.gcMillis = Long.parseLong(fields[1]);
+        for (int i = 2; i < fields.length; i++) {
+            String[] sample = fields[i].split(",");
+            result.nanosPerOp.add(Double.parseDouble(sample[0]));
+            result.bytesPerOp.add(Double.parseDouble(sample[1]));
+        }
+        return result;
+    }
+
+    private static void report(List<Result> results, boolean gc) {
+        System.out.println();
+        int nameWidth = "Benchmark".length();
+        int paramWidth = "(param)".length();
+        for (Result result : results) {
+            nameWidth = Math.max(nameWidth, result.name.length() + (gc ? ":gc.alloc.rate.norm".length() : 0));
+            paramWidth = Math.max(paramWidth, result.param.length());
+        }
+        String row = "%-" + nameWidth + "s  %" + paramWidth + "s  %4s  %14s  %14s  %-6s";
+        System.out.println(String.format(row, "Benchmark", "(param)", "Cnt", "Score", "Error", "Units"));
+        for (Result result : results) {
+            System.out.println(String.format(row, result.name, result.param, result.nanosPerOp.size(),
+                    String.format("%,.3f", mean(result.nanosPerOp)), PLUS_MINUS + String.format("%,.3f",
+                            error(result.nanosPerOp)), "ns/op"));
+            if (gc) {
+                System.out.println(String.format(row, result.name + ":gc.alloc.rate.norm", result.param,
+                        result.bytesPerOp.size(), String.format("%,.3f", mean(result.bytesPerOp)),
+                        PLUS_MINUS + String.format("%,.3f", error(result.bytesPerOp)), "B/op"));
+                System.out.println(String.format(row, result.name + ":gc.count", result.param, "",
+                        result.gcCount, "", "counts"));
+                System.out.println(String.format(row, result.name + ":gc.time", result.param, "", result.gcMillis,
+                        "", "ms"));
+            }
+        }
+    }
+
+    private static double mean(List<Double> values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return values.isEmpty() ? 0 : sum / values.size();
+    }
+
+    /**
+     * @return half width of the 99.9% confidence interval of the mean
+     */
+    private static double error(List<Double> values) {
+        int n = values.size();
+        if (n < 2) {
+            return Double.NaN;
+        }
+        double mean = mean(values);
+        double squares = 0;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        double deviation = Math.sqrt(squares / (n - 1));
+        double t = n - 1 <= T_999.length ? T_999[n - 2] : 3.291;
+        return t * deviation / Math.sqrt(n);
+    }
+}
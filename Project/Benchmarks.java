@@ -0,0 +1,37 @@
+package Project;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Minimal timing helpers shared by the *Benchmark mains so they run with
+ * nothing but the JDK
+ */
+final class Benchmarks {
+    private static volatile Object blackhole; // keeps results from being optimized away
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Runs the operation for a warmup pass and then a measured pass
+     *
+     * @param warmupOps   iterations before timing starts (lets the JIT settle)
+     * @param measuredOps timed iterations
+     * @param op          receives the iteration index
+     * @return average nanoseconds per operation
+     */
+    static double nanosPerOp(int warmupOps, int measuredOps, IntConsumer op) {
+        for (int i = 0; i < warmupOps; i++) {
+            op.accept(i);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < measuredOps; i++) {
+            op.accept(i);
+        }
+        return (System.nanoTime() - start) / (double) measuredOps;
+    }
+
+    static void consume(Object value) {
+        blackhole = value;
+    }
+}
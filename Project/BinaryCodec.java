@@ -0,0 +1,351 @@
+package Project;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hand written encoding of the Payload classes used by frames with
+ * {@link Frames#FORMAT_BINARY}.
+ * <p>
+ * Layout after the frame's length and format bytes: PayloadType ordinal, a
+ * kind byte for the concrete class, then the fields in a fixed order. Longs
+ * and ints are varints (zigzag where they can be negative, like
+ * DEFAULT_CLIENT_ID), strings are a varint of (byte length + 1) followed by
+ * UTF-8 where 0 means null. Compared to java serialization there are no class
+ * descriptors and no reflection.
+ * </p>
+ */
+public final class BinaryCodec {
+    // concrete Payload classes
+    private static final byte KIND_PAYLOAD = 0;
+    private static final byte KIND_CONNECTION = 1;
+    private static final byte KIND_ROLL = 2;
+    private static final byte KIND_PRIVATE_MESSAGE = 3;
+    private static final byte KIND_ROOM_SNAPSHOT = 4;
+    private static final byte KIND_PRESENCE_DELTA = 5;
+    private static final byte KIND_RICH_MESSAGE = 6;
+    private static final byte KIND_SEARCH = 7;
+    private static final byte NO_TYPE = (byte) 0xFF;
+
+    private static final PayloadType[] TYPES = PayloadType.values();
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Encodes a payload into a complete frame (length field included)
+     *
+     * @param payload
+     * @return frame bytes ready to be written to the socket
+     */
+    public static byte[] encode(Payload payload) {
+        Writer w = new Writer(64 + estimate(payload.getMessage()));
+        w.pos = Frames.LENGTH_FIELD; // length is filled in at the end
+        w.writeByte(Frames.FORMAT_BINARY);
+        w.writeByte(payload.getPayloadType() == null ? NO_TYPE : (byte) payload.getPayloadType().ordinal());
+        if (payload instanceof ConnectionPayload) {
+            w.writeByte(KIND_CONNECTION);
+        } else if (payload instanceof RollPayload) {
+            w.writeByte(KIND_ROLL);
+        } else if (payload instanceof PrivateMessagePayload) {
+            w.writeByte(KIND_PRIVATE_MESSAGE);
+        } else if (payload instanceof RoomSnapshotPayload) {
+            w.writeByte(KIND_ROOM_SNAPSHOT);
+        } else if (payload instanceof PresenceDeltaPayload) {
+            w.writeByte(KIND_PRESENCE_DELTA);
+        } else if (payload instanceof RichMessagePayload) {
+            w.writeByte(KIND_RICH_MESSAGE);
+        } else if (payload instanceof SearchPayload) {
+            w.writeByte(KIND_SEARCH);
+        } else {
+            w.writeByte(KIND_PAYLOAD);
+        }
+        w.writeZigZag(payload.getClientId());
+        w.writeZigZag(payload.getTargetClientId());
+        w.writeString(payload.getMessage());
+        w.writeString(payload.getSenderName());
+        w.writeZigZag(payload.getTimestamp());
+        List<String> muted = payload.getMutedUsers();
+        if (muted == null) {
+            w.writeVarLong(0);
+        } else {
+            w.writeVarLong(muted.size() + 1L);
+            for (String name : muted) {
+                w.writeString(name);
+            }
+        }
+        if (payload instanceof ConnectionPayload cp) {
+            w.writeString(cp.getClientName());
+            w.writeByte(cp.isConnect() ? (byte) 1 : (byte) 0);
+            w.writeZigZag(cp.getFeatures());
+        } else if (payload instanceof RollPayload rp) {
+            w.writeZigZag(rp.getRollRange());
+            w.writeZigZag(rp.getNumberOfDice());
+            w.writeZigZag(rp.getSidesPerDie());
+        } else if (payload instanceof RoomSnapshotPayload sp) {
+            w.writeString(sp.getRoomName());
+            w.writeVarLong(sp.size());
+            for (int i = 0; i < sp.size(); i++) {
+                w.writeZigZag(sp.getClientIds().get(i));
+                w.writeString(sp.getClientNames().get(i));
+            }
+        } else if (payload instanceof PresenceDeltaPayload dp) {
+            w.writeString(dp.getRoomName());
+            w.writeVarLong(dp.getJoinedIds().size());
+            for (int i = 0; i < dp.getJoinedIds().size(); i++) {
+                w.writeZigZag(dp.getJoinedIds().get(i));
+                w.writeString(dp.getJoinedNames().get(i));
+            }
+            w.writeVarLong(dp.getLeftIds().size());
+            for (long id : dp.getLeftIds()) {
+                w.writeZigZag(id);
+            }
+        } else if (payload instanceof RichMessagePayload rm) {
+            // the text is the message field; a run is its length and style byte
+            RichText text = rm.getRichText();
+            w.writeVarLong(text.getRunCount());
+            for (int i = 0; i < text.getRunCount(); i++) {
+                w.writeVarLong(text.getRunLength(i));
+                w.writeByte((byte) text.getRunStyle(i));
+            }
+        } else if (payload instanceof SearchPayload sp) {
+            w.writeString(sp.getRoomName());
+            w.writeVarLong(sp.getPage());
+            w.writeVarLong(sp.getPageSize());
+            w.writeVarLong(sp.getTotalHits());
+            w.writeVarLong(sp.getHitCount());
+            for (int i = 0; i < sp.getHitCount(); i++) {
+                w.writeZigZag(sp.getSeqs().get(i));
+                w.writeZigZag(sp.getTimestamps().get(i));
+                w.writeString(sp.getSenderNames().get(i));
+                w.writeString(sp.getMessages().get(i));
+            }
+        }
+        int length = w.pos - Frames.LENGTH_FIELD;
+        w.buf[0] = (byte) (length >>> 24);
+        w.buf[1] = (byte) (length >>> 16);
+        w.buf[2] = (byte) (length >>> 8);
+        w.buf[3] = (byte) length;
+        return w.pos == w.buf.length ? w.buf : Arrays.copyOf(w.buf, w.pos);
+    }
+
+    /**
+     * Decodes the body of a binary frame
+     *
+     * @param buffer
+     * @param offset first byte after the format byte
+     * @param length number of body bytes
+     * @return the decoded payload
+     * @throws IOException if the body is truncated or malformed
+     */
+    public static Payload decode(byte[] buffer, int offset, int length) throws IOException {
+        Reader r = new Reader(buffer, offset, offset + length);
+        int typeIndex = r.readByte() & 0xFF;
+        byte kind = r.readByte();
+        Payload payload;
+        switch (kind) {
+            case KIND_CONNECTION:
+                payload = new ConnectionPayload();
+                break;
+            case KIND_ROLL:
+                payload = new RollPayload();
+                break;
+            case KIND_PRIVATE_MESSAGE:
+                payload = new PrivateMessagePayload();
+                break;
+            case KIND_ROOM_SNAPSHOT:
+                payload = new RoomSnapshotPayload();
+                break;
+            case KIND_PRESENCE_DELTA:
+                payload = new PresenceDeltaPayload();
+                break;
+            case KIND_RICH_MESSAGE:
+                payload = new RichMessagePayload();
+                break;
+            case KIND_SEARCH:
+                payload = new SearchPayload();
+                break;
+            case KIND_PAYLOAD:
+                payload = new Payload();
+                break;
+            default:
+                throw new StreamCorruptedException("Unknown payload kind " + kind);
+        }
+        if (typeIndex != (NO_TYPE & 0xFF)) {
+            if (typeIndex >= TYPES.length) {
+                throw new StreamCorruptedException("Unknown payload type " + typeIndex);
+            }
+            payload.setPayloadType(TYPES[typeIndex]);
+        } else {
+            payload.setPayloadType(null);
+        }
+        payload.setClientId(r.readZigZag());
+        payload.setTargetClientId(r.readZigZag());
+        payload.setMessage(r.readString());
+        payload.setSenderName(r.readString());
+        payload.setTimestamp(r.readZigZag());
+        long mutedCount = r.readVarLong();
+        if (mutedCount > 0) {
+            List<String> muted = new ArrayList<>((int) Math.min(mutedCount - 1, 1024));
+            for (long i = 1; i < mutedCount; i++) {
+                muted.add(r.readString());
+            }
+            payload.setMutedUsers(muted);
+        }
+        if (payload instanceof ConnectionPayload cp) {
+            cp.setClientName(r.readString());
+            cp.setConnect(r.readByte() != 0);
+            cp.setFeatures((int) r.readZigZag());
+        } else if (payload instanceof RollPayload rp) {
+            rp.setRollRange((int) r.readZigZag());
+            rp.setNumberOfDice((int) r.readZigZag());
+            rp.setSidesPerDie((int) r.readZigZag());
+        } else if (payload instanceof RoomSnapshotPayload sp) {
+            sp.setRoomName(r.readString());
+            long members = r.readVarLong();
+            for (long i = 0; i < members; i++) {
+                sp.addClient(r.readZigZag(), r.readString());
+            }
+        } else if (payload instanceof PresenceDeltaPayload dp) {
+            dp.setRoomName(r.readString());
+            long joined = r.readVarLong();
+            for (long i = 0; i < joined; i++) {
+                dp.addJoined(r.readZigZag(), r.readString());
+            }
+            long left = r.readVarLong();
+            for (long i = 0; i < left; i++) {
+                dp.addLeft(r.readZigZag());
+            }
+        } else if (payload instanceof RichMessagePayload rm) {
+            long runs = r.readVarLong();
+            String text = rm.getMessage() == null ? "" : rm.getMessage();
+            if (runs > text.length()) {
+                throw new StreamCorruptedException("More runs than characters in rich message");
+            }
+            int[] lengths = new int[(int) runs];
+            byte[] styles = new byte[(int) runs];
+            for (int i = 0; i < runs; i++) {
+                lengths[i] = (int) r.readVarLong();
+                styles[i] = r.readByte();
+            }
+            try {
+                rm.setRichText(new RichText(text, lengths, styles));
+            } catch (IllegalArgumentException e) {
+                throw new StreamCorruptedException("Invalid rich message: " + e.getMessage());
+            }
+        } else if (payload instanceof SearchPayload sp) {
+            sp.setRoomName(r.readString());
+            sp.setPage((int) r.readVarLong());
+            sp.setPageSize((int) r.readVarLong());
+            sp.setTotalHits((int) r.readVarLong());
+            long hits = r.readVarLong();
+            for (long i = 0; i < hits; i++) {
+                sp.addHit(r.readZigZag(), r.readZigZag(), r.readString(), r.readString());
+            }
+        }
+        return payload;
+    }
+
+    private static int estimate(String text) {
+        return text == null ? 0 : text.length() * 3;
+    }
+
+    private static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+
+        void writeByte(byte b) {
+            ensure(1);
+            buf[pos++] = b;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, buf, pos, utf8.length);
+            pos += utf8.length;
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] buf, int offset, int end) {
+            this.buf = buf;
+            this.pos = offset;
+            this.end = end;
+        }
+
+        byte readByte() throws IOException {
+            if (pos >= end) {
+                throw new StreamCorruptedException("Truncated binary frame");
+            }
+            return buf[pos++];
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed varint");
+        }
+
+        long readZigZag() throws IOException {
+            long raw = readVarLong();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        String readString() throws IOException {
+            long length = readVarLong();
+            if (length == 0) {
+                return null;
+            }
+            int bytes = (int) (length - 1);
+            if (bytes < 0 || bytes > end - pos) {
+                throw new StreamCorruptedException("Truncated string in binary frame");
+            }
+            String value = new String(buf, pos, bytes, StandardCharsets.UTF_8);
+            pos += bytes;
+            return value;
+        }
+    }
+}
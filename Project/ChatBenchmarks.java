@@ -0,0 +1,143 @@
+package Project;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The benchmarks {@link BenchmarkRunner} runs:
+ * <ul>
+ * <li>payloadRoundTrip: a chat MESSAGE encoded to a frame and decoded again,
+ * java serialization against the binary codec</li>
+ * <li>formatText: TextFX.formatText on plain text and on text with
+ * markup</li>
+ * <li>getClientById: Server lookups among that many registered clients</li>
+ * <li>isMuted: ServerThread mute checks against a mute list of that size,
+ * half of them hits</li>
+ * <li>roomFanOut: Room.sendMessage from one member to a room of that many;
+ * members are in-memory sinks (ServerThreads without a connection whose
+ * outbound queues are emptied, untimed, between batches), so this is the
+ * server's own work: formatting, queuing, scrollback, search index,
+ * metrics</li>
+ * </ul>
+ */
+final class ChatBenchmarks {
+    private static final String MARKUP = "hey **everyone**, welcome to the #r lobby r#! anyone up for a _game_?";
+    private static final String PLAIN = "hey everyone, welcome to the lobby! anyone up for a game tonight?";
+    private static long nextClientId = 1_000_000; // apart from ids the other benchmarks use
+
+    private ChatBenchmarks() {
+    }
+
+    static List<BenchmarkRunner.Benchmark> all() {
+        return List.of(
+                new BenchmarkRunner.Benchmark("payloadRoundTrip", "codec", List.of("serialized", "binary"),
+                        ChatBenchmarks::payloadRoundTrip),
+                new BenchmarkRunner.Benchmark("formatText", "text", List.of("plain", "markup"),
+                        ChatBenchmarks::formatText),
+                new BenchmarkRunner.Benchmark("getClientById", "clients", List.of("100", "10000"),
+                        ChatBenchmarks::getClientById),
+                new BenchmarkRunner.Benchmark("isMuted", "muted", List.of("0", "10", "1000"),
+                        ChatBenchmarks::isMuted),
+                new BenchmarkRunner.Benchmark("roomFanOut", "members", List.of("10", "100", "1000"),
+                        ChatBenchmarks::roomFanOut));
+    }
+
+    private static BenchmarkRunner.Case payloadRoundTrip(String codec) {
+        Payload message = CodecBenchmark.samples().get(0);
+        byte format = codec.equals("binary") ? Frames.FORMAT_BINARY : Frames.FORMAT_SERIALIZED;
+        return () -> {
+            byte[] frame = Frames.encode(message, format);
+            return Frames.decode(frame, Frames.LENGTH_FIELD, frame.length - Frames.LENGTH_FIELD);
+        };
+    }
+
+    private static BenchmarkRunner.Case formatText(String text) {
+        String input = text.equals("plain") ? PLAIN : MARKUP;
+        return () -> TextFX.formatText(input);
+    }
+
+    private static BenchmarkRunner.Case getClientById(String clients) {
+        int count = Integer.parseInt(clients);
+        long[] ids = new long[count * 2]; // every other id isn't registered
+        for (int i = 0; i < count; i++) {
+            ServerThread client = sink();
+            Server.INSTANCE.addClient(client);
+            ids[2 * i] = client.getClientId();
+            ids[2 * i + 1] = -client.getClientId();
+        }
+        int[] next = { 0 };
+        return () -> Server.INSTANCE.getClientById(ids[next[0]++ % ids.length]);
+    }
+
+    private static BenchmarkRunner.Case isMuted(String muted) {
+        int count = Integer.parseInt(muted);
+        ServerThread client = sink();
+        long[] ids = new long[Math.max(2, count * 2)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = nextClientId++;
+            if (i % 2 == 0 && i / 2 < count) {
+                client.addMutedClientId(ids[i]);
+            }
+        }
+        int[] next = { 0 };
+        return () -> client.isMuted(ids[next[0]++ % ids.length]);
+    }
+
+    private static BenchmarkRunner.Case roomFanOut(String members) {
+        int count = Integer.parseInt(members);
+        // no presence window: joins are queued at once and emptied right away
+        Room room = new Room("bench", 0, null, new SearchIndex(ServerConfig.SEARCH_MAX_BYTES));
+        List<ServerThread> sinks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ServerThread sink = sink();
+            room.addClient(sink);
+            sinks.add(sink);
+            drain(sinks);
+        }
+        ServerThread sender = sinks.get(0);
+        String[] lines = new String[64];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = PLAIN + " #" + ThreadLocalRandom.current().nextInt(1000);
+        }
+        int[] next = { 0 };
+        return new BenchmarkRunner.Case() {
+            @Override
+            public Object run() {
+                room.sendMessage(sender, lines[next[0]++ & (lines.length - 1)]);
+                return room;
+            }
+
+            @Override
+            public int batch() {
+                return Math.min(256, ServerConfig.OUTBOUND_CAPACITY / 2); // well before the queues overflow
+            }
+
+            @Override
+            public void reset() {
+                drain(sinks);
+            }
+        };
+    }
+
+    /**
+     * @return a client with an id that accepts sends into its outbound queue
+     *         but has no connection or writer
+     */
+    private static ServerThread sink() {
+        ServerThread sink = new ServerThread(new Socket(), client -> {
+        });
+        sink.isRunning = true;
+        sink.sendClientId(nextClientId++);
+        return sink;
+    }
+
+    private static void drain(List<ServerThread> sinks) {
+        for (ServerThread sink : sinks) {
+            while (sink.getOutboundQueue().poll() != null) {
+                // discard
+            }
+        }
+    }
+}
@@ -0,0 +1,786 @@
+package Project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.function.Consumer;
+
+/**
+ * The chat protocol without a user interface: connects, keeps track of the
+ * room's members and this client's mute list, and turns what the server sends
+ * into {@link ChatEvent}s. Any number can run in one JVM (bots, tests,
+ * tools); {@link Client} (console) and {@link ChatRoomPanel} (Swing) are views
+ * over one.
+ * <p>
+ * Nothing here blocks the caller. Sends are encoded and queued, and each
+ * connection's writer thread writes them, flushing when the queue runs dry;
+ * a send's future completes once its frame was written. Requests the server
+ * answers (search, stats) complete with the answer. Each connection's reader
+ * thread applies a payload to the state here, then publishes it as is to
+ * {@link #payloads()} and interpreted to {@link #events()}. Subscribers only
+ * see what's published after they subscribed, so subscribe before connecting.
+ * A subscriber that falls behind eventually holds up the reader (and so the
+ * server's writes to this client) rather than buffering without bound.
+ * </p>
+ */
+public class ChatClient implements AutoCloseable {
+    /** features offered to the server in CLIENT_CONNECT */
+    public static final int SUPPORTED_FEATURES = ConnectionPayload.FEATURE_BINARY_CODEC
+            | ConnectionPayload.FEATURE_COMPRESSION | ConnectionPayload.FEATURE_ROOM_SNAPSHOT
+            | ConnectionPayload.FEATURE_PRESENCE_DELTA | ConnectionPayload.FEATURE_RICH_TEXT;
+    private static final int SEND_CAPACITY = 1024; // frames waiting to be written before sends are refused
+    // each subscriber is called on a virtual thread, one event at a time
+    private static final Executor DELIVERY = task -> Thread.ofVirtual().name("chat-events").start(task);
+
+    private final int features;
+    private final SubmissionPublisher<Payload> payloads = new SubmissionPublisher<>(DELIVERY,
+            Flow.defaultBufferSize());
+    private final SubmissionPublisher<ChatEvent> events = new SubmissionPublisher<>(DELIVERY,
+            Flow.defaultBufferSize());
+    private final ConcurrentHashMap<Long, String> knownClients = new ConcurrentHashMap<>();
+    // lowercase name -> client id, kept in step with knownClients (see addKnownClient/removeKnownClient)
+    private final ConcurrentHashMap<String, Long> knownClientIdsByName = new ConcurrentHashMap<>();
+    private volatile Set<String> mutedUsers = Set.of();
+    // answers arrive in the order asked
+    private final Queue<CompletableFuture<SearchPayload>> pendingSearches = new ConcurrentLinkedQueue<>();
+    private final Queue<CompletableFuture<String>> pendingStats = new ConcurrentLinkedQueue<>();
+    private volatile Connection connection;
+    private volatile long clientId = ClientData.DEFAULT_CLIENT_ID;
+    private volatile String clientName;
+    private volatile String lastSearch; // query of the last search, for searchNextPage()
+    private volatile int lastSearchPage;
+
+    public ChatClient() {
+        this(SUPPORTED_FEATURES);
+    }
+
+    /**
+     * @param features FEATURE_* bitmask to offer the server
+     */
+    public ChatClient(int features) {
+        this.features = features;
+    }
+
+    /**
+     * Connects and introduces this client by name
+     *
+     * @param host
+     * @param port
+     * @param name
+     * @return completes with the id the server assigned, or exceptionally if
+     *         the connection failed or closed before that
+     */
+    public CompletableFuture<Long> connect(String host, int port, String name) {
+        Connection c;
+        synchronized (this) {
+            if (events.isClosed()) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Client is closed"));
+            }
+            if (connection != null) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Already connected"));
+            }
+            c = new Connection();
+            connection = c;
+        }
+        Thread.ofVirtual().name("chat-connect").start(() -> {
+            try {
+                c.open(host, port);
+                ConnectionPayload cp = new ConnectionPayload();
+                cp.setClientName(name);
+                cp.setFeatures(features);
+                c.send(cp);
+            } catch (IOException e) {
+                closed(c, "Failed to connect to " + host + ":" + port + ": " + e.getMessage());
+            }
+        });
+        return c.identified;
+    }
+
+    /**
+     * @return true from connect() until the connection is gone
+     */
+    public boolean isConnected() {
+        return connection != null;
+    }
+
+    /**
+     * @return assigned by the server, or DEFAULT_CLIENT_ID when not connected
+     */
+    public long getClientId() {
+        return clientId;
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+    /**
+     * @return id -> name of the users in this client's room
+     */
+    public Map<Long, String> getKnownClients() {
+        return Map.copyOf(knownClients);
+    }
+
+    /**
+     * @param name any case
+     * @return the id of the user in this client's room with that name, or null
+     */
+    public Long getClientIdByName(String name) {
+        return name == null ? null : knownClientIdsByName.get(name.toLowerCase());
+    }
+
+    /**
+     * @return names of the users this client muted
+     */
+    public Set<String> getMutedUsers() {
+        return mutedUsers;
+    }
+
+    /**
+     * @return every payload the server sends
+     */
+    public Flow.Publisher<Payload> payloads() {
+        return payloads;
+    }
+
+    /**
+     * @return what happened, interpreted
+     */
+    public Flow.Publisher<ChatEvent> events() {
+        return events;
+    }
+
+    /**
+     * Calls the handler for every event, one at a time, on a thread of its own
+     *
+     * @param handler
+     * @return completes when the client is closed
+     */
+    public CompletableFuture<Void> onEvent(Consumer<? super ChatEvent> handler) {
+        return events.consume(handler);
+    }
+
+    // send methods
+
+    /**
+     * Queues any payload for the server
+     *
+     * @param p
+     * @return completes once it was written, or exceptionally if it couldn't
+     *         be
+     */
+    public CompletableFuture<Void> send(Payload p) {
+        Connection c = connection;
+        return c == null ? CompletableFuture.failedFuture(new IOException("Not connected to server.")) : c.send(p);
+    }
+
+    public CompletableFuture<Void> sendMessage(String message) {
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.MESSAGE);
+        p.setClientId(clientId);
+        p.setMessage(message);
+        return send(p);
+    }
+
+    /**
+     * @param username someone in this client's room
+     * @param message
+     * @return fails with IllegalArgumentException if there's no such user
+     */
+    public CompletableFuture<Void> sendPrivateMessage(String username, String message) {
+        Long targetClientId = getClientIdByName(username);
+        if (targetClientId == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("User '" + username + "' not found."));
+        }
+        PrivateMessagePayload p = new PrivateMessagePayload();
+        p.setPayloadType(PayloadType.PRIVATE_MESSAGE);
+        p.setClientId(clientId);
+        p.setTargetClientId(targetClientId);
+        p.setMessage(message);
+        return send(p);
+    }
+
+    /**
+     * Creates the room and joins it
+     *
+     * @param roomName
+     * @return @see {@link #send(Payload)}
+     */
+    public CompletableFuture<Void> createRoom(String roomName) {
+        if (roomName == null || roomName.trim().isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Room name cannot be empty."));
+        }
+        return sendRoomAction(PayloadType.ROOM_CREATE, roomName);
+    }
+
+    public CompletableFuture<Void> joinRoom(String roomName) {
+        return sendRoomAction(PayloadType.ROOM_JOIN, roomName);
+    }
+
+    private CompletableFuture<Void> sendRoomAction(PayloadType type, String roomName) {
+        Payload p = new Payload();
+        p.setPayloadType(type);
+        p.setMessage(roomName);
+        return send(p);
+    }
+
+    public CompletableFuture<Void> mute(String username) {
+        return sendMute(PayloadType.MUTE, username);
+    }
+
+    public CompletableFuture<Void> unmute(String username) {
+        return sendMute(PayloadType.UNMUTE, username);
+    }
+
+    private CompletableFuture<Void> sendMute(PayloadType type, String username) {
+        Long targetClientId = getClientIdByName(username);
+        if (targetClientId == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("User '" + username + "' not found."));
+        }
+        Payload p = new Payload();
+        p.setPayloadType(type);
+        p.setClientId(clientId);
+        p.setMessage(username);
+        p.setTargetClientId(targetClientId);
+        return send(p);
+    }
+
+    /**
+     * @param dice a range like "6" or dice like "2d6"
+     * @return fails with IllegalArgumentException if it's neither
+     */
+    // kr553 11/9/2024
+    public CompletableFuture<Void> roll(String dice) {
+        String commandValue = dice == null ? "" : dice.trim();
+        RollPayload rollPayload = new RollPayload();
+        rollPayload.setSenderName(clientName);
+        rollPayload.setClientId(clientId);
+        if (commandValue.matches("\\d+")) { // Single number (e.g., /roll 6)
+            rollPayload.setRollRange(Integer.parseInt(commandValue));
+        } else if (commandValue.matches("\\d+d\\d+")) { // Dice notation (e.g., /roll 2d6)
+            String[] parts = commandValue.split("d");
+            rollPayload.setNumberOfDice(Integer.parseInt(parts[0]));
+            rollPayload.setSidesPerDie(Integer.parseInt(parts[1]));
+        } else {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid /roll command format."));
+        }
+        return send(rollPayload);
+    }
+
+    // kr553 11/9/2024
+    public CompletableFuture<Void> flip() {
+        Payload flipPayload = new Payload();
+        flipPayload.setPayloadType(PayloadType.FLIP);
+        flipPayload.setSenderName(clientName);
+        flipPayload.setClientId(clientId);
+        return send(flipPayload);
+    }
+
+    /**
+     * Asks for a page of messages in the current room containing every word
+     *
+     * @param query
+     * @param page  1 based
+     * @return completes with the page
+     */
+    public CompletableFuture<SearchPayload> search(String query, int page) {
+        SearchPayload p = new SearchPayload();
+        p.setClientId(clientId);
+        p.setMessage(query);
+        p.setPage(page);
+        lastSearch = query;
+        lastSearchPage = page;
+        return request(p, pendingSearches);
+    }
+
+    /**
+     * @return the page after the last search's, or fails with
+     *         IllegalStateException if there was none
+     */
+    public CompletableFuture<SearchPayload> searchNextPage() {
+        String query = lastSearch;
+        if (query == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Nothing searched yet"));
+        }
+        return search(query, lastSearchPage + 1);
+    }
+
+    /**
+     * Asks the server for its metrics summary
+     *
+     * @return completes with the report, one line per entry
+     */
+    public CompletableFuture<String> stats() {
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.STATS);
+        p.setClientId(clientId);
+        return request(p, pendingStats);
+    }
+
+    private <T> CompletableFuture<T> request(Payload p, Queue<CompletableFuture<T>> pending) {
+        CompletableFuture<T> answer = new CompletableFuture<>();
+        pending.add(answer); // before sending, so the answer can't arrive first
+        send(p).whenComplete((written, error) -> {
+            if (error != null && pending.remove(answer)) {
+                answer.completeExceptionally(error);
+            }
+        });
+        return answer;
+    }
+
+    /**
+     * Tells the server-side we want to disconnect; it closes the connection
+     */
+    public CompletableFuture<Void> disconnect() {
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.DISCONNECT);
+        return send(p);
+    }
+
+    /**
+     * Handles a line as typed into a chat: a /command, an @user private
+     * message, or a message for the room
+     *
+     * @param line
+     * @return completes with a confirmation to show (or null) once sent, or
+     *         exceptionally with an IllegalArgumentException whose message
+     *         says what's wrong with the line
+     */
+    public CompletableFuture<String> submit(String line) {
+        if (line.startsWith("@")) {
+            String[] parts = line.split("\\s+", 2);
+            return sendPrivateMessage(parts[0].substring(1), parts.length == 2 ? parts[1] : "")
+                    .thenApply(v -> null);
+        }
+        if (!line.startsWith("/")) {
+            return sendMessage(line).thenApply(v -> null);
+        }
+        String[] parts = line.split("\\s+", 2);
+        String command = parts[0].substring(1).toLowerCase(); // Remove leading '/' and make lowercase
+        String argument = parts.length > 1 ? parts[1].trim() : "";
+        switch (command) {
+            case "createroom":
+                return argument.isEmpty() ? usage("/createroom <room_name>")
+                        : createRoom(argument).thenApply(v -> null);
+            case "joinroom":
+                return argument.isEmpty() ? usage("/joinroom <room_name>") : joinRoom(argument).thenApply(v -> null);
+            case "mute":
+                return argument.isEmpty() ? usage("/mute <username>")
+                        : mute(argument).thenApply(v -> "You have muted " + argument);
+            case "unmute":
+                return argument.isEmpty() ? usage("/unmute <username>")
+                        : unmute(argument).thenApply(v -> "You have unmuted " + argument);
+            case "quit":
+            case "disconnect":
+            case "logoff":
+            case "logout":
+                return disconnect().thenApply(v -> null);
+            case "users":
+                List<String> names = new ArrayList<>(knownClients.values());
+                names.sort(String.CASE_INSENSITIVE_ORDER);
+                return CompletableFuture.completedFuture("Users: " + String.join(", ", names));
+            case "roll":
+                return roll(argument).thenApply(v -> "Roll command sent successfully!");
+            case "flip":
+                return flip().thenApply(v -> "Flip command sent successfully!");
+            case "search":
+                // results arrive as an event too, which is where views show them
+                if (!argument.isEmpty()) {
+                    return search(argument, 1).thenApply(results -> null);
+                }
+                return lastSearch != null ? searchNextPage().thenApply(results -> null)
+                        : usage("/search <words> (then /search for more)");
+            case "stats":
+                return stats().thenApply(report -> null);
+            default:
+                return CompletableFuture.failedFuture(new IllegalArgumentException("Unknown command: " + command));
+        }
+    }
+
+    private static CompletableFuture<String> usage(String usage) {
+        return CompletableFuture.failedFuture(new IllegalArgumentException("Usage: " + usage));
+    }
+
+    // end send methods
+
+    /**
+     * Drops the connection (without a DISCONNECT) and ends the event streams
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            events.close();
+        }
+        Connection c = connection;
+        if (c != null) {
+            c.close();
+        }
+        payloads.close();
+    }
+
+    /**
+     * The connection is gone: resets what was known through it and tells the
+     * subscribers
+     */
+    private void closed(Connection c, String reason) {
+        c.close();
+        synchronized (this) {
+            if (connection != c) {
+                return;
+            }
+            connection = null;
+        }
+        clientId = ClientData.DEFAULT_CLIENT_ID;
+        clearKnownClients();
+        mutedUsers = Set.of();
+        IOException gone = new IOException(reason);
+        c.identified.completeExceptionally(gone);
+        for (CompletableFuture<?> f; (f = pendingSearches.poll()) != null;) {
+            f.completeExceptionally(gone);
+        }
+        for (CompletableFuture<?> f; (f = pendingStats.poll()) != null;) {
+            f.completeExceptionally(gone);
+        }
+        publish(new ChatEvent.Disconnected(reason));
+    }
+
+    private void publish(ChatEvent event) {
+        if (!events.isClosed()) {
+            events.submit(event); // waits while a subscriber's buffer is full
+        }
+    }
+
+    private void addKnownClient(long id, String name) {
+        knownClients.put(id, name);
+        knownClientIdsByName.put(name.toLowerCase(), id);
+    }
+
+    private String removeKnownClient(long id) {
+        String removed = knownClients.remove(id);
+        if (removed != null) {
+            // only if the name still points at this client
+            knownClientIdsByName.remove(removed.toLowerCase(), id);
+        }
+        return removed;
+    }
+
+    private void clearKnownClients() {
+        knownClients.clear();
+        knownClientIdsByName.clear();
+    }
+
+    // payload processors
+
+    /**
+     * Handles received payloads from the ServerThread, on the connection's
+     * reader thread
+     *
+     * @param c
+     * @param payload
+     */
+    // kr553 10/20/2024
+    private void processPayload(Connection c, Payload payload) {
+        if (!payloads.isClosed()) {
+            payloads.submit(payload);
+        }
+        try {
+            switch (payload.getPayloadType()) {
+                case CLIENT_ID -> processClientId(c, (ConnectionPayload) payload);
+                case MESSAGE, PRIVATE_MESSAGE -> processMessage(payload);
+                case SYNC_CLIENT -> {
+                    ConnectionPayload cp = (ConnectionPayload) payload;
+                    if (!knownClients.containsKey(cp.getClientId())) {
+                        String name = nameOrUnknown(cp.getClientName());
+                        addKnownClient(cp.getClientId(), name);
+                        publish(new ChatEvent.Presence(null, Map.of(cp.getClientId(), name), Map.of(), true));
+                    }
+                }
+                case DISCONNECT -> {
+                    ConnectionPayload cp = (ConnectionPayload) payload;
+                    if (cp.getClientId() == clientId) {
+                        c.close(); // the reader sees the end of the stream and reports it
+                    } else if (removeKnownClient(cp.getClientId()) != null) {
+                        publish(new ChatEvent.Presence(null, Map.of(),
+                                Map.of(cp.getClientId(), nameOrUnknown(cp.getClientName())), false));
+                    }
+                }
+                case ROOM_JOIN -> processRoomAction((ConnectionPayload) payload);
+                case MUTE_LIST -> processMutedUsers(payload.getMutedUsers());
+                case ROOM_SNAPSHOT -> processRoomSnapshot((RoomSnapshotPayload) payload);
+                case PRESENCE_DELTA -> processPresenceDelta((PresenceDeltaPayload) payload);
+                case SEARCH -> {
+                    CompletableFuture<SearchPayload> answer = pendingSearches.poll();
+                    if (answer != null) {
+                        answer.complete((SearchPayload) payload);
+                    }
+                    publish(new ChatEvent.SearchResults((SearchPayload) payload));
+                }
+                case STATS -> {
+                    CompletableFuture<String> answer = pendingStats.poll();
+                    if (answer != null) {
+                        answer.complete(payload.getMessage());
+                    }
+                    publish(new ChatEvent.Stats(payload.getMessage()));
+                }
+                default -> {
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.error("ChatClient", "Could not process Payload: " + payload, e);
+        }
+    }
+
+    private void processClientId(Connection c, ConnectionPayload cp) {
+        c.frameFormat = (cp.getFeatures() & ConnectionPayload.FEATURE_BINARY_CODEC) != 0
+                ? Frames.FORMAT_BINARY
+                : Frames.FORMAT_SERIALIZED;
+        if (clientId == ClientData.DEFAULT_CLIENT_ID) {
+            clientId = cp.getClientId();
+            clientName = cp.getClientName();
+            publish(new ChatEvent.Connected(clientId, clientName));
+            c.identified.complete(clientId);
+        }
+    }
+
+    private void processMessage(Payload payload) {
+        RichText text = payload instanceof RichMessagePayload rm ? rm.getRichText() : null;
+        publish(new ChatEvent.Message(payload.getClientId(), senderName(payload),
+                payload.getPayloadType() == PayloadType.PRIVATE_MESSAGE, payload.getClientId() == clientId, text,
+                text == null ? payload.getMessage() : null, payload.getTimestamp()));
+    }
+
+    /**
+     * @param payload a MESSAGE or PRIVATE_MESSAGE
+     * @return who sent it; replayed scrollback may be from someone who already
+     *         left, so the name it carries is the fallback
+     */
+    private String senderName(Payload payload) {
+        long senderId = payload.getClientId();
+        if (senderId == ServerThread.DEFAULT_CLIENT_ID) {
+            return "Server";
+        }
+        String known = knownClients.get(senderId);
+        if (known != null) {
+            return known;
+        }
+        return payload.getSenderName() != null ? payload.getSenderName() : "Unknown";
+    }
+
+    private static String nameOrUnknown(String clientName) {
+        return clientName == null || clientName.isEmpty() ? "Unknown" : clientName;
+    }
+
+    private void processMutedUsers(List<String> mutedUsernames) {
+        mutedUsers = mutedUsernames == null ? Set.of() : Set.copyOf(mutedUsernames);
+        publish(new ChatEvent.MutedUsers(mutedUsers));
+    }
+
+    private void processRoomSnapshot(RoomSnapshotPayload snapshot) {
+        // merged rather than replacing the list: a ROOM_JOIN for someone who joined
+        // right after the snapshot was taken may already have arrived
+        Map<Long, String> added = new LinkedHashMap<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            long id = snapshot.getClientIds().get(i);
+            if (!knownClients.containsKey(id)) {
+                String name = nameOrUnknown(snapshot.getClientNames().get(i));
+                addKnownClient(id, name);
+                added.put(id, name);
+            }
+        }
+        if (snapshot.getMutedUsers() != null) {
+            processMutedUsers(snapshot.getMutedUsers());
+        }
+        if (!added.isEmpty()) {
+            publish(new ChatEvent.Presence(snapshot.getRoomName(), added, Map.of(), true));
+        }
+    }
+
+    private void processRoomAction(ConnectionPayload cp) {
+        long id = cp.getClientId();
+        String name = nameOrUnknown(cp.getClientName());
+        String room = cp.getMessage();
+        if (cp.isConnect()) {
+            if (!knownClients.containsKey(id)) {
+                addKnownClient(id, name);
+                publish(new ChatEvent.Presence(room, Map.of(id, name), Map.of(), false));
+            }
+            return;
+        }
+        if (removeKnownClient(id) != null) {
+            publish(new ChatEvent.Presence(room, Map.of(), Map.of(id, name), false));
+        }
+        if (id == clientId) {
+            // Clear our list if we left
+            clearKnownClients();
+            publish(new ChatEvent.RoomLeft(room));
+        }
+    }
+
+    /**
+     * Applies a batch of joins/leaves to the known clients, then publishes
+     * them as one event
+     *
+     * @param delta
+     */
+    private void processPresenceDelta(PresenceDeltaPayload delta) {
+        Map<Long, String> joined = new LinkedHashMap<>();
+        for (int i = 0; i < delta.getJoinedIds().size(); i++) {
+            long id = delta.getJoinedIds().get(i);
+            if (!knownClients.containsKey(id)) {
+                String name = nameOrUnknown(delta.getJoinedNames().get(i));
+                addKnownClient(id, name);
+                joined.put(id, name);
+            }
+        }
+        Map<Long, String> left = new LinkedHashMap<>();
+        for (long id : delta.getLeftIds()) {
+            if (id == clientId) {
+                continue; // our own leave arrives as a ROOM_JOIN
+            }
+            String removed = removeKnownClient(id);
+            if (removed != null) {
+                left.put(id, removed);
+            }
+        }
+        if (!joined.isEmpty() || !left.isEmpty()) {
+            publish(new ChatEvent.Presence(delta.getRoomName(), joined, left, false));
+        }
+    }
+
+    // end payload processors
+
+    /**
+     * A frame on its way out and who's waiting for it
+     */
+    private record Outgoing(byte[] frame, CompletableFuture<Void> written) {
+    }
+
+    /**
+     * One socket with its reader and writer; replaced by a new one on
+     * reconnect, so a late frame from the old one can't touch the new
+     * session
+     */
+    private final class Connection {
+        private final CompletableFuture<Long> identified = new CompletableFuture<>();
+        private final BlockingQueue<Outgoing> queue = new ArrayBlockingQueue<>(SEND_CAPACITY);
+        private volatile byte frameFormat = Frames.FORMAT_SERIALIZED; // switched once the server accepts binary
+        private volatile Socket socket;
+        private volatile Thread writer;
+        private volatile boolean closed;
+
+        private void open(String host, int port) throws IOException {
+            Socket s = new Socket(host, port);
+            socket = s;
+            if (closed) {
+                s.close(); // closed while connecting
+                throw new IOException("Closed while connecting");
+            }
+            // the preamble tells the server we speak the framed protocol; it goes out with the first frame
+            // not a DataOutputStream: its synchronized writes would pin the virtual writer on a full socket
+            BufferedOutputStream out = new BufferedOutputStream(s.getOutputStream());
+            Frames.writePreamble(new DataOutputStream(out)); // only buffered here
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            writer = Thread.ofVirtual().name("chat-writer").start(() -> writeLoop(out));
+            Thread.ofVirtual().name("chat-reader").start(() -> readLoop(in));
+        }
+
+        private CompletableFuture<Void> send(Payload p) {
+            CompletableFuture<Void> written = new CompletableFuture<>();
+            try {
+                if (closed) {
+                    throw new IOException("Not connected to server.");
+                }
+                if (!queue.offer(new Outgoing(Frames.encode(p, frameFormat), written))) {
+                    throw new IOException("Too many sends waiting to be written");
+                }
+                if (closed) {
+                    failQueued(); // the writer may have stopped before this was queued
+                }
+            } catch (IOException e) {
+                written.completeExceptionally(e);
+            }
+            return written;
+        }
+
+        private void writeLoop(BufferedOutputStream out) {
+            List<Outgoing> batch = new ArrayList<>();
+            try {
+                while (!closed) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    for (Outgoing o : batch) {
+                        out.write(o.frame());
+                    }
+                    out.flush(); // once for everything that was waiting
+                    for (Outgoing o : batch) {
+                        o.written().complete(null);
+                    }
+                    batch.clear();
+                }
+            } catch (IOException e) {
+                closed(this, "Connection dropped: " + e.getMessage());
+            } catch (InterruptedException e) {
+                // closed
+            }
+            IOException gone = new IOException("Not connected to server.");
+            batch.forEach(o -> o.written().completeExceptionally(gone));
+            failQueued();
+        }
+
+        private void readLoop(DataInputStream in) {
+            FrameInflater inflater = new FrameInflater(); // only this thread reads, and a new one per connection
+            String reason = "Server disconnected.";
+            try {
+                Payload fromServer;
+                while ((fromServer = Frames.read(in, inflater)) != null) { // blocking read
+                    processPayload(this, fromServer);
+                }
+            } catch (IOException e) {
+                reason = closed ? "Disconnected." : "Connection dropped: " + e.getMessage();
+            } finally {
+                inflater.end();
+                closed(this, reason);
+            }
+        }
+
+        private void failQueued() {
+            IOException gone = new IOException("Not connected to server.");
+            for (Outgoing o; (o = queue.poll()) != null;) {
+                o.written().completeExceptionally(gone);
+            }
+        }
+
+        private void close() {
+            closed = true;
+            Thread w = writer;
+            if (w != null) {
+                w.interrupt();
+            }
+            try {
+                Socket s = socket;
+                if (s != null) {
+                    s.close();
+                }
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package Project;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What a {@link ChatClient} publishes to {@link ChatClient#events()}. Each is
+ * published after it was applied to the client's state, so, i.e., a joined
+ * user is already in getKnownClients() when the Presence arrives.
+ */
+public sealed interface ChatEvent {
+
+    /**
+     * The server accepted the connection
+     *
+     * @param clientId   assigned by the server
+     * @param clientName
+     */
+    record Connected(long clientId, String clientName) implements ChatEvent {
+    }
+
+    /**
+     * A room or private message. Servers that accept FEATURE_RICH_TEXT send
+     * styled text; older ones send HTML, kept as is.
+     *
+     * @param senderId   DEFAULT_CLIENT_ID for the server
+     * @param senderName
+     * @param isPrivate
+     * @param isMine     sent by this client
+     * @param text       styled text, or null if the server sent HTML
+     * @param html       rendered HTML, or null if the server sent text
+     * @param timestamp  when the server sent it
+     */
+    record Message(long senderId, String senderName, boolean isPrivate, boolean isMine, RichText text, String html,
+            long timestamp) implements ChatEvent {
+    }
+
+    /**
+     * Users who joined or left, or who were already in the room when this
+     * client joined
+     *
+     * @param roomName null if they disconnected
+     * @param joined   id -> name
+     * @param left     id -> name
+     * @param roster   they were already there, nothing to announce
+     */
+    record Presence(String roomName, Map<Long, String> joined, Map<Long, String> left, boolean roster)
+            implements ChatEvent {
+
+        /**
+         * @return i.e., "*alice[3], bob[4] joined the Room lobby*", or null
+         */
+        public String joinedNotice() {
+            if (roster || joined.isEmpty()) {
+                return null;
+            }
+            return String.format("*%s joined the Room %s*", names(joined), roomName);
+        }
+
+        /**
+         * @return i.e., "*alice[3] left the Room lobby*", or null
+         */
+        public String leftNotice() {
+            if (roster || left.isEmpty()) {
+                return null;
+            }
+            return roomName == null ? String.format("*%s disconnected*", names(left))
+                    : String.format("*%s left the Room %s*", names(left), roomName);
+        }
+
+        private static String names(Map<Long, String> users) {
+            List<String> names = new ArrayList<>();
+            users.forEach((id, name) -> names.add(String.format("%s[%s]", name, id)));
+            return String.join(", ", names);
+        }
+    }
+
+    /**
+     * This client left its room; the known clients were cleared
+     *
+     * @param roomName
+     */
+    record RoomLeft(String roomName) implements ChatEvent {
+    }
+
+    /**
+     * @param names users this client muted
+     */
+    record MutedUsers(Set<String> names) implements ChatEvent {
+    }
+
+    /**
+     * A page of results for {@link ChatClient#search(String, int)}
+     *
+     * @param results
+     */
+    record SearchResults(SearchPayload results) implements ChatEvent {
+
+        /**
+         * @return a heading, one line per hit and a hint if there are more pages
+         */
+        public List<RichText> lines() {
+            List<RichText> lines = new ArrayList<>();
+            if (results.getTotalHits() == 0) {
+                lines.add(RichText.plain(String.format("Search '%s': no messages found in %s", results.getMessage(),
+                        results.getRoomName())));
+            } else {
+                lines.add(new RichText.Builder()
+                        .append(String.format("Search '%s': %d messages in %s, page %d of %d", results.getMessage(),
+                                results.getTotalHits(), results.getRoomName(), results.getPage(),
+                                results.getPageCount()),
+                                RichText.BOLD)
+                        .build());
+            }
+            for (int i = 0; i < results.getHitCount(); i++) {
+                String time = String.format("%tF %<tR", results.getTimestamps().get(i));
+                String name = results.getSenderNames().get(i) == null ? "Server" : results.getSenderNames().get(i);
+                lines.add(new RichText.Builder().append(String.format("[%s] %s: ", time, name), RichText.BOLD)
+                        .append(MessageFormatter.parse(results.getMessages().get(i))).build());
+            }
+            if (results.getPage() < results.getPageCount()) {
+                lines.add(RichText.plain("Type /search for the next page"));
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * The server's answer to {@link ChatClient#stats()}
+     *
+     * @param report one line per entry
+     */
+    record Stats(String report) implements ChatEvent {
+
+        public List<String> lines() {
+            return report == null ? List.of() : List.of(report.split("\n"));
+        }
+    }
+
+    /**
+     * The connection is gone; the client can connect again
+     *
+     * @param reason
+     */
+    record Disconnected(String reason) implements ChatEvent {
+    }
+}
@@ -0,0 +1,116 @@
+package Project;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.Writer;
+import javax.swing.JList;
+import javax.swing.JTextPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.html.HTMLDocument;
+import javax.swing.text.html.HTMLEditorKit;
+
+/**
+ * Per-append cost of the chat history as it grows: ChatLogModel (bounded,
+ * older lines spooled) on its own and behind a JList, against the old single
+ * HTMLDocument that every message was inserted into.
+ * <p>
+ * The JList run is laid out every 100 appends like a repaint would, so it
+ * includes parsing each new line once and the cached heights of the rest;
+ * that parse dominates, so it gets fewer appends. Runs headless.
+ * </p>
+ * Usage: java -Djava.awt.headless=true Project.ChatLogBenchmark [appends]
+ * [listAppends] [oldAppends]
+ */
+public class ChatLogBenchmark {
+    private static final int BUCKETS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int appends = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int listAppends = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        int oldAppends = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        run(appends, false);
+        run(listAppends, true);
+
+        // what appendChatMessageWithColor used to do
+        JTextPane pane = new JTextPane();
+        pane.setContentType("text/html");
+        HTMLEditorKit kit = (HTMLEditorKit) pane.getEditorKit();
+        HTMLDocument doc = (HTMLDocument) pane.getDocument();
+        System.out.println(String.format("HTMLDocument, %,d appends", oldAppends));
+        System.out.println(String.format("%12s %12s %10s", "appended", "ns/append", "heap MB"));
+        int bucket = oldAppends / BUCKETS;
+        long start = System.nanoTime();
+        for (int i = 1; i <= oldAppends; i++) {
+            try {
+                kit.insertHTML(doc, doc.getLength(), "<span style='color:#00ff00;'>" + line(i) + "</span><br>", 0, 0,
+                        null);
+            } catch (BadLocationException | IOException e) {
+                throw new IllegalStateException(e);
+            }
+            if (i % bucket == 0) {
+                long now = System.nanoTime();
+                System.out.println(String.format("%,12d %,12.0f %10d", i, (now - start) / (double) bucket, heapMb()));
+                start = System.nanoTime();
+            }
+        }
+    }
+
+    private static void run(int appends, boolean withList) throws IOException {
+        ChatLogModel model = new ChatLogModel();
+        JList<ChatLogModel.Line> list = new JList<>(model);
+        ChatLogRenderer renderer = new ChatLogRenderer();
+        list.setCellRenderer(renderer);
+        list.setSize(600, 400);
+        System.out.println(String.format("ChatLogModel%s capacity=%d, %,d appends", withList ? " + JList" : "",
+                model.getCapacity(), appends));
+        System.out.println(String.format("%12s %12s %10s", "appended", "ns/append", "heap MB"));
+        int bucket = appends / BUCKETS;
+        long start = System.nanoTime();
+        for (int i = 1; i <= appends; i++) {
+            model.append(line(i), i % 2 == 0 ? Color.GREEN : Color.BLUE);
+            if (withList && i % 100 == 0) {
+                Benchmarks.consume(list.getPreferredSize()); // row layout, as a repaint would do
+            }
+            if (i % bucket == 0) {
+                long now = System.nanoTime();
+                System.out.println(String.format("%,12d %,12.0f %10d", i, (now - start) / (double) bucket, heapMb()));
+                start = System.nanoTime();
+            }
+        }
+        CountingWriter exported = new CountingWriter();
+        model.export(exported);
+        System.out.println(String.format("export: %,d lines (%,d evicted), views parsed: %,d", exported.lines,
+                model.getEvicted(), renderer.getViewsCreated()));
+        model.close();
+    }
+
+    private static String line(int i) {
+        return "<b>user" + (i % 50) + ":</b> message number " + i + " with <i>some</i> <u>formatting</u>";
+    }
+
+    private static long heapMb() {
+        Runtime rt = Runtime.getRuntime();
+        return (rt.totalMemory() - rt.freeMemory()) >> 20;
+    }
+
+    private static final class CountingWriter extends Writer {
+        private long lines = 0;
+
+        @Override
+        public void write(char[] buf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                if (buf[i] == '\n') {
+                    lines++;
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
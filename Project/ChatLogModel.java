@@ -0,0 +1,239 @@
+package Project;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import javax.swing.AbstractListModel;
+
+/**
+ * Chat history for the ChatRoomPanel: a ring buffer of the newest lines
+ * shown by a JList, so memory and the cost of an append stay flat no matter
+ * how long the client runs.
+ * <p>
+ * When the buffer is full the oldest line is evicted; its plain text goes to
+ * a spool file first, so {@link #export(Writer)} can still write the whole
+ * session. Only use it from the EDT.
+ * </p>
+ */
+public class ChatLogModel extends AbstractListModel<ChatLogModel.Line> {
+    /** -Dchat.client.historyLines lines kept in memory (older ones are only in the export spool) */
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("chat.client.historyLines", 2_000);
+
+    /**
+     * One chat line; the renderer caches its layout here
+     */
+    public static final class Line {
+        private final String html; // fragment produced by TextFX, without the <html> wrapper
+        private final String text; // plain text if known (rich messages), otherwise derived from html
+        private final Color color;
+        private final long timestamp;
+        // layout cache, see ChatLogRenderer
+        int layoutWidth = -1;
+        int layoutHeight;
+
+        public Line(String html, Color color, long timestamp) {
+            this(html, null, color, timestamp);
+        }
+
+        /**
+         * @param text styled text; the export uses its plain text as is
+         * @param color
+         * @param timestamp
+         */
+        public Line(RichText text, Color color, long timestamp) {
+            this(text.toHtml(), text.getText(), color, timestamp);
+        }
+
+        private Line(String html, String text, Color color, long timestamp) {
+            this.html = html == null ? "" : html;
+            this.text = text;
+            this.color = color;
+            this.timestamp = timestamp;
+        }
+
+        public String getHtml() {
+            return html;
+        }
+
+        public Color getColor() {
+            return color;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return text != null ? text : TextFX.toPlainText(html);
+        }
+    }
+
+    private final Line[] ring;
+    private int head = 0; // index of the oldest line
+    private int size = 0;
+    private long appended = 0;
+    private long evicted = 0;
+    private File spoolFile; // created on the first eviction
+    private BufferedWriter spool;
+
+    public ChatLogModel() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity lines kept in memory
+     */
+    public ChatLogModel(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        ring = new Line[capacity];
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Line getElementAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return ring[(head + index) % ring.length];
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * @return lines appended since this model was created
+     */
+    public long getAppended() {
+        return appended;
+    }
+
+    /**
+     * @return lines that only exist in the export spool
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Adds a line at the end, evicting the oldest one if the buffer is full
+     *
+     * @param html  formatted message (HTML fragment)
+     * @param color default text color
+     */
+    public void append(String html, Color color) {
+        appendAll(List.of(new Line(html, color, System.currentTimeMillis())));
+    }
+
+    /**
+     * Adds lines at the end with one removed and one added event, however
+     * many there are
+     *
+     * @param lines
+     */
+    public void appendAll(List<Line> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        int sizeBefore = size;
+        int removed = 0;
+        for (Line line : lines) {
+            appended++;
+            if (size == ring.length) {
+                spool(ring[head]);
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                size--;
+                evicted++;
+                removed++;
+            }
+            ring[(head + size) % ring.length] = line;
+            size++;
+        }
+        // rows that were on screen before this batch and got evicted (a huge batch can evict its own lines too)
+        int removedBefore = Math.min(removed, sizeBefore);
+        if (removedBefore > 0) {
+            fireIntervalRemoved(this, 0, removedBefore - 1);
+        }
+        fireIntervalAdded(this, sizeBefore - removedBefore, size - 1);
+    }
+
+    /**
+     * Drops the cached layouts, i.e., after the view's width or font changed
+     */
+    public void invalidateLayouts() {
+        for (int i = 0; i < size; i++) {
+            getElementAt(i).layoutWidth = -1;
+        }
+        if (size > 0) {
+            fireContentsChanged(this, 0, size - 1);
+        }
+    }
+
+    /**
+     * Writes the whole session as plain text: spooled lines first, then the
+     * ones still in memory
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void export(Writer out) throws IOException {
+        if (spool != null) {
+            spool.flush();
+            try (BufferedReader reader = new BufferedReader(new FileReader(spoolFile))) {
+                reader.transferTo(out);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            out.write(getElementAt(i).toString());
+            out.write(System.lineSeparator());
+        }
+        out.flush();
+    }
+
+    /**
+     * Deletes the spool file; lines evicted after this are spooled to a new one
+     */
+    public void close() {
+        try {
+            if (spool != null) {
+                spool.close();
+            }
+        } catch (IOException e) {
+            Log.error("ChatLogModel", "Unable to close the chat history spool", e);
+        }
+        if (spoolFile != null) {
+            spoolFile.delete();
+        }
+        spool = null;
+        spoolFile = null;
+    }
+
+    private void spool(Line line) {
+        try {
+            if (spool == null) {
+                spoolFile = File.createTempFile("chat-history", ".txt");
+                spoolFile.deleteOnExit();
+                spool = new BufferedWriter(new FileWriter(spoolFile));
+            }
+            spool.write(line.toString());
+            spool.newLine();
+        } catch (IOException e) {
+            // the line is still evicted; the export will just be missing it
+            Log.warn("ChatLogModel", "Unable to spool chat history: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package Project;
+
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+import javax.swing.plaf.basic.BasicHTML;
+import javax.swing.text.View;
+
+/**
+ * Paints ChatLogModel lines in the chat history JList.
+ * <p>
+ * A JList asks the renderer for the height of every row whenever the model
+ * changes, so each line keeps its height for the current width and is only
+ * laid out again after a resize. The parsed HTML views are cached for the
+ * most recently used lines (about what fits on screen plus some scrolling),
+ * rather than for the whole history.
+ * </p>
+ */
+public class ChatLogRenderer extends JComponent implements ListCellRenderer<ChatLogModel.Line> {
+    private static final int VIEW_CACHE_SIZE = 256;
+    private static final int PADDING = 2;
+    private static final int DEFAULT_WIDTH = 400; // until the list has been laid out
+
+    private final Map<ChatLogModel.Line, View> views = new LinkedHashMap<>(VIEW_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ChatLogModel.Line, View> eldest) {
+            return size() > VIEW_CACHE_SIZE;
+        }
+    };
+    private ChatLogModel.Line line;
+    private int width = DEFAULT_WIDTH;
+    private long viewsCreated = 0;
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends ChatLogModel.Line> list, ChatLogModel.Line value,
+            int index, boolean isSelected, boolean cellHasFocus) {
+        if (getFont() != list.getFont()) {
+            setFont(list.getFont());
+            views.clear(); // views keep the font they were created with
+        }
+        setBackground(list.getBackground());
+        width = list.getWidth() > 0 ? list.getWidth() : DEFAULT_WIDTH;
+        line = value;
+        if (value.layoutWidth != width) {
+            View view = viewFor(value);
+            view.setSize(Math.max(1, width - 2 * PADDING), 0);
+            value.layoutHeight = (int) Math.ceil(view.getPreferredSpan(View.Y_AXIS)) + 2 * PADDING;
+            value.layoutWidth = width;
+        }
+        return this;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(width, line == null ? 0 : line.layoutHeight);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        if (line == null) {
+            return;
+        }
+        g.setColor(getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+        Rectangle area = new Rectangle(PADDING, PADDING, getWidth() - 2 * PADDING, getHeight() - 2 * PADDING);
+        View view = viewFor(line);
+        view.setSize(area.width, area.height);
+        view.paint(g, area);
+    }
+
+    /**
+     * @return parsed views created so far (cache misses)
+     */
+    public long getViewsCreated() {
+        return viewsCreated;
+    }
+
+    private View viewFor(ChatLogModel.Line value) {
+        View view = views.get(value);
+        if (view == null) {
+            setForeground(value.getColor()); // picked up as the view's default text color
+            view = BasicHTML.createHTMLView(this, "<html>" + value.getHtml() + "</html>");
+            views.put(value, view);
+            viewsCreated++;
+        }
+        return view;
+    }
+}
@@ -3,49 +3,102 @@ package Project;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
-import javax.swing.text.*;
-import javax.swing.text.html.HTMLEditorKit;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
-import javax.swing.text.html.HTMLDocument;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletionException;
 
+/**
+ * Swing view of a {@link ChatClient}: shows its events and sends what's typed
+ */
 public class ChatRoomPanel extends JPanel {
 
-    private JTextPane chatHistoryPane;
+    private JList<ChatLogModel.Line> chatHistoryList; // only the visible rows are laid out and painted
+    private ChatLogModel chatLogModel; // bounded; older lines are kept for export only
+    // incoming lines and list updates reach the EDT once per frame, in order
+    private final FrameDispatcher<ChatLogModel.Line> dispatcher = new FrameDispatcher<>(this::appendChatLines);
     private JScrollPane chatScrollPane;
     private JTextField messageInputField;
     private JButton sendButton;
     private JButton exportChatButton; // Button for exporting chat history
-    private JList<String> userList;
-    private DefaultListModel<String> userListModel;
-    private Client client;
+    private JList<UserListModel.User> userList;
+    private UserListModel userListModel;
+    private JTextField userFilterField; // type-ahead filter for the user list
+    private final ChatClient client;
     private HashSet<String> mutedUsers = new HashSet<>();
 
-    public ChatRoomPanel() {
-        client = Client.INSTANCE;
-        client.setChatRoomPanel(this);
+    /**
+     * @param client subscribe before it connects, so the room's members aren't
+     *               missed
+     */
+    public ChatRoomPanel(ChatClient client) {
+        this.client = client;
         initializeUI();
+        client.onEvent(this::onEvent);
     }
 
     private void initializeUI() {
         setLayout(new BorderLayout());
 
         // Chat history pane (center)
-        chatHistoryPane = new JTextPane();
-        chatHistoryPane.setContentType("text/html"); // Set content type to HTML
-        chatHistoryPane.setEditable(false);
-        chatHistoryPane.setBackground(Color.WHITE);
-        chatScrollPane = new JScrollPane(chatHistoryPane);
+        chatLogModel = new ChatLogModel();
+        chatHistoryList = new JList<>(chatLogModel) {
+            @Override
+            public boolean getScrollableTracksViewportWidth() {
+                return true; // wrap lines to the viewport instead of scrolling sideways
+            }
+        };
+        chatHistoryList.setCellRenderer(new ChatLogRenderer());
+        chatHistoryList.setFocusable(false);
+        chatHistoryList.setBackground(Color.WHITE);
+        chatHistoryList.addComponentListener(new ComponentAdapter() {
+            private int width = -1;
+
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if (chatHistoryList.getWidth() != width) {
+                    width = chatHistoryList.getWidth();
+                    chatLogModel.invalidateLayouts(); // row heights depend on the wrap width
+                }
+            }
+        });
+        chatScrollPane = new JScrollPane(chatHistoryList);
 
         // User list (right side)
-        userListModel = new DefaultListModel<>();
+        userListModel = new UserListModel();
         userList = new JList<>(userListModel);
+        userList.setCellRenderer(new UserCellRenderer());
+        userList.setFixedCellHeight(20); // avoids measuring every row when the list is large
         JScrollPane userScrollPane = new JScrollPane(userList);
-        userScrollPane.setPreferredSize(new Dimension(150, 0));
+        userFilterField = new JTextField();
+        userFilterField.setToolTipText("Filter users");
+        userFilterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                userListModel.setFilter(userFilterField.getText());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                userListModel.setFilter(userFilterField.getText());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                userListModel.setFilter(userFilterField.getText());
+            }
+        });
+        JPanel userPanel = new JPanel(new BorderLayout());
+        userPanel.add(userFilterField, BorderLayout.NORTH);
+        userPanel.add(userScrollPane, BorderLayout.CENTER);
+        userPanel.setPreferredSize(new Dimension(150, 0));
 
         // Message input panel (bottom)
         JPanel messagePanel = new JPanel(new BorderLayout());
@@ -63,7 +116,7 @@ public class ChatRoomPanel extends JPanel {
 
         // Add components to the main panel
         add(chatScrollPane, BorderLayout.CENTER);
-        add(userScrollPane, BorderLayout.EAST);
+        add(userPanel, BorderLayout.EAST);
         add(messagePanel, BorderLayout.SOUTH);
 
         // Action listener to send button and message input field
@@ -71,6 +124,15 @@ public class ChatRoomPanel extends JPanel {
         messageInputField.addActionListener(e -> sendMessage());
     }
 
+    /**
+     * Deletes the chat history spool once the panel is taken down
+     */
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        chatLogModel.close();
+    }
+
     // Method to send a message
     private void sendMessage() {
         String message = messageInputField.getText().trim();
@@ -78,42 +140,102 @@ public class ChatRoomPanel extends JPanel {
             // Clear the input field
             messageInputField.setText("");
 
-            // Send the message to the server
-            client.sendMessageToServer(message);
+            // Send the message to the server; feedback is shown when it's sent
+            client.submit(message).whenComplete((confirmation, error) -> {
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, cause.getMessage(), "Error",
+                            JOptionPane.ERROR_MESSAGE));
+                } else if (confirmation != null) {
+                    appendChatMessage(RichText.plain(confirmation), Color.DARK_GRAY);
+                }
+            });
+        }
+    }
+
+    /**
+     * Shows an event from the ChatClient; called on the client's event thread
+     *
+     * @param event
+     */
+    private void onEvent(ChatEvent event) {
+        switch (event) {
+            case ChatEvent.Message m -> {
+                Color color = m.isPrivate() ? Color.MAGENTA : m.isMine() ? Color.BLUE : Color.GREEN;
+                String prefix = m.isPrivate() ? String.format("[Private] %s: ", m.senderName()) : m.senderName() + ": ";
+                if (m.text() != null) {
+                    appendChatMessage(new RichText.Builder().append(prefix, m.isPrivate() ? 0 : RichText.BOLD)
+                            .append(m.text()).build(), color);
+                } else if (m.isPrivate()) {
+                    // the server already rendered the message's markup
+                    appendChatMessageWithColor(TextFX.escapeHTML(prefix) + m.html(), color);
+                } else {
+                    appendChatMessageWithColor("<b>" + TextFX.escapeHTML(prefix.trim()) + "</b> " + m.html(), color);
+                }
+            }
+            case ChatEvent.Presence p -> {
+                updateUsers(p.joined(), p.left().keySet());
+                // plain text with client names in it
+                if (p.joinedNotice() != null) {
+                    appendChatMessageWithColor(TextFX.escapeHTML(p.joinedNotice()), Color.GREEN);
+                }
+                if (p.leftNotice() != null) {
+                    appendChatMessageWithColor(TextFX.escapeHTML(p.leftNotice()), Color.YELLOW);
+                }
+            }
+            case ChatEvent.RoomLeft r -> clearUsers();
+            case ChatEvent.MutedUsers m -> updateMutedUsers(new HashSet<>(m.names()));
+            case ChatEvent.SearchResults r -> r.lines().forEach(line -> appendChatMessage(line, Color.DARK_GRAY));
+            case ChatEvent.Stats s -> s.lines()
+                    .forEach(line -> appendChatMessage(RichText.plain(line), Color.DARK_GRAY));
+            case ChatEvent.Disconnected d -> {
+                clearUsers();
+                appendChatMessage(RichText.plain(d.reason()), Color.RED);
+            }
+            default -> {
+            }
         }
     }
 
     // Updated method to append a chat message with specified color
     public void appendChatMessageWithColor(String message, java.awt.Color color) {
-        System.out.println("Appending message to UI: " + message + " with color: " + color);
-        SwingUtilities.invokeLater(() -> {
-            HTMLEditorKit kit = (HTMLEditorKit) chatHistoryPane.getEditorKit();
-            HTMLDocument doc = (HTMLDocument) chatHistoryPane.getDocument();
-            String colorHex = String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
-            String htmlMessage = String.format("<span style='color:%s;'>%s</span><br>", colorHex, message);
-
-            try {
-                kit.insertHTML(doc, doc.getLength(), htmlMessage, 0, 0, null);
-                chatHistoryPane.setCaretPosition(doc.getLength());
-            } catch (BadLocationException | IOException e) {
-                e.printStackTrace();
-            }
-        });
+        Log.debug("ChatRoomPanel", () -> "Appending message to UI: " + message + " with color: " + color);
+        // safe from any thread; shown with the rest of this frame's lines
+        dispatcher.submit(new ChatLogModel.Line(message, color, System.currentTimeMillis()));
     }
 
-    public void updateUserList(java.util.List<String> users) {
-        SwingUtilities.invokeLater(() -> {
-            userListModel.clear(); // Clear the existing user list
-            for (String user : users) {
-                if (mutedUsers.contains(user)) {
-                    // Add muted users with gray styling
-                    userListModel.addElement("<html><span style='color:gray;'>" + user + "</span></html>");
-                } else {
-                    // Add normal users
-                    userListModel.addElement(user);
-                }
-            }
-        });
+    /**
+     * Appends a styled chat line; safe from any thread
+     *
+     * @param message
+     * @param color default text color
+     */
+    public void appendChatMessage(RichText message, java.awt.Color color) {
+        dispatcher.submit(new ChatLogModel.Line(message, color, System.currentTimeMillis()));
+    }
+
+    private void appendChatLines(java.util.List<ChatLogModel.Line> lines) {
+        // follow new messages only if the user hasn't scrolled up
+        JScrollBar bar = chatScrollPane.getVerticalScrollBar();
+        boolean atBottom = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum();
+        chatLogModel.appendAll(lines);
+        if (atBottom) {
+            chatHistoryList.ensureIndexIsVisible(chatLogModel.getSize() - 1); // once per batch
+        }
+    }
+
+    /**
+     * Applies joins/leaves to the user list without rebuilding it
+     * 
+     * @param added   id -> name of users to add
+     * @param removed ids of users to remove
+     */
+    public void updateUsers(Map<Long, String> added, Collection<Long> removed) {
+        dispatcher.post(() -> userListModel.update(added, removed));
+    }
+
+    public void clearUsers() {
+        dispatcher.post(() -> userListModel.clear());
     }
 
     private void sendMutedUsers() {
@@ -122,36 +244,37 @@ public class ChatRoomPanel extends JPanel {
         synchronized (mutedUsers) {
             payload.setMutedUsers(new ArrayList<>(mutedUsers));
         }
-        client.send(payload); // Delegating the send operation to the Client class
+        client.send(payload); // Delegating the send operation to the ChatClient
     }
 
     // method to update the muted users list
     public void updateMutedUsers(HashSet<String> mutedUsers) {
         this.mutedUsers = new HashSet<>(mutedUsers); // Update mutedUsers set for this client
-        SwingUtilities.invokeLater(() -> {
-            // Refresh the user list to reflect muted statuses
-            java.util.List<String> userList = new ArrayList<>();
-            for (int i = 0; i < userListModel.getSize(); i++) {
-                String element = userListModel.getElementAt(i).replaceAll("<[^>]*>", ""); // Strip HTML tags
-                userList.add(element);
+        // only the rows whose muted state changed are repainted
+        HashSet<String> muted = this.mutedUsers;
+        dispatcher.post(() -> userListModel.setMuted(muted));
+    }
+
+    /**
+     * Grays out muted users instead of storing HTML in the model
+     */
+    private static class UserCellRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                boolean cellHasFocus) {
+            UserListModel.User user = (UserListModel.User) value;
+            super.getListCellRendererComponent(list, user.getName(), index, isSelected, cellHasFocus);
+            if (user.isMuted()) {
+                setForeground(Color.GRAY);
+                setFont(getFont().deriveFont(Font.ITALIC));
             }
-            updateUserList(userList); // Re-render the user list
-        });
+            return this;
+        }
     }
 
     // Method to export chat history
     private void exportChatHistory() {
         try {
-            // Extract content from chatHistoryPane
-            HTMLEditorKit kit = (HTMLEditorKit) chatHistoryPane.getEditorKit();
-            HTMLDocument doc = (HTMLDocument) chatHistoryPane.getDocument();
-            StringWriter writer = new StringWriter();
-            kit.write(writer, doc, 0, doc.getLength());
-            String htmlContent = writer.toString();
-
-            // Convert HTML to plain text
-            String plainText = htmlContent.replaceAll("<[^>]*>", ""); // Strip HTML tags
-
             // Create unique filename
             String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
             String fileName = "chat_history_" + timestamp + ".txt";
@@ -159,7 +282,8 @@ public class ChatRoomPanel extends JPanel {
             // Write to file
             File file = new File(fileName);
             try (BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(file))) {
-                bufferedWriter.write(plainText);
+                // plain text, including lines that were evicted from the view
+                chatLogModel.export(bufferedWriter);
             }
 
             // Notify user
@@ -176,7 +300,7 @@ public class ChatRoomPanel extends JPanel {
     public static void main(String[] args) {
         JFrame frame = new JFrame("Chat Room");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        ChatRoomPanel chatRoomPanel = new ChatRoomPanel();
+        ChatRoomPanel chatRoomPanel = new ChatRoomPanel(new ChatClient());
         frame.setContentPane(chatRoomPanel);
         frame.setSize(600, 400);
         frame.setLocationRelativeTo(null);
@@ -0,0 +1,159 @@
+package Project;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Bytes per message and encode/decode cost of the wire formats:
+ * the legacy continuous ObjectOutputStream (back-references amortize class
+ * descriptors after the first message), per-frame java serialization and
+ * the BinaryCodec.
+ * <p>
+ * Usage: java Project.CodecBenchmark [iterations]
+ * </p>
+ */
+public class CodecBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        System.out.println(String.format("%-16s %-11s %8s %12s %12s", "payload", "format", "bytes", "encode ns", "decode ns"));
+        for (Payload sample : samples()) {
+            String name = sample.getPayloadType().name() + (sample instanceof RichMessagePayload ? " (rich)" : "");
+            legacyStream(name, sample, iterations);
+            framed(name, sample, iterations, Frames.FORMAT_SERIALIZED, "framed-java");
+            framed(name, sample, iterations, Frames.FORMAT_BINARY, "binary");
+        }
+    }
+
+    static List<Payload> samples() {
+        Payload message = new Payload();
+        message.setPayloadType(PayloadType.MESSAGE);
+        message.setClientId(42);
+        message.setTimestamp(System.currentTimeMillis());
+        message.setMessage(TextFX.formatText("hey **everyone**, welcome to the #r lobby r#! anyone up for a _game_?"));
+
+        RichMessagePayload richMessage = new RichMessagePayload();
+        richMessage.setClientId(42);
+        richMessage.setTimestamp(System.currentTimeMillis());
+        richMessage.setRichText(
+                MessageFormatter.parse("hey **everyone**, welcome to the #r lobby r#! anyone up for a _game_?"));
+
+        ConnectionPayload join = new ConnectionPayload();
+        join.setPayloadType(PayloadType.ROOM_JOIN);
+        join.setClientId(1337);
+        join.setClientName("kush");
+        join.setMessage("lobby");
+        join.setConnect(true);
+
+        RollPayload roll = new RollPayload();
+        roll.setClientId(7);
+        roll.setSenderName("palak");
+        roll.setNumberOfDice(2);
+        roll.setSidesPerDie(6);
+
+        Payload muteList = new Payload();
+        muteList.setPayloadType(PayloadType.MUTE_LIST);
+        muteList.setMutedUsers(List.of("alice", "bob", "carol", "dave", "erin"));
+
+        PrivateMessagePayload pm = new PrivateMessagePayload();
+        pm.setPayloadType(PayloadType.PRIVATE_MESSAGE);
+        pm.setClientId(42);
+        pm.setTargetClientId(43);
+        pm.setMessage("see you in the *other* room");
+
+        SearchPayload search = new SearchPayload();
+        search.setClientId(42);
+        search.setRoomName("lobby");
+        search.setMessage("game tonight");
+        search.setPageSize(10);
+        search.setTotalHits(37);
+        for (int i = 0; i < 10; i++) {
+            search.addHit(1000 - i, System.currentTimeMillis() - i * 60_000L, "user" + i,
+                    "anyone up for a _game_ tonight? round " + i);
+        }
+        return List.of(message, richMessage, join, roll, muteList, pm, search);
+    }
+
+    private static void legacyStream(String name, Payload sample, int iterations) throws IOException {
+        // steady state size: the marginal bytes once descriptors/handles are already in the stream
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(sample);
+        oos.flush();
+        int first = bytes.size();
+        oos.writeObject(copyOf(sample));
+        oos.flush();
+        int steady = bytes.size() - first;
+
+        ObjectOutputStream sinkStream = new ObjectOutputStream(OutputStream.nullOutputStream());
+        double encode = Benchmarks.nanosPerOp(iterations / 4, iterations, i -> {
+            try {
+                // a fresh object each time, like the server does; reset keeps the handle table from growing
+                sinkStream.writeObject(copyOf(sample));
+                if ((i & 1023) == 0) {
+                    sinkStream.reset();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (ObjectOutputStream writer = new ObjectOutputStream(encoded)) {
+            for (int i = 0; i < iterations; i++) {
+                writer.writeObject(copyOf(sample));
+                if ((i & 1023) == 0) {
+                    writer.reset();
+                }
+            }
+        }
+        ObjectInputStream reader = new ObjectInputStream(new ByteArrayInputStream(encoded.toByteArray()));
+        double decode = Benchmarks.nanosPerOp(0, iterations, i -> {
+            try {
+                Benchmarks.consume(reader.readObject());
+            } catch (IOException | ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        System.out.println(String.format("%-16s %-11s %8s %12.0f %12.0f", name, "stream",
+                first + "/" + steady, encode, decode));
+    }
+
+    private static void framed(String name, Payload sample, int iterations, byte format, String label)
+            throws IOException {
+        byte[] frame = Frames.encode(sample, format);
+        double encode = Benchmarks.nanosPerOp(iterations / 4, iterations, i -> {
+            try {
+                Benchmarks.consume(Frames.encode(sample, format));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        double decode = Benchmarks.nanosPerOp(iterations / 4, iterations, i -> {
+            try {
+                Benchmarks.consume(Frames.decode(frame, Frames.LENGTH_FIELD, frame.length - Frames.LENGTH_FIELD));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        System.out.println(String.format("%-16s %-11s %8d %12.0f %12.0f", name, label, frame.length, encode, decode));
+    }
+
+    /**
+     * Round trip through the binary codec; gives a distinct but equal object
+     */
+    private static Payload copyOf(Payload sample) {
+        try {
+            byte[] frame = BinaryCodec.encode(sample);
+            return Frames.decode(frame, Frames.LENGTH_FIELD, frame.length - Frames.LENGTH_FIELD);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package Project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compression ratio and CPU cost of FrameDeflater settings on a stream of
+ * chat traffic, for picking chat.compress.* per deployment.
+ * <p>
+ * Each setting compresses the same sequence of formatted chat lines and
+ * room/roll notices in both wire formats, then inflates it again to check
+ * the round trip.
+ * </p>
+ * Usage: java Project.CompressionBenchmark [frames]
+ */
+public class CompressionBenchmark {
+    private static final String[] WORDS = { "hey", "anyone", "up", "for", "a", "game", "tonight", "lol", "the",
+            "lobby", "is", "so", "quiet", "brb", "gg", "nice", "roll", "room", "who", "wants", "to", "join", "me" };
+    private static final int EARLY = 10;
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        List<Payload> traffic = traffic(count, new Random(42));
+        System.out.println(String.format("%-11s %5s %5s %9s %7s %9s %12s %12s", "format", "level", "dict",
+                "raw B/f", "ratio", "first " + EARLY, "deflate ns", "inflate ns"));
+        for (byte format : new byte[] { Frames.FORMAT_SERIALIZED, Frames.FORMAT_BINARY }) {
+            List<byte[]> frames = new ArrayList<>(count);
+            for (Payload p : traffic) {
+                frames.add(Frames.encode(p, format));
+            }
+            for (int level : new int[] { 1, 6, 9 }) {
+                for (boolean dictionary : new boolean[] { false, true }) {
+                    run(format == Frames.FORMAT_BINARY ? "binary" : "framed-java", frames, level, dictionary);
+                }
+            }
+        }
+    }
+
+    private static void run(String name, List<byte[]> frames, int level, boolean dictionary) throws IOException {
+        // warm up on a throwaway stream, then measure a fresh one
+        FrameDeflater warmup = new FrameDeflater(level, dictionary, 0);
+        for (byte[] frame : frames) {
+            Benchmarks.consume(warmup.compress(frame));
+        }
+        warmup.end();
+
+        FrameDeflater deflater = new FrameDeflater(level, dictionary, 0);
+        List<byte[]> compressed = new ArrayList<>(frames.size());
+        long earlyRaw = 0;
+        long earlyCompressed = 0;
+        for (byte[] frame : frames) {
+            byte[] out = deflater.compress(frame);
+            if (compressed.size() < EARLY) {
+                // a new connection has no history yet, which is where the dictionary matters
+                earlyRaw += frame.length;
+                earlyCompressed += out.length;
+            }
+            compressed.add(out);
+        }
+        FrameInflater inflater = new FrameInflater();
+        long start = System.nanoTime();
+        for (byte[] frame : compressed) {
+            Benchmarks.consume(Frames.decode(frame, Frames.LENGTH_FIELD, frame.length - Frames.LENGTH_FIELD, inflater));
+        }
+        double inflateNanos = (System.nanoTime() - start) / (double) compressed.size();
+        System.out.println(String.format("%-11s %5d %5s %9.1f %7.3f %9.3f %12.0f %12.0f", name, level, dictionary,
+                deflater.getRawBytes() / (double) frames.size(), deflater.getRatio(),
+                earlyCompressed / (double) earlyRaw, deflater.getNanosPerFrame(), inflateNanos));
+        deflater.end();
+        inflater.end();
+    }
+
+    private static List<Payload> traffic(int count, Random random) {
+        List<Payload> traffic = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long sender = 1 + random.nextInt(40);
+            int kind = random.nextInt(20);
+            if (kind == 0) {
+                traffic.add(ServerThread.buildRoomAction(sender, "user" + sender, "lobby", random.nextBoolean()));
+            } else if (kind == 1) {
+                traffic.add(ServerThread.buildMessage(ServerThread.DEFAULT_CLIENT_ID,
+                        TextFX.formatRollResult("user" + sender, 1 + random.nextInt(12), "2d6")));
+            } else {
+                StringBuilder line = new StringBuilder();
+                int words = 2 + random.nextInt(12);
+                for (int w = 0; w < words; w++) {
+                    String word = WORDS[random.nextInt(WORDS.length)];
+                    switch (random.nextInt(12)) {
+                        case 0 -> line.append("**").append(word).append("**");
+                        case 1 -> line.append('*').append(word).append('*');
+                        case 2 -> line.append("#r").append(word).append("r#");
+                        default -> line.append(word);
+                    }
+                    line.append(' ');
+                }
+                Payload p = ServerThread.buildMessage(sender, TextFX.formatText(line.toString().trim()));
+                p.setTimestamp(System.currentTimeMillis());
+                traffic.add(p);
+            }
+        }
+        return traffic;
+    }
+}
@@ -90,23 +90,27 @@ public class ConnectPanel extends JPanel {
                     return;
                 }
 
-                // Initiate connection
-                boolean connected = Client.INSTANCE.connectToServer(host, port, username);
-                if (connected) {
-                    // Transition to the chatroom UI panel
-                    JFrame topFrame = (JFrame) SwingUtilities.getWindowAncestor(ConnectPanel.this);
-                    ChatRoomPanel chatRoomPanel = new ChatRoomPanel();
-                    Client.INSTANCE.setChatRoomPanel(chatRoomPanel);
-                    topFrame.setContentPane(chatRoomPanel);
-                    topFrame.validate();
-                    topFrame.repaint();
-
-                    System.out.println("Connected as " + username + " to " + host + ":" + port);
-                } else {
-                    JOptionPane.showMessageDialog(ConnectPanel.this,
-                            "Failed to connect to server.",
-                            "Connection Failed", JOptionPane.ERROR_MESSAGE);
-                }
+                // Initiate connection; the panel listens from the start so it sees the room's members
+                ChatClient client = new ChatClient();
+                ChatRoomPanel chatRoomPanel = new ChatRoomPanel(client);
+                connectButton.setEnabled(false);
+                client.connect(host, port, username).whenComplete((id, error) -> SwingUtilities.invokeLater(() -> {
+                    connectButton.setEnabled(true);
+                    if (error == null) {
+                        // Transition to the chatroom UI panel
+                        JFrame topFrame = (JFrame) SwingUtilities.getWindowAncestor(ConnectPanel.this);
+                        topFrame.setContentPane(chatRoomPanel);
+                        topFrame.validate();
+                        topFrame.repaint();
+
+                        System.out.println("Connected as " + username + " to " + host + ":" + port);
+                    } else {
+                        client.close();
+                        JOptionPane.showMessageDialog(ConnectPanel.this,
+                                "Failed to connect to server.",
+                                "Connection Failed", JOptionPane.ERROR_MESSAGE);
+                    }
+                }));
             }
         });
     }
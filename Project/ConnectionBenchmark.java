@@ -0,0 +1,136 @@
+package Project;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Compares memory per idle connection and how many connections fit for each
+ * TransportMode.
+ * <p>
+ * Opens loopback connections that complete the framed preamble and then sit
+ * idle, each served by a real ServerThread (blocking/virtual) or NioConnection
+ * (nio), and samples heap and resident memory (Linux /proc) at checkpoints.
+ * Stops at the requested count or at the first resource failure (threads,
+ * file descriptors, memory). Both ends live in this JVM so the client socket
+ * cost is included equally in every mode.
+ * </p>
+ * Usage: java Project.ConnectionBenchmark blocking|virtual|nio [connections]
+ */
+public class ConnectionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        TransportMode mode = TransportMode.parse(args.length > 0 ? args[0] : null, TransportMode.BLOCKING);
+        int target = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // ServerThread logging is too chatty here
+
+        int port;
+        Thread acceptor;
+        NioServer nioServer = null;
+        if (mode == TransportMode.NIO) {
+            try (ServerSocket probe = new ServerSocket(0)) {
+                port = probe.getLocalPort();
+            }
+            NioServer nio = new NioServer(port, ServerConfig.NIO_EVENT_LOOPS, st -> {
+            });
+            nioServer = nio;
+            acceptor = Thread.ofPlatform().daemon().start(() -> {
+                try {
+                    nio.start();
+                } catch (IOException e) {
+                    // closed at the end of the run
+                }
+            });
+            Thread.sleep(200);
+        } else {
+            ServerSocket serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+            port = serverSocket.getLocalPort();
+            ThreadFactory readers = mode.readerThreads();
+            acceptor = Thread.ofPlatform().daemon().start(() -> {
+                try (serverSocket) {
+                    while (true) {
+                        ServerThread st = new ServerThread(serverSocket.accept(), s -> {
+                        });
+                        st.start(readers);
+                    }
+                } catch (IOException | OutOfMemoryError e) {
+                    console.println("acceptor stopped: " + e);
+                }
+            });
+        }
+
+        Sample base = Sample.take();
+        List<Socket> sockets = new ArrayList<>();
+        String stoppedBy = "target reached";
+        int checkpoint = Math.max(1, target / 10);
+        try {
+            while (sockets.size() < target && acceptor.isAlive()) {
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                Frames.writePreamble(out);
+                out.flush();
+                sockets.add(socket);
+                if (sockets.size() % checkpoint == 0) {
+                    Thread.sleep(100); // let the server side catch up before sampling
+                    report(console, mode, sockets.size(), base, Sample.take());
+                }
+            }
+            if (!acceptor.isAlive()) {
+                stoppedBy = "server side failed";
+            }
+        } catch (IOException | OutOfMemoryError e) {
+            stoppedBy = e.toString();
+        }
+        Thread.sleep(500);
+        console.println(String.format("%s: stopped at %d connections (%s)", mode, sockets.size(), stoppedBy));
+        report(console, mode, sockets.size(), base, Sample.take());
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        if (nioServer != null) {
+            nioServer.close();
+        }
+        System.exit(0);
+    }
+
+    private static void report(PrintStream console, TransportMode mode, int connections, Sample base, Sample now) {
+        console.println(String.format(
+                "%-8s connections=%-6d threads=%-6d heap/conn=%6.1f KB  rss/conn=%6.1f KB  rss=%d MB",
+                mode, connections, now.threads,
+                (now.heapBytes - base.heapBytes) / 1024.0 / connections,
+                (now.rssBytes - base.rssBytes) / 1024.0 / connections,
+                now.rssBytes / (1024 * 1024)));
+    }
+
+    private record Sample(long heapBytes, long rssBytes, int threads) {
+        static Sample take() {
+            System.gc();
+            Runtime rt = Runtime.getRuntime();
+            return new Sample(rt.totalMemory() - rt.freeMemory(), readRss(), Thread.activeCount());
+        }
+
+        private static long readRss() {
+            try {
+                for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // not on Linux; rss stays at 0
+            }
+            return 0;
+        }
+    }
+}
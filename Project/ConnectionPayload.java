@@ -1,8 +1,18 @@
 package Project;
 
 public class ConnectionPayload extends Payload {
+    // pinned to the value computed for the original class so legacy clients can still deserialize it
+    private static final long serialVersionUID = -1403536058863537538L;
+    // feature flags exchanged during CLIENT_CONNECT (client offers) and CLIENT_ID (server accepts)
+    public static final int FEATURE_BINARY_CODEC = 1; // frames may use Frames.FORMAT_BINARY
+    public static final int FEATURE_COMPRESSION = 2; // server frames may be compressed (see FrameDeflater)
+    public static final int FEATURE_ROOM_SNAPSHOT = 4; // joins are synced with one RoomSnapshotPayload
+    public static final int FEATURE_PRESENCE_DELTA = 8; // other members' joins/leaves arrive as PresenceDeltaPayloads
+    public static final int FEATURE_RICH_TEXT = 16; // messages arrive as RichMessagePayloads instead of HTML
+
     private String clientName;
     private boolean isConnect;
+    private int features; // bitmask of FEATURE_* values
 
     public ConnectionPayload() {
         setPayloadType(PayloadType.CLIENT_CONNECT);
@@ -27,6 +37,19 @@ public class ConnectionPayload extends Payload {
         this.isConnect = isConnect;
     }
 
+    // Getter and Setter for features
+    public int getFeatures() {
+        return features;
+    }
+
+    public void setFeatures(int features) {
+        this.features = features;
+    }
+
+    public boolean hasFeature(int feature) {
+        return (features & feature) != 0;
+    }
+
     @Override
     public String toString() {
         return super.toString() + String.format(
@@ -0,0 +1,123 @@
+package Project;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Socket writes per message and delivery latency of the writer thread with
+ * and without write coalescing.
+ * <p>
+ * A real ServerThread serves a loopback client. The benchmark queues
+ * messages on it directly in two phases: "busy" (bursts like a crowded room)
+ * and "idle" (one message at a time). The client records how long each
+ * message took from send() to being decoded.
+ * </p>
+ * Usage: java Project.FlushBenchmark batched|immediate [bursts]
+ * ("immediate" is the same as running with -Dchat.flush.maxBytes=0)
+ */
+public class FlushBenchmark {
+    private static final int BURST = 32;
+    private static final long PAUSE_NANOS = 1_000_000;
+    private static final int IDLE_MESSAGES = 2_000;
+
+    public static void main(String[] args) throws Exception {
+        boolean batched = args.length == 0 || !args[0].equalsIgnoreCase("immediate");
+        int bursts = args.length > 1 ? Integer.parseInt(args[1]) : 3_000;
+        if (!batched) {
+            System.setProperty("chat.flush.maxBytes", "0"); // must happen before ServerConfig is loaded
+        }
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // ServerThread logging is too chatty here
+
+        int busyMessages = bursts * BURST;
+        long[] busyLatency = new long[busyMessages];
+        long[] idleLatency = new long[IDLE_MESSAGES];
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            Frames.writePreamble(out);
+            out.flush();
+            ServerThread st = new ServerThread(serverSocket.accept(), s -> {
+            });
+            st.start();
+            while (!st.isRunning) {
+                Thread.sleep(1);
+            }
+            st.negotiateFeatures(ConnectionPayload.FEATURE_BINARY_CODEC); // keeps encode/decode cost out of the way
+
+            Thread reader = Thread.ofPlatform().name("flush-reader").start(() -> {
+                try {
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    int last = busyMessages + IDLE_MESSAGES - 1;
+                    int index = -1;
+                    while (index != last) { // dropped messages (drop_oldest_chat) never arrive
+                        Payload p = Frames.read(in);
+                        long latency = System.nanoTime() - p.getTimestamp();
+                        index = (int) p.getClientId();
+                        if (index < busyMessages) {
+                            busyLatency[index] = latency;
+                        } else {
+                            idleLatency[index - busyMessages] = latency;
+                        }
+                    }
+                } catch (IOException e) {
+                    console.println("reader stopped: " + e);
+                }
+            });
+
+            OutboundQueue queue = st.getOutboundQueue();
+            int sent = 0;
+            for (int b = 0; b < bursts; b++) {
+                for (int i = 0; i < BURST; i++) {
+                    st.send(message(sent++));
+                }
+                LockSupport.parkNanos(PAUSE_NANOS);
+            }
+            waitForWriter(queue, sent);
+            long busyFlushes = queue.getFlushes();
+            for (int i = 0; i < IDLE_MESSAGES; i++) {
+                st.send(message(sent++));
+                LockSupport.parkNanos(PAUSE_NANOS);
+            }
+            waitForWriter(queue, sent);
+            reader.join();
+
+            console.println(String.format("%s (maxBytes=%d, windowMicros=%d, dropped=%d)",
+                    batched ? "batched" : "immediate", ServerConfig.FLUSH_MAX_BYTES,
+                    ServerConfig.FLUSH_WINDOW_MICROS, queue.getDropped()));
+            report(console, "busy", busyMessages, busyFlushes, busyLatency);
+            report(console, "idle", IDLE_MESSAGES, queue.getFlushes() - busyFlushes, idleLatency);
+            st.disconnect();
+        }
+        System.exit(0);
+    }
+
+    private static Payload message(int index) {
+        Payload p = ServerThread.buildMessage(index, "benchmark message number " + index + " from a busy room");
+        p.setTimestamp(System.nanoTime());
+        return p;
+    }
+
+    private static void waitForWriter(OutboundQueue queue, int sent) throws InterruptedException {
+        while (queue.getWritten() + queue.getDropped() < sent) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void report(PrintStream console, String phase, int messages, long flushes, long[] latency) {
+        long[] sorted = Arrays.stream(latency).filter(l -> l > 0).sorted().toArray();
+        console.println(String.format(
+                "  %-5s delivered=%d/%d flushes=%-7d syscalls/msg=%.3f  p50=%6.1f us  p99=%7.1f us",
+                phase, sorted.length, messages, flushes, flushes / (double) sorted.length,
+                sorted[sorted.length / 2] / 1000.0, sorted[(int) (sorted.length * 0.99)] / 1000.0));
+    }
+}
@@ -0,0 +1,156 @@
+package Project;
+
+import java.util.Random;
+
+/**
+ * MessageFormatter against the regex chain TextFX.formatText used to run,
+ * plus a fuzz check that both produce the same HTML.
+ * <p>
+ * The fuzz mode builds random messages from the markup characters, the HTML
+ * special characters, line breaks and a few letters, and compares
+ * {@code MessageFormatter.format(s)} with the old chain applied to
+ * {@code TextFX.escapeHTML(s)} (the old one never escaped, so that's the
+ * output it should have had). It also checks that
+ * {@code MessageFormatter.parse(s)} has the text and styles that HTML
+ * displays, and that {@link RichText#toHtml()} displays the same. It stops
+ * at the first difference.
+ * </p>
+ * Usage: java Project.FormatBenchmark [bench|fuzz] [iterations]
+ */
+public class FormatBenchmark {
+    private static final String[] MESSAGES = {
+            "hello everyone",
+            "hey **everyone**, welcome to the #r lobby r#! anyone up for a _game_?",
+            "*sigh* I lost again",
+            "check <this> out & tell me what you think",
+            "**_#r bold, italic, underlined red text r#_** and #g green g# and #b blue b#",
+            "a longer message without any markup at all, the kind most people send most of the time, just words",
+    };
+    // runs of these make the most interesting overlaps
+    private static final char[] ALPHABET = { '*', '*', '*', '_', '_', '#', '#', 'r', 'g', 'b', 'a', ' ', '<', '>',
+            '&', '\n', '\r' };
+
+    public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : "bench";
+        switch (mode) {
+            case "fuzz" -> fuzz(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            case "bench" -> bench(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            default -> System.out.println("Usage: java Project.FormatBenchmark [bench|fuzz] [iterations]");
+        }
+    }
+
+    private static void bench(int iterations) {
+        System.out.println(String.format("%-50s %10s %10s %10s %10s", "message", "regex ns", "format ns", "parse ns",
+                "toHtml ns"));
+        for (String message : MESSAGES) {
+            double regex = Benchmarks.nanosPerOp(iterations / 4, iterations,
+                    i -> Benchmarks.consume(regexChain(TextFX.escapeHTML(message))));
+            double formatter = Benchmarks.nanosPerOp(iterations / 4, iterations,
+                    i -> Benchmarks.consume(MessageFormatter.format(message)));
+            double parse = Benchmarks.nanosPerOp(iterations / 4, iterations,
+                    i -> Benchmarks.consume(MessageFormatter.parse(message)));
+            RichText rich = MessageFormatter.parse(message);
+            double toHtml = Benchmarks.nanosPerOp(iterations / 4, iterations, i -> Benchmarks.consume(rich.toHtml()));
+            String label = message.length() > 47 ? message.substring(0, 47) + "..." : message;
+            System.out.println(String.format("%-50s %,10.0f %,10.0f %,10.0f %,10.0f", label.replace('\n', ' '), regex,
+                    formatter, parse, toHtml));
+        }
+    }
+
+    private static void fuzz(int iterations) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < iterations; i++) {
+            sb.setLength(0);
+            int length = random.nextInt(64);
+            for (int j = 0; j < length; j++) {
+                sb.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+            }
+            check(sb.toString());
+        }
+        for (String message : MESSAGES) {
+            check(message);
+        }
+        System.out.println(String.format("fuzz: %,d random messages, format matches the regex chain and parse its styles", iterations));
+    }
+
+    private static void check(String input) {
+        String expected = regexChain(TextFX.escapeHTML(input));
+        String actual = MessageFormatter.format(input);
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(String.format("mismatch for [%s]%n regex:     [%s]%n formatter: [%s]",
+                    escapeControl(input), escapeControl(expected), escapeControl(actual)));
+        }
+        RichText parsed = MessageFormatter.parse(input);
+        if (!displayed(expected).equals(parsed) || !displayed(parsed.toHtml()).equals(parsed)) {
+            throw new IllegalStateException(String.format("parse mismatch for [%s]%n html:  [%s]%n parse: [%s]",
+                    escapeControl(input), escapeControl(expected), escapeControl(parsed.toHtml())));
+        }
+    }
+
+    /**
+     * What the formatter's HTML shows: b/i/u apply from their start tag to
+     * their end tag, and </span> ends the innermost color
+     */
+    private static RichText displayed(String html) {
+        RichText.Builder builder = new RichText.Builder();
+        int flags = 0;
+        int[] colors = new int[16];
+        int depth = 0;
+        int i = 0;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                int end = html.indexOf('>', i);
+                switch (html.substring(i, end + 1)) {
+                    case "<b>" -> flags |= RichText.BOLD;
+                    case "</b>" -> flags &= ~RichText.BOLD;
+                    case "<i>" -> flags |= RichText.ITALIC;
+                    case "</i>" -> flags &= ~RichText.ITALIC;
+                    case "<u>" -> flags |= RichText.UNDERLINE;
+                    case "</u>" -> flags &= ~RichText.UNDERLINE;
+                    case "<span style='color:red;'>" -> colors[depth++] = RichText.RED;
+                    case "<span style='color:green;'>" -> colors[depth++] = RichText.GREEN;
+                    case "<span style='color:blue;'>" -> colors[depth++] = RichText.BLUE;
+                    case "</span>" -> depth--;
+                    default -> throw new IllegalStateException("Unexpected tag in " + html);
+                }
+                i = end + 1;
+                continue;
+            }
+            int style = flags | (depth > 0 ? colors[depth - 1] : 0);
+            if (html.startsWith("&amp;", i)) {
+                builder.append('&', style);
+                i += 5;
+            } else if (html.startsWith("&lt;", i)) {
+                builder.append('<', style);
+                i += 4;
+            } else if (html.startsWith("&gt;", i)) {
+                builder.append('>', style);
+                i += 4;
+            } else {
+                builder.append(c, style);
+                i++;
+            }
+        }
+        return builder.build();
+    }
+
+    private static String escapeControl(String s) {
+        return s.replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    // the old TextFX.formatText, six patterns compiled on every call
+    private static String regexChain(String text) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+        text = text.replaceAll("\\*\\*(.+?)\\*\\*", "<b>$1</b>");
+        text = text.replaceAll("\\*(.+?)\\*", "<i>$1</i>");
+        text = text.replaceAll("_(.+?)_", "<u>$1</u>");
+        text = text.replaceAll("#r(.*?)r#", "<span style='color:red;'>$1</span>");
+        text = text.replaceAll("#g(.*?)g#", "<span style='color:green;'>$1</span>");
+        text = text.replaceAll("#b(.*?)b#", "<span style='color:blue;'>$1</span>");
+        return text;
+    }
+}
@@ -0,0 +1,158 @@
+package Project;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Per-connection compression of outgoing frames (negotiated with
+ * {@link ConnectionPayload#FEATURE_COMPRESSION}).
+ * <p>
+ * Frames are still encoded once per broadcast; this takes the shared frame
+ * and runs it through this connection's own Deflater with a sync flush, so
+ * every compressed frame can be inflated as soon as it arrives while still
+ * referencing text from earlier frames. The 4 byte sync flush trailer
+ * (00 00 FF FF) is stripped and restored by {@link FrameInflater}. Frames
+ * smaller than minBytes are passed through untouched in their own format.
+ * </p>
+ * <p>
+ * Not thread safe; only the connection's writer (or its NIO loop) uses it.
+ * </p>
+ */
+public class FrameDeflater {
+    /**
+     * Preset dictionary for {@link Frames#FORMAT_DEFLATE_DICT}: markup from
+     * TextFX and the class descriptors java serialization repeats in every
+     * standalone frame. Changing it requires a new frame format.
+     */
+    static final byte[] DICTIONARY = String.join("",
+            "Project.PayloadType", "java.lang.Enum", "Ljava/lang/String;", "Ljava/util/List;",
+            "LProject/PayloadType;", "Project.Payload", "clientId", "targetClientId", "timestamp", "message",
+            "mutedUsers", "payloadType", "senderName", "Project.ConnectionPayload", "features", "isConnect",
+            "clientName", "Project.RollPayload", "Project.PrivateMessagePayload", "CLIENT_CONNECT", "CLIENT_ID",
+            "SYNC_CLIENT", "DISCONNECT", "ROOM_JOIN", "ROOM_LIST", "MUTE_LIST", "ROLL", "FLIP", "MESSAGE",
+            "<span style='TextColor:yellow;'>[Flip] ", "<span style='TextColor:cyan;'>[Roll] ",
+            "<span style='color:blue;'>", "<span style='color:green;'>", "<u>", "</u>", "<i>", "</i>",
+            "<b>", "</b>", "<span style='color:red;'>", "</span>")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final int SYNC_TRAILER = 4;
+
+    private final Deflater deflater;
+    private final int minBytes;
+    private final byte format;
+    private byte[] buffer = new byte[8 * 1024];
+    // stats (written by the single writer, readable from anywhere)
+    private volatile long framesSkipped = 0;
+    private volatile long framesCompressed = 0;
+    private volatile long rawBytes = 0; // frame bytes (after the length field) fed to the deflater
+    private volatile long compressedBytes = 0; // what they became
+    private volatile long nanos = 0;
+
+    /**
+     * @param level      Deflater level (1 fastest .. 9 smallest)
+     * @param dictionary prime the stream with {@link #DICTIONARY}
+     * @param minBytes   frames with fewer bytes are sent uncompressed
+     */
+    public FrameDeflater(int level, boolean dictionary, int minBytes) {
+        this.deflater = new Deflater(level, true); // raw deflate, the frame already carries the length
+        this.minBytes = minBytes;
+        if (dictionary) {
+            deflater.setDictionary(DICTIONARY);
+            format = Frames.FORMAT_DEFLATE_DICT;
+        } else {
+            format = Frames.FORMAT_DEFLATE;
+        }
+    }
+
+    /**
+     * Deflater using the ServerConfig settings
+     */
+    public FrameDeflater() {
+        this(ServerConfig.COMPRESSION_LEVEL, ServerConfig.COMPRESSION_DICTIONARY, ServerConfig.COMPRESSION_MIN_BYTES);
+    }
+
+    /**
+     * @param frame a complete frame from {@link OutboundFrame#encoded(byte)};
+     *              never modified since it may be shared
+     * @return a compressed frame, or the same frame if it's below minBytes
+     */
+    public byte[] compress(byte[] frame) {
+        int innerLength = frame.length - Frames.LENGTH_FIELD;
+        if (innerLength < minBytes) {
+            framesSkipped++;
+            return frame;
+        }
+        long start = System.nanoTime();
+        deflater.setInput(frame, Frames.LENGTH_FIELD, innerLength);
+        int pos = Frames.LENGTH_FIELD + 1; // room for the length and format
+        int space;
+        int count;
+        do {
+            if (pos == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            space = buffer.length - pos;
+            count = deflater.deflate(buffer, pos, space, Deflater.SYNC_FLUSH);
+            pos += count;
+        } while (count == space); // a full buffer means the flush may not be complete
+        pos -= SYNC_TRAILER;
+        int length = pos - Frames.LENGTH_FIELD;
+        buffer[0] = (byte) (length >>> 24);
+        buffer[1] = (byte) (length >>> 16);
+        buffer[2] = (byte) (length >>> 8);
+        buffer[3] = (byte) length;
+        buffer[4] = format;
+        byte[] compressed = Arrays.copyOf(buffer, pos);
+        nanos += System.nanoTime() - start;
+        framesCompressed++;
+        rawBytes += innerLength;
+        compressedBytes += length;
+        return compressed;
+    }
+
+    /**
+     * Frees the native zlib state; the deflater can't be used afterwards
+     */
+    public void end() {
+        deflater.end();
+    }
+
+    /**
+     * @return compressed size / raw size of the frames that were compressed
+     *         (lower is better)
+     */
+    public double getRatio() {
+        long raw = rawBytes;
+        return raw == 0 ? 1 : compressedBytes / (double) raw;
+    }
+
+    /**
+     * @return average CPU time spent per compressed frame
+     */
+    public double getNanosPerFrame() {
+        long frames = framesCompressed;
+        return frames == 0 ? 0 : nanos / (double) frames;
+    }
+
+    public long getFramesCompressed() {
+        return framesCompressed;
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FrameDeflater[ratio=%.3f, ns/frame=%.0f, compressed=%d, skipped=%d, %d->%dB]",
+                getRatio(), getNanosPerFrame(), framesCompressed, framesSkipped, rawBytes, compressedBytes);
+    }
+}
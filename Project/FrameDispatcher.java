@@ -0,0 +1,147 @@
+package Project;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Hands work from network threads to the EDT at most once per frame.
+ * <p>
+ * Items (i.e., chat lines) and actions are buffered off the EDT in arrival
+ * order. The first one schedules a drain one frame later; it then runs on
+ * the EDT and takes the whole buffer, with each run of consecutive items
+ * passed to the sink as one list so it can update its model (and scroll)
+ * once per batch. Actions run in between, in order. A burst of a few hundred
+ * messages is therefore one EDT event instead of hundreds.
+ * </p>
+ *
+ * @param <T> type of the batched items
+ */
+public class FrameDispatcher<T> {
+    /** -Dchat.client.frameMs how long incoming events are collected before the UI is updated */
+    public static final int DEFAULT_FRAME_MS = Integer.getInteger("chat.client.frameMs", 16);
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ui-frame");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final class Action {
+        private final Runnable runnable;
+
+        private Action(Runnable runnable) {
+            this.runnable = runnable;
+        }
+    }
+
+    private final Consumer<List<T>> sink;
+    private final int frameMillis;
+    private final Object lock = new Object();
+    private ArrayList<Object> pending = new ArrayList<>(); // T or Action, guarded by lock
+    private boolean scheduled = false; // guarded by lock
+    // stats
+    private volatile long submitted = 0;
+    private volatile long frames = 0;
+
+    /**
+     * @param frameMillis longest an event waits before it's applied
+     * @param sink        receives consecutive items as one batch, on the EDT
+     */
+    public FrameDispatcher(int frameMillis, Consumer<List<T>> sink) {
+        this.sink = sink;
+        this.frameMillis = frameMillis;
+    }
+
+    public FrameDispatcher(Consumer<List<T>> sink) {
+        this(DEFAULT_FRAME_MS, sink);
+    }
+
+    /**
+     * Queues an item for the next batch; safe from any thread
+     *
+     * @param item
+     */
+    public void submit(T item) {
+        enqueue(item);
+    }
+
+    /**
+     * Queues an action to run on the EDT after the items submitted before it;
+     * safe from any thread
+     *
+     * @param action
+     */
+    public void post(Runnable action) {
+        enqueue(new Action(action));
+    }
+
+    /**
+     * @return items and actions submitted so far
+     */
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    /**
+     * @return number of times the buffer was drained on the EDT
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    private void enqueue(Object event) {
+        boolean start;
+        synchronized (lock) {
+            pending.add(event);
+            submitted++;
+            start = !scheduled;
+            scheduled = true;
+        }
+        if (start) {
+            SCHEDULER.schedule(() -> SwingUtilities.invokeLater(this::drain), frameMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        ArrayList<Object> events;
+        synchronized (lock) {
+            events = pending;
+            pending = new ArrayList<>();
+            scheduled = false;
+        }
+        frames++;
+        List<T> batch = new ArrayList<>();
+        for (Object event : events) {
+            if (event instanceof Action action) {
+                if (!batch.isEmpty()) {
+                    deliver(batch);
+                    batch = new ArrayList<>();
+                }
+                try {
+                    action.runnable.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // don't lose the rest of the frame
+                }
+            } else {
+                batch.add((T) event);
+            }
+        }
+        if (!batch.isEmpty()) {
+            deliver(batch);
+        }
+    }
+
+    private void deliver(List<T> batch) {
+        try {
+            sink.accept(batch);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package Project;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Receiving side of {@link FrameDeflater}. One per connection since each
+ * compressed frame continues the stream of the ones before it; the zlib
+ * state is created on the first compressed frame and uses the dictionary if
+ * that frame's format says so.
+ * <p>
+ * Not thread safe; only the connection's reader uses it.
+ * </p>
+ */
+public class FrameInflater {
+    private static final byte[] SYNC_TRAILER = { 0, 0, (byte) 0xFF, (byte) 0xFF };
+
+    private Inflater inflater;
+    private byte format;
+    private byte[] buffer = new byte[8 * 1024];
+
+    /**
+     * Inflates a compressed frame and decodes the frame inside it
+     *
+     * @param frame  contains the format byte and body
+     * @param offset start of the format byte
+     * @param length value of the length field
+     * @return the decoded payload
+     * @throws IOException if the data is corrupt or inflates past
+     *                     Frames.MAX_FRAME_LENGTH
+     */
+    public Payload decode(byte[] frame, int offset, int length) throws IOException {
+        byte frameFormat = frame[offset];
+        if (inflater == null) {
+            inflater = new Inflater(true);
+            format = frameFormat;
+            if (frameFormat == Frames.FORMAT_DEFLATE_DICT) {
+                inflater.setDictionary(FrameDeflater.DICTIONARY);
+            }
+        } else if (frameFormat != format) {
+            throw new StreamCorruptedException("Compression format changed mid-stream");
+        }
+        try {
+            inflater.setInput(frame, offset + 1, length - 1);
+            int pos = inflate(0);
+            inflater.setInput(SYNC_TRAILER);
+            pos = inflate(pos);
+            return Frames.decode(buffer, 0, pos);
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Corrupt compressed frame: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Frees the native zlib state
+     */
+    public void end() {
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+
+    private int inflate(int pos) throws DataFormatException, IOException {
+        while (true) {
+            if (pos == buffer.length) {
+                if (buffer.length >= Frames.MAX_FRAME_LENGTH) {
+                    throw new StreamCorruptedException("Compressed frame inflates past the frame limit");
+                }
+                buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, Frames.MAX_FRAME_LENGTH));
+            }
+            int count = inflater.inflate(buffer, pos, buffer.length - pos);
+            pos += count;
+            if (count == 0 && pos < buffer.length) {
+                return pos; // input used up (or the stream ended)
+            }
+        }
+    }
+}
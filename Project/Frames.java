@@ -0,0 +1,217 @@
+package Project;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * Length-prefixed framing used by the framed protocol.
+ * <p>
+ * A framed connection starts with {@link #MAGIC} sent by the client, followed
+ * by frames in both directions: a 4 byte length (of everything after the
+ * length field), a 1 byte format and then the body. Each frame is self
+ * contained so it can be decoded without any per-connection stream state,
+ * which is what allows a selector to read it without blocking.
+ * </p>
+ * <p>
+ * Legacy clients that open a raw ObjectOutputStream are detected by the
+ * serialization stream magic ({@link #isSerializationStream(int, int)}).
+ * </p>
+ * <p>
+ * The format is per frame, so a receiver decodes whatever arrives and only
+ * the sender has to honor what was negotiated.
+ * </p>
+ */
+public final class Frames {
+    public static final int MAGIC = 0x43484631; // "CHF1"
+    public static final int LENGTH_FIELD = 4;
+    public static final int MAX_FRAME_LENGTH = 1 << 20; // 1MB, anything larger is treated as corrupt
+    public static final byte FORMAT_SERIALIZED = 0; // body is a standalone java serialization stream
+    public static final byte FORMAT_BINARY = 1; // body is encoded by BinaryCodec (negotiated at CLIENT_CONNECT)
+    public static final byte FORMAT_DEFLATE = 2; // body is another frame's format+body, see FrameDeflater
+    public static final byte FORMAT_DEFLATE_DICT = 3; // same, stream primed with FrameDeflater.DICTIONARY
+
+    private Frames() {
+    }
+
+    /**
+     * Checks the first two bytes a client sent against the java serialization
+     * stream magic (0xACED)
+     *
+     * @param b0 first byte
+     * @param b1 second byte
+     * @return true if the peer is a legacy ObjectOutputStream client
+     */
+    public static boolean isSerializationStream(int b0, int b1) {
+        return b0 == 0xAC && b1 == 0xED;
+    }
+
+    /**
+     * Encodes a payload into a complete frame (length field included)
+     *
+     * @param payload
+     * @param format  FORMAT_SERIALIZED or FORMAT_BINARY
+     * @return frame bytes ready to be written to the socket
+     * @throws IOException
+     */
+    public static byte[] encode(Payload payload, byte format) throws IOException {
+        return format == FORMAT_BINARY ? BinaryCodec.encode(payload) : encode(payload);
+    }
+
+    /**
+     * Encodes a payload into a complete frame using java serialization
+     *
+     * @param payload
+     * @return frame bytes ready to be written to the socket
+     * @throws IOException
+     */
+    public static byte[] encode(Payload payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(0); // placeholder for the length
+        data.writeByte(FORMAT_SERIALIZED);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(payload);
+        }
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - LENGTH_FIELD;
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    /**
+     * Decodes the part of a frame after the length field
+     *
+     * @param buffer contains the format byte and body
+     * @param offset start of the format byte
+     * @param length value of the length field
+     * @return the decoded payload
+     * @throws IOException
+     */
+    public static Payload decode(byte[] buffer, int offset, int length) throws IOException {
+        if (length < 1) {
+            throw new StreamCorruptedException("Empty frame");
+        }
+        byte format = buffer[offset];
+        if (isCompressed(format)) {
+            throw new StreamCorruptedException("Compressed frame on a connection without compression");
+        }
+        if (format == FORMAT_BINARY) {
+            return BinaryCodec.decode(buffer, offset + 1, length - 1);
+        }
+        if (format != FORMAT_SERIALIZED) {
+            throw new StreamCorruptedException("Unknown frame format " + format);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(buffer, offset + 1, length - 1))) {
+            return (Payload) ois.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new StreamCorruptedException("Frame did not contain a Payload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes the part of a frame after the length field, inflating it first if
+     * it's compressed
+     *
+     * @param buffer   contains the format byte and body
+     * @param offset   start of the format byte
+     * @param length   value of the length field
+     * @param inflater this connection's inflater
+     * @return the decoded payload
+     * @throws IOException
+     */
+    public static Payload decode(byte[] buffer, int offset, int length, FrameInflater inflater) throws IOException {
+        if (length > 1 && isCompressed(buffer[offset])) {
+            return inflater.decode(buffer, offset, length);
+        }
+        return decode(buffer, offset, length);
+    }
+
+    public static boolean isCompressed(byte format) {
+        return format == FORMAT_DEFLATE || format == FORMAT_DEFLATE_DICT;
+    }
+
+    /**
+     * Attempts to decode one frame from a buffer in read mode.
+     * If a complete frame isn't available the buffer position is left untouched.
+     *
+     * @param buffer
+     * @return the payload, or null if more bytes are needed
+     * @throws IOException if the frame is corrupt or too large
+     */
+    public static Payload decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < LENGTH_FIELD) {
+            return null;
+        }
+        int length = buffer.getInt(buffer.position());
+        checkLength(length);
+        if (buffer.remaining() < LENGTH_FIELD + length) {
+            return null;
+        }
+        byte[] body = new byte[length];
+        buffer.position(buffer.position() + LENGTH_FIELD);
+        buffer.get(body);
+        return decode(body, 0, length);
+    }
+
+    /**
+     * Blocking read of a single frame
+     *
+     * @param in
+     * @return the decoded payload
+     * @throws IOException
+     */
+    public static Payload read(DataInputStream in) throws IOException {
+        return read(in, null);
+    }
+
+    /**
+     * Blocking read of a single frame that may be compressed
+     *
+     * @param in
+     * @param inflater this connection's inflater (null if compression wasn't
+     *                 offered)
+     * @return the decoded payload
+     * @throws IOException
+     */
+    public static Payload read(DataInputStream in, FrameInflater inflater) throws IOException {
+        int length = in.readInt();
+        checkLength(length);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return inflater == null ? decode(body, 0, length) : decode(body, 0, length, inflater);
+    }
+
+    /**
+     * Reads and verifies the client preamble
+     *
+     * @param in
+     * @throws IOException if the preamble doesn't match
+     */
+    public static void readPreamble(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+            throw new StreamCorruptedException(String.format("Unexpected preamble %08x", magic));
+        }
+    }
+
+    public static void writePreamble(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+    }
+
+    private static void checkLength(int length) throws IOException {
+        if (length < 1 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length " + length);
+        }
+    }
+}
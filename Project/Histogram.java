@@ -0,0 +1,168 @@
+package Project;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram in the style of HdrHistogram: log-linear buckets, 32 per
+ * power of two, so any recorded value is known to within about 3% over the
+ * whole range from nanoseconds to half an hour.
+ * <p>
+ * Recording is a bucket calculation and a few atomic updates; nothing is
+ * allocated. Each thread records into one of several stripes (picked by
+ * thread id) so connection threads don't fight over the same counters;
+ * {@link #snapshot()} adds the stripes up.
+ * </p>
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    /** larger values are recorded as this (about 36 minutes in nanoseconds) */
+    public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB;
+    private static final int SUM = BUCKETS; // per stripe, after the buckets
+    private static final int MAX = BUCKETS + 1;
+    private static final int STRIPE_LENGTH = BUCKETS + 2;
+
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    public Histogram() {
+        this(Math.min(64, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    /**
+     * @param stripeCount rounded up to a power of two
+     */
+    Histogram(int stripeCount) {
+        int count = stripeCount <= 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        stripes = new AtomicLongArray[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new AtomicLongArray(STRIPE_LENGTH);
+        }
+        mask = count - 1;
+    }
+
+    /**
+     * @param value i.e., nanoseconds; negative values count as 0
+     */
+    public void record(long value) {
+        long v = Math.min(Math.max(value, 0), MAX_VALUE);
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().threadId() & mask];
+        stripe.incrementAndGet(bucketOf(v));
+        stripe.addAndGet(SUM, v);
+        long max = stripe.get(MAX);
+        while (v > max && !stripe.compareAndSet(MAX, max, v)) {
+            max = stripe.get(MAX);
+        }
+    }
+
+    /**
+     * @return the stripes added up; values recorded meanwhile may or may not
+     *         be included
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+            sum += stripe.get(SUM);
+            max = Math.max(max, stripe.get(MAX));
+        }
+        return new Snapshot(counts, sum, max);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((value >>> shift) - SUB);
+    }
+
+    /**
+     * @return the largest value that falls into the bucket
+     */
+    static long highestIn(int bucket) {
+        if (bucket < SUB) {
+            return bucket;
+        }
+        int shift = bucket / SUB - 1;
+        long mantissa = bucket % SUB + SUB;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Counts at one point in time
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param quantile 0 to 1, i.e., 0.99
+         * @return a value at least as large as that share of the recorded
+         *         values (within the bucket resolution), or 0 if empty
+         */
+        public long valueAt(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestIn(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @param value
+         * @return recorded values up to the value, counting whole buckets (a
+         *         bucket that straddles the value is left out)
+         */
+        public long countAtOrBelow(long value) {
+            long seen = 0;
+            for (int i = 0; i < counts.length && highestIn(i) <= value; i++) {
+                seen += counts[i];
+            }
+            return seen;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package Project;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Throughput and crash recovery of the MessageJournal, in temporary
+ * directories.
+ * <ul>
+ * <li>throughput: sender threads append messages as fast as they can (trying
+ * again while the queue is full) under each fsync policy; reports the time a
+ * sender spends per append, messages and MB per second until everything is
+ * forced to disk, fsyncs and how often the queue was full</li>
+ * <li>recovery: writes messages over several segments, then repeatedly cuts
+ * the last segment at a random point (optionally followed by garbage, or with
+ * a byte flipped) like a crash in the middle of a write, reopens the journal
+ * and checks that exactly the whole records before the damage are read back,
+ * in sequence, that the torn tail is truncated, and that appends continue
+ * from there; exits with 1 on any failure</li>
+ * </ul>
+ * Usage: java Project.JournalBenchmark throughput [messages] [senders]
+ * <br>
+ * java Project.JournalBenchmark recovery [trials]
+ */
+public class JournalBenchmark {
+    private static final String[] ROOMS = { "lobby", "games", "music", "offtopic" };
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "throughput";
+        switch (mode) {
+            case "throughput" -> throughput(args.length > 1 ? Integer.parseInt(args[1]) : 500_000,
+                    args.length > 2 ? Integer.parseInt(args[2]) : 4);
+            case "recovery" -> {
+                if (!recovery(args.length > 1 ? Integer.parseInt(args[1]) : 200)) {
+                    System.exit(1);
+                }
+            }
+            default -> System.out.println(
+                    "Usage: java Project.JournalBenchmark throughput [messages] [senders] | recovery [trials]");
+        }
+    }
+
+    private static void throughput(int messages, int senders) throws Exception {
+        run(MessageJournal.Durability.NONE, messages / 4, senders, false); // warm up
+        System.out.println(String.format("%,d messages from %d senders, 16 MiB segments", messages, senders));
+        System.out.println(String.format("%-8s %12s %12s %10s %10s %12s", "fsync", "append ns", "msgs/s", "MB/s",
+                "fsyncs", "queue full"));
+        for (MessageJournal.Durability durability : MessageJournal.Durability.values()) {
+            run(durability, messages, senders, true);
+        }
+    }
+
+    private static void run(MessageJournal.Durability durability, int messages, int senders, boolean report)
+            throws Exception {
+        Path dir = Files.createTempDirectory("journal-bench");
+        try {
+            MessageJournal journal = new MessageJournal(dir, 16 << 20, 64, durability, 20, 64 * 1024, 0);
+            int perSender = messages / senders;
+            long[] appendNanos = new long[senders];
+            List<Thread> threads = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int s = 0; s < senders; s++) {
+                int sender = s;
+                Thread thread = new Thread(() -> {
+                    String name = "sender" + sender;
+                    long spent = 0;
+                    for (int i = 0; i < perSender; i++) {
+                        String message = "message " + i + " from " + name + ", about as long as a chat line";
+                        long t = System.nanoTime();
+                        while (!journal.append(PayloadType.MESSAGE, ROOMS[i % ROOMS.length], sender, name,
+                                ServerThread.DEFAULT_CLIENT_ID, message)) {
+                            Thread.yield(); // the writer is behind; a sender would drop it
+                        }
+                        spent += System.nanoTime() - t;
+                    }
+                    appendNanos[sender] = spent;
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            journal.sync();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long total = (long) perSender * senders;
+            long spent = 0;
+            for (long nanos : appendNanos) {
+                spent += nanos;
+            }
+            long size = directorySize(dir);
+            if (report) {
+                System.out.println(String.format("%-8s %,12.0f %,12.0f %,10.1f %,10d %,12d", durability,
+                        (double) spent / total, total / seconds, size / seconds / (1 << 20), journal.getFsyncs(),
+                        journal.getDropped()));
+            }
+            journal.close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static boolean recovery(int trials) throws Exception {
+        Path pristine = Files.createTempDirectory("journal-pristine");
+        Path dir = Files.createTempDirectory("journal-recovery");
+        Random random = new Random(7);
+        boolean ok = true;
+        try {
+            int count = 3000;
+            MessageJournal journal = new MessageJournal(pristine, 64 * 1024, 1000, MessageJournal.Durability.NONE, 20,
+                    count, 10);
+            for (int i = 0; i < count; i++) {
+                String room = ROOMS[i % ROOMS.length];
+                PayloadType type = i % 7 == 0 ? PayloadType.PRIVATE_MESSAGE : PayloadType.MESSAGE;
+                journal.append(type, room, i % 13, "user" + (i % 13), type == PayloadType.PRIVATE_MESSAGE ? 3 : -1,
+                        "msg " + i + " " + "x".repeat(random.nextInt(80)) + " é漢");
+            }
+            journal.close();
+            List<MessageJournal.Record> records = new ArrayList<>();
+            journal.replay(records::add);
+            List<Path> segments = segments(pristine);
+            if (records.size() != count || segments.size() < 3) {
+                System.out.println(String.format("FAIL: wrote %d records in %d segments, read back %d", count,
+                        segments.size(), records.size()));
+                return false;
+            }
+            Path last = segments.get(segments.size() - 1);
+            byte[] tail = Files.readAllBytes(last);
+            // where each record of the last segment ends
+            long firstSeq = Long.parseLong(last.getFileName().toString().replace(".seg", ""));
+            List<Integer> ends = new ArrayList<>();
+            int offset = 4;
+            for (MessageJournal.Record record : records) {
+                if (record.getSeq() >= firstSeq) {
+                    offset += MessageJournal.sizeOf(record);
+                    ends.add(offset);
+                }
+            }
+            if (offset != tail.length) {
+                System.out.println(String.format("FAIL: records of the last segment add up to %d of %d bytes", offset,
+                        tail.length));
+                return false;
+            }
+            int before = (int) (firstSeq - 1); // records in the earlier segments
+
+            int[] kinds = new int[3];
+            for (int trial = 0; trial < trials && ok; trial++) {
+                int kind = trial % 3; // 0 = cut, 1 = cut + garbage, 2 = byte flipped
+                delete(dir);
+                Files.createDirectories(dir);
+                for (Path segment : segments) {
+                    Files.copy(segment, dir.resolve(segment.getFileName()));
+                }
+                byte[] damaged;
+                int expectedInTail;
+                int expectedSize;
+                if (kind == 2) {
+                    int at = 4 + random.nextInt(tail.length - 4);
+                    damaged = tail.clone();
+                    damaged[at] ^= (byte) (1 << random.nextInt(8));
+                    int broken = 0;
+                    while (ends.get(broken) <= at) {
+                        broken++;
+                    }
+                    expectedInTail = broken;
+                    expectedSize = broken == 0 ? 4 : ends.get(broken - 1);
+                } else {
+                    int cut = random.nextInt(tail.length + 1);
+                    int garbage = kind == 1 ? 1 + random.nextInt(64) : 0;
+                    damaged = new byte[cut + garbage];
+                    System.arraycopy(tail, 0, damaged, 0, cut);
+                    for (int i = cut; i < damaged.length; i++) {
+                        damaged[i] = (byte) random.nextInt(256);
+                    }
+                    expectedInTail = 0;
+                    while (expectedInTail < ends.size() && ends.get(expectedInTail) <= cut) {
+                        expectedInTail++;
+                    }
+                    expectedSize = expectedInTail == 0 ? 4 : ends.get(expectedInTail - 1);
+                }
+                Files.write(dir.resolve(last.getFileName()), damaged);
+                int expected = before + expectedInTail;
+
+                MessageJournal reopened = new MessageJournal(dir, 64 * 1024, 1000, MessageJournal.Durability.NONE, 20,
+                        100, 10);
+                List<MessageJournal.Record> recovered = new ArrayList<>();
+                reopened.replay(recovered::add);
+                long size = Files.size(dir.resolve(last.getFileName()));
+                String problem = check(records, recovered, expected);
+                if (problem == null && size != Math.max(expectedSize, 4)) {
+                    problem = String.format("last segment is %d bytes after recovery, expected %d", size,
+                            expectedSize);
+                }
+                if (problem == null) {
+                    // what each room would get back as scrollback
+                    List<MessageJournal.Record> recent = reopened.takeRecent("GAMES");
+                    List<MessageJournal.Record> games = recovered.stream()
+                            .filter(r -> r.getRoom().equals("games") && r.getType() == PayloadType.MESSAGE).toList();
+                    games = games.subList(Math.max(0, games.size() - 10), games.size());
+                    if (recent.size() != games.size() || (!recent.isEmpty()
+                            && recent.get(recent.size() - 1).getSeq() != games.get(games.size() - 1).getSeq())) {
+                        problem = "recent messages of 'games' don't match the journal";
+                    }
+                }
+                if (problem == null) {
+                    // appends continue after the last good record
+                    reopened.append(PayloadType.MESSAGE, "lobby", 1, "after", -1, "after recovery");
+                    reopened.close();
+                    recovered.clear();
+                    MessageJournal again = new MessageJournal(dir, 64 * 1024, 1000, MessageJournal.Durability.NONE,
+                            20, 100, 10);
+                    again.replay(recovered::add);
+                    again.close();
+                    MessageJournal.Record added = recovered.get(recovered.size() - 1);
+                    if (again.getTruncated() != 0 || recovered.size() != expected + 1
+                            || added.getSeq() != expected + 1 || !"after recovery".equals(added.getMessage())) {
+                        problem = String.format("append after recovery: %d records, last seq %d, truncated %d",
+                                recovered.size(), added.getSeq(), again.getTruncated());
+                    }
+                } else {
+                    reopened.close();
+                }
+                if (problem != null) {
+                    System.out.println(String.format("FAIL trial %d (%s): %s", trial,
+                            kind == 0 ? "cut" : kind == 1 ? "cut+garbage" : "flipped", problem));
+                    ok = false;
+                }
+                kinds[kind]++;
+            }
+            if (ok) {
+                System.out.println(String.format(
+                        "recovery: %d records in %d segments; %d cut, %d cut+garbage, %d flipped tails all recovered to the last whole record",
+                        count, segments.size(), kinds[0], kinds[1], kinds[2]));
+            }
+            return ok;
+        } finally {
+            delete(pristine);
+            delete(dir);
+        }
+    }
+
+    /**
+     * @return what's wrong with the recovered records, or null
+     */
+    private static String check(List<MessageJournal.Record> written, List<MessageJournal.Record> recovered,
+            int expected) {
+        if (recovered.size() != expected) {
+            return String.format("read back %d records, expected %d", recovered.size(), expected);
+        }
+        for (int i = 0; i < expected; i++) {
+            MessageJournal.Record a = written.get(i);
+            MessageJournal.Record b = recovered.get(i);
+            if (b.getSeq() != i + 1 || a.getSeq() != b.getSeq() || a.getType() != b.getType()
+                    || a.getSenderId() != b.getSenderId() || a.getTargetId() != b.getTargetId()
+                    || a.getTimestamp() != b.getTimestamp() || !a.getRoom().equals(b.getRoom())
+                    || !a.getSenderName().equals(b.getSenderName()) || !a.getMessage().equals(b.getMessage())) {
+                return "record " + (i + 1) + " differs";
+            }
+        }
+        return null;
+    }
+
+    private static List<Path> segments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(".seg")).sorted().toList();
+        }
+    }
+
+    private static long directorySize(Path dir) throws IOException {
+        long size = 0;
+        for (Path path : segments(dir)) {
+            size += Files.size(path);
+        }
+        return size;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package Project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a running Server with simulated users, for sizing hardware.
+ * <p>
+ * Each user is a protocol-compatible connection of its own: the framed
+ * preamble, a CLIENT_CONNECT offering the same features as {@link ChatClient},
+ * then a ROOM_CREATE (the first user of each room) or ROOM_JOIN, so users are
+ * spread evenly over the rooms. Once everyone is in, users send messages,
+ * rolls and private messages to someone in their room at the configured
+ * rates. Gaps between sends are exponentially distributed, so the traffic
+ * looks like independent people rather than a metronome.
+ * </p>
+ * <p>
+ * Messages and private messages carry the sender's System.nanoTime(), and all
+ * users live in this JVM, so every delivery gives an exact end-to-end latency
+ * (send to receipt, through the server). The Payload.timestamp the server
+ * stamps on each message gives the part from the server to the receiver, at
+ * millisecond resolution. Users read on virtual threads, so thousands fit in
+ * one JVM; run it on another machine than the Server to keep the two from
+ * sharing CPUs.
+ * </p>
+ * Usage: java Project.LoadGenerator [host] [port] [users] [rooms] [seconds]
+ */
+public class LoadGenerator {
+    /** -Dload.messages messages per user per minute */
+    private static final double MESSAGES_PER_MINUTE = Double.parseDouble(System.getProperty("load.messages", "6"));
+    /** -Dload.rolls rolls per user per minute */
+    private static final double ROLLS_PER_MINUTE = Double.parseDouble(System.getProperty("load.rolls", "0.5"));
+    /** -Dload.privates private messages per user per minute */
+    private static final double PRIVATES_PER_MINUTE = Double.parseDouble(System.getProperty("load.privates", "1"));
+    /** -Dload.connectRate new connections per second while ramping up */
+    private static final int CONNECT_RATE = Integer.getInteger("load.connectRate", 200);
+    /** -Dload.features FEATURE_* bitmask offered in CLIENT_CONNECT (default: what ChatClient offers) */
+    private static final int FEATURES = Integer.getInteger("load.features", ChatClient.SUPPORTED_FEATURES);
+    /** -Dload.reportSeconds seconds between progress lines */
+    private static final int REPORT_SECONDS = Integer.getInteger("load.reportSeconds", 5);
+    private static final long SETUP_TIMEOUT_MS = 60_000;
+    private static final String MARKER = " t=";
+    private static final String[] LINES = { "hey everyone, welcome to the lobby! anyone up for a game tonight?",
+            "brb", "lol that's **exactly** what I said", "did anyone see the match yesterday? _unreal_ finish",
+            "ok who's in? I can host", "gg", "can someone explain how the #r ranking r# works here?",
+            "I'll be on later, around 9 if that works for everybody" };
+
+    private static final LongAdder sentMessages = new LongAdder();
+    private static final LongAdder sentRolls = new LongAdder();
+    private static final LongAdder sentPrivates = new LongAdder();
+    private static final LongAdder expected = new LongAdder(); // deliveries the sends above should cause
+    private static final LongAdder delivered = new LongAdder(); // MESSAGE and PRIVATE_MESSAGE received
+    private static final LongAdder failed = new LongAdder(); // users that didn't get into their room
+    private static final LongAdder dropped = new LongAdder(); // connections the server closed mid-run
+    /** connect, CLIENT_CONNECT and getting into the room */
+    private static final Histogram SETUP_LATENCY = new Histogram();
+    /** a message or private message from its sender's send to one recipient's receipt */
+    private static final Histogram END_TO_END = new Histogram();
+    /** Payload.timestamp (stamped by the server) to receipt, in whole milliseconds */
+    private static final Histogram FROM_SERVER = new Histogram();
+    private static final AtomicReference<Histogram> interval = new AtomicReference<>(new Histogram());
+    private static volatile long measuringSince = Long.MAX_VALUE; // nanoTime; earlier sends aren't counted
+    private static volatile boolean stopping;
+    private static final CountDownLatch stop = new CountDownLatch(1); // ends the senders' waits between sends
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+        int userCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int roomCount = Math.max(1, Math.min(userCount, args.length > 3 ? Integer.parseInt(args[3]) : 20));
+        int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 60;
+        System.out.println(String.format(
+                "%,d users in %d rooms on %s:%d for %ds; per user and minute: %s messages, %s rolls, %s private",
+                userCount, roomCount, host, port, seconds, MESSAGES_PER_MINUTE, ROLLS_PER_MINUTE,
+                PRIVATES_PER_MINUTE));
+
+        // rooms of an earlier run may still be closing; a room name of this run's own can't be taken
+        String run = Long.toString(System.currentTimeMillis() % 1_000_000_000, 36);
+        List<RoomState> rooms = new ArrayList<>();
+        for (int r = 0; r < roomCount; r++) {
+            rooms.add(new RoomState("load-" + run + "-" + r));
+        }
+        CountDownLatch settled = new CountDownLatch(userCount); // every user is in its room or has failed
+        CountDownLatch go = new CountDownLatch(1);
+        List<User> users = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        long setupStart = System.nanoTime();
+        for (int i = 0; i < userCount; i++) {
+            // the first user of each room creates it, the rest join once it exists
+            User user = new User(i, host, port, rooms.get(i % roomCount), i < roomCount);
+            users.add(user);
+            threads.add(Thread.ofVirtual().name("load-user-" + i).start(() -> user.run(settled, go)));
+            if (CONNECT_RATE > 0 && (i + 1) % Math.max(1, CONNECT_RATE / 100) == 0) {
+                long due = setupStart + (long) ((i + 1) * 1e9 / CONNECT_RATE);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+        }
+        if (!settled.await(SETUP_TIMEOUT_MS + 10_000, TimeUnit.MILLISECONDS)) {
+            System.out.println("Setup timed out");
+        }
+        Histogram.Snapshot setup = SETUP_LATENCY.snapshot();
+        System.out.println(String.format("Setup: %,d users in their rooms after %.1fs (%,d failed); %s",
+                setup.getCount(), (System.nanoTime() - setupStart) / 1e9, failed.sum(),
+                Metrics.latencies(setup)));
+
+        measuringSince = System.nanoTime();
+        long end = measuringSince + TimeUnit.SECONDS.toNanos(seconds);
+        go.countDown();
+        long[] last = new long[2];
+        long lastReport = measuringSince;
+        while (System.nanoTime() < end) {
+            long next = Math.min(end, lastReport + TimeUnit.SECONDS.toNanos(REPORT_SECONDS));
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, next - System.nanoTime()));
+            long now = System.nanoTime();
+            long sent = sentMessages.sum() + sentRolls.sum() + sentPrivates.sum();
+            long received = delivered.sum();
+            double elapsed = (now - lastReport) / 1e9;
+            System.out.println(String.format("%5.0fs  sent %,8.1f/s  delivered %,10.1f/s  end-to-end %s",
+                    (now - measuringSince) / 1e9, (sent - last[0]) / elapsed, (received - last[1]) / elapsed,
+                    Metrics.latencies(interval.getAndSet(new Histogram()).snapshot())));
+            last[0] = sent;
+            last[1] = received;
+            lastReport = now;
+        }
+        stopping = true; // users stop sending; give what's in flight a moment to arrive
+        stop.countDown();
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (delivered.sum() < expected.sum() && System.nanoTime() < drainUntil) {
+            Thread.sleep(50);
+        }
+        double measured = (end - measuringSince) / 1e9;
+        long messages = sentMessages.sum();
+        System.out.println(String.format("Sent: %,d messages (%,.1f/s), %,d rolls, %,d private messages", messages,
+                messages / measured, sentRolls.sum(), sentPrivates.sum()));
+        System.out.println(String.format("Delivered: %,d of %,d expected (%,.1f/s); %,d users failed, %,d dropped",
+                delivered.sum(), expected.sum(), delivered.sum() / measured, failed.sum(), dropped.sum()));
+        System.out.println("End-to-end: " + Metrics.latencies(END_TO_END.snapshot()));
+        System.out.println("Server to receiver (ms resolution): " + Metrics.latencies(FROM_SERVER.snapshot()));
+
+        for (User user : users) {
+            user.close();
+        }
+        long joinUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (Thread thread : threads) {
+            long left = joinUntil - System.nanoTime();
+            if (left <= 0 || !thread.join(Duration.ofNanos(left))) {
+                break; // not worth waiting for; they're virtual threads and won't keep the JVM up
+            }
+        }
+        if (failed.sum() > 0 || dropped.sum() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * A room the users are spread over; members are known once they're in
+     */
+    private static final class RoomState {
+        private final String name;
+        private final CountDownLatch created = new CountDownLatch(1);
+        private final List<Long> members = new CopyOnWriteArrayList<>();
+
+        private RoomState(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * One simulated user: its own connection, a virtual thread that sends and
+     * one that reads
+     */
+    private static final class User {
+        private final int index;
+        private final String host;
+        private final int port;
+        private final RoomState room;
+        private final boolean creator;
+        private final CountDownLatch identified = new CountDownLatch(1);
+        private final CountDownLatch joined = new CountDownLatch(1);
+        private Socket socket;
+        private BufferedOutputStream out; // only the sending thread writes
+        private volatile long clientId = ClientData.DEFAULT_CLIENT_ID;
+        private volatile byte format = Frames.FORMAT_SERIALIZED; // until the server accepts binary
+        private volatile boolean closed; // by us
+        private volatile boolean gone; // the reader stopped
+
+        private User(int index, String host, int port, RoomState room, boolean creator) {
+            this.index = index;
+            this.host = host;
+            this.port = port;
+            this.room = room;
+            this.creator = creator;
+        }
+
+        private void run(CountDownLatch settled, CountDownLatch go) {
+            boolean in = false;
+            try {
+                in = setUp();
+            } catch (IOException e) {
+                // counted as failed below
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (!in) {
+                    failed.increment();
+                    if (creator) {
+                        room.created.countDown(); // let the others try (and fail) rather than wait
+                    }
+                }
+                settled.countDown();
+            }
+            if (!in) {
+                close();
+                return;
+            }
+            try {
+                go.await();
+                sendUntilStopped();
+            } catch (IOException e) {
+                // the reader sees the connection go too, and counts it
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * @return true once the user is in its room
+         */
+        private boolean setUp() throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            // not a DataOutputStream: its synchronized writes would pin the virtual sender on a full socket
+            out = new BufferedOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Frames.writePreamble(new DataOutputStream(out)); // only buffered here
+            ConnectionPayload cp = new ConnectionPayload();
+            cp.setClientName("load-" + index);
+            cp.setFeatures(FEATURES);
+            send(cp);
+            Thread.ofVirtual().name("load-reader-" + index).start(() -> read(in));
+            if (!identified.await(SETUP_TIMEOUT_MS, TimeUnit.MILLISECONDS) || gone) {
+                return false;
+            }
+            Payload p = new Payload();
+            p.setClientId(clientId);
+            p.setMessage(room.name);
+            if (creator) {
+                p.setPayloadType(PayloadType.ROOM_CREATE);
+            } else {
+                if (!room.created.await(SETUP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    return false;
+                }
+                p.setPayloadType(PayloadType.ROOM_JOIN);
+            }
+            send(p);
+            if (!joined.await(SETUP_TIMEOUT_MS, TimeUnit.MILLISECONDS) || gone) {
+                return false;
+            }
+            room.members.add(clientId);
+            if (creator) {
+                room.created.countDown();
+            }
+            SETUP_LATENCY.record(System.nanoTime() - start);
+            return true;
+        }
+
+        private void sendUntilStopped() throws IOException, InterruptedException {
+            double perSecond = (MESSAGES_PER_MINUTE + ROLLS_PER_MINUTE + PRIVATES_PER_MINUTE) / 60;
+            if (perSecond <= 0) {
+                return;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long next = System.nanoTime();
+            while (true) {
+                // the three kinds are independent Poisson processes; together they're one with the summed rate
+                next += (long) (-Math.log(1 - random.nextDouble()) / perSecond * 1e9);
+                long wait = next - System.nanoTime();
+                if (wait > 0 && stop.await(wait, TimeUnit.NANOSECONDS)) {
+                    return;
+                }
+                if (stopping || closed) {
+                    return;
+                }
+                double pick = random.nextDouble() * perSecond * 60;
+                if (pick < MESSAGES_PER_MINUTE) {
+                    sendMessage(random);
+                } else if (pick < MESSAGES_PER_MINUTE + ROLLS_PER_MINUTE) {
+                    sendRoll(random);
+                } else {
+                    sendPrivateMessage(random);
+                }
+            }
+        }
+
+        private void sendMessage(ThreadLocalRandom random) throws IOException {
+            Payload p = new Payload();
+            p.setPayloadType(PayloadType.MESSAGE);
+            p.setClientId(clientId);
+            p.setMessage(LINES[random.nextInt(LINES.length)] + MARKER + System.nanoTime());
+            p.setTimestamp(System.currentTimeMillis());
+            expected.add(room.members.size());
+            send(p);
+            sentMessages.increment();
+        }
+
+        private void sendRoll(ThreadLocalRandom random) throws IOException {
+            RollPayload p = new RollPayload();
+            p.setClientId(clientId);
+            if (random.nextBoolean()) {
+                p.setNumberOfDice(1 + random.nextInt(3));
+                p.setSidesPerDie(6);
+            } else {
+                p.setRollRange(100);
+            }
+            expected.add(room.members.size()); // the result is said in the room
+            send(p);
+            sentRolls.increment();
+        }
+
+        private void sendPrivateMessage(ThreadLocalRandom random) throws IOException {
+            List<Long> members = room.members;
+            long target = members.get(random.nextInt(members.size()));
+            if (target == clientId && members.size() > 1) {
+                target = members.get((members.indexOf(target) + 1) % members.size());
+            }
+            PrivateMessagePayload p = new PrivateMessagePayload();
+            p.setPayloadType(PayloadType.PRIVATE_MESSAGE);
+            p.setClientId(clientId);
+            p.setTargetClientId(target);
+            p.setMessage(LINES[random.nextInt(LINES.length)] + MARKER + System.nanoTime());
+            p.setTimestamp(System.currentTimeMillis());
+            expected.add(2); // a copy for the sender and one for the target
+            send(p);
+            sentPrivates.increment();
+        }
+
+        private void send(Payload p) throws IOException {
+            out.write(Frames.encode(p, format));
+            out.flush();
+        }
+
+        private void read(DataInputStream in) {
+            FrameInflater inflater = new FrameInflater(); // only this thread reads
+            try {
+                Payload p;
+                while ((p = Frames.read(in, inflater)) != null) {
+                    onPayload(p);
+                }
+                if (!closed && !stopping) {
+                    dropped.increment();
+                }
+            } catch (IOException e) {
+                if (!closed && !stopping) {
+                    dropped.increment();
+                }
+            } finally {
+                inflater.end();
+                gone = true;
+                identified.countDown(); // don't leave the sender waiting on a dead connection
+                joined.countDown();
+            }
+        }
+
+        private void onPayload(Payload p) {
+            switch (p.getPayloadType()) {
+                case CLIENT_ID -> {
+                    if (p instanceof ConnectionPayload cp && clientId == ClientData.DEFAULT_CLIENT_ID) {
+                        format = (cp.getFeatures() & ConnectionPayload.FEATURE_BINARY_CODEC) != 0
+                                ? Frames.FORMAT_BINARY
+                                : Frames.FORMAT_SERIALIZED;
+                        clientId = cp.getClientId();
+                        identified.countDown();
+                    }
+                }
+                case ROOM_SNAPSHOT -> {
+                    if (p instanceof RoomSnapshotPayload snapshot
+                            && room.name.equalsIgnoreCase(snapshot.getRoomName())) {
+                        joined.countDown();
+                    }
+                }
+                case ROOM_JOIN -> {
+                    if (p instanceof ConnectionPayload cp && cp.isConnect() && cp.getClientId() == clientId
+                            && room.name.equalsIgnoreCase(cp.getMessage())) {
+                        joined.countDown();
+                    }
+                }
+                case MESSAGE, PRIVATE_MESSAGE -> onMessage(p);
+                default -> {
+                    // presence, mute lists and the like don't matter here
+                }
+            }
+        }
+
+        private void onMessage(Payload p) {
+            long now = System.nanoTime();
+            if (now < measuringSince) {
+                return; // notices and scrollback while setting up
+            }
+            String text = p.getMessage();
+            int at = text == null ? -1 : text.lastIndexOf(MARKER);
+            if (at < 0) {
+                delivered.increment(); // roll results and server notices
+                return;
+            }
+            int start = at + MARKER.length();
+            int stop = start;
+            while (stop < text.length() && Character.isDigit(text.charAt(stop))) {
+                stop++;
+            }
+            long sent;
+            try {
+                sent = Long.parseLong(text, start, stop, 10);
+            } catch (NumberFormatException e) {
+                return;
+            }
+            if (sent < measuringSince) {
+                return; // scrollback from before the measurement
+            }
+            delivered.increment();
+            END_TO_END.record(now - sent);
+            interval.get().record(now - sent);
+            FROM_SERVER.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - p.getTimestamp()));
+        }
+
+        private void close() {
+            closed = true;
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package Project;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Leveled logging that keeps formatting and I/O off the calling thread.
+ * <p>
+ * A call below the configured level returns right away (suppliers aren't
+ * called, format arguments aren't formatted). Otherwise the record goes into
+ * a bounded lock-free ring: producers claim a slot with a CAS on the tail and
+ * publish it through the slot's sequence number, so connection threads never
+ * contend on a lock; when the ring is full the record is dropped and counted
+ * rather than making the caller wait. A single daemon thread drains the ring,
+ * formats each record as
+ * {@code 2024-12-11T10:15:30.123 INFO  [thread] source: message} and writes
+ * batches to stdout (or {@code -Dchat.log.file}).
+ * </p>
+ * <p>
+ * Format arguments are formatted on the writer thread, so they should be
+ * values that don't change afterwards (strings, numbers). Private message
+ * bodies are replaced by {@link #privateText(String)} unless
+ * {@code -Dchat.log.privateMessages=true}.
+ * </p>
+ */
+public final class Log {
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    /** -Dchat.log.level=debug|info|warn|error|off least severe level written */
+    public static final Level LEVEL = parseLevel(System.getProperty("chat.log.level", "info"));
+    /** -Dchat.log.buffer records that may wait for the writer (rounded up to a power of two) */
+    public static final int BUFFER = Integer.getInteger("chat.log.buffer", 8192);
+    /** -Dchat.log.async=false write on the calling thread instead (what System.out.println did) */
+    public static final boolean ASYNC = Boolean.parseBoolean(System.getProperty("chat.log.async", "true"));
+    /** -Dchat.log.file append to this file instead of stdout */
+    public static final String FILE = System.getProperty("chat.log.file", "");
+    /** -Dchat.log.privateMessages=true include private message bodies in the logs */
+    public static final boolean PRIVATE_MESSAGES = Boolean.getBoolean("chat.log.privateMessages");
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+    private static final int IDLE_SPINS = 100; // empty drains before the writer parks until offer() wakes it
+
+    private static final class Record {
+        long time;
+        Level level;
+        String thread;
+        Object source;
+        String message;
+        Object[] args;
+        Throwable error;
+    }
+
+    private static volatile Level level = LEVEL;
+    private static volatile boolean async = ASYNC;
+    private static volatile PrintStream out = open(FILE);
+    private static final Record[] ring;
+    private static final AtomicLongArray sequences; // per slot: index it may be written at, or read at + 1
+    private static final int mask;
+    private static final AtomicLong tail = new AtomicLong(); // next index producers claim
+    private static volatile long head = 0; // next index the writer reads; only the writer updates it
+    private static final AtomicLong dropped = new AtomicLong();
+    private static long reported = 0; // drops already mentioned in the log; writer only
+    private static final AtomicLong written = new AtomicLong();
+    private static final StringBuilder line = new StringBuilder(256); // writer only (or under out's lock)
+    private static final Thread writer;
+    private static volatile boolean sleeping = false; // the writer found the ring empty and is (about to be) parked
+
+    static {
+        int capacity = Integer.highestOneBit(Math.max(2, BUFFER) - 1) << 1;
+        ring = new Record[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        mask = capacity - 1;
+        writer = new Thread(Log::drainLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            async = false; // whatever is logged from other shutdown hooks is written directly
+            flush();
+        }, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    public static boolean isEnabled(Level at) {
+        return at.compareTo(level) >= 0 && at != Level.OFF;
+    }
+
+    public static void debug(Object source, String message) {
+        log(Level.DEBUG, source, message, null, null);
+    }
+
+    /**
+     * @param source
+     * @param message only called if DEBUG is enabled
+     */
+    public static void debug(Object source, Supplier<String> message) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, source, message.get(), null, null);
+        }
+    }
+
+    public static void info(Object source, String message) {
+        log(Level.INFO, source, message, null, null);
+    }
+
+    /**
+     * @param source
+     * @param format String.format pattern, formatted on the writer thread
+     * @param args   values that won't change after the call
+     */
+    public static void info(Object source, String format, Object... args) {
+        log(Level.INFO, source, format, args, null);
+    }
+
+    /**
+     * @param source
+     * @param message only called if INFO is enabled
+     */
+    public static void info(Object source, Supplier<String> message) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, source, message.get(), null, null);
+        }
+    }
+
+    public static void warn(Object source, String message) {
+        log(Level.WARN, source, message, null, null);
+    }
+
+    public static void error(Object source, String message, Throwable error) {
+        log(Level.ERROR, source, message, null, error);
+    }
+
+    /**
+     * @param message body of a private message
+     * @return the body if private messages may be logged, otherwise just its
+     *         length
+     */
+    public static String privateText(String message) {
+        if (PRIVATE_MESSAGES || message == null) {
+            return message;
+        }
+        return "[private, " + message.length() + " chars]";
+    }
+
+    /**
+     * Waits (up to a few seconds) until everything logged so far is written
+     */
+    public static void flush() {
+        long target = tail.get();
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (head < target && writer.isAlive() && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            Thread.onSpinWait();
+        }
+        if (!writer.isAlive() || head < target) {
+            drain(); // the writer is gone; do it here
+        }
+        synchronized (line) {
+            out.flush();
+        }
+    }
+
+    /**
+     * @return records dropped because the ring was full
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    public static long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Changes the configuration at runtime, i.e., for benchmarks
+     *
+     * @param newLevel
+     * @param newAsync
+     * @param output   where records go from now on, or null to keep the
+     *                 current one
+     */
+    static void configure(Level newLevel, boolean newAsync, OutputStream output) {
+        flush();
+        level = newLevel;
+        async = newAsync;
+        if (output != null) {
+            synchronized (line) {
+                out = new PrintStream(output, false, StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    private static void log(Level at, Object source, String message, Object[] args, Throwable error) {
+        if (!isEnabled(at)) {
+            return;
+        }
+        Record record = new Record();
+        record.time = System.currentTimeMillis();
+        record.level = at;
+        record.thread = Thread.currentThread().getName();
+        record.source = source;
+        record.message = message;
+        record.args = args;
+        record.error = error;
+        if (!async) {
+            synchronized (line) {
+                write(record);
+                out.flush();
+            }
+            return;
+        }
+        if (!offer(record)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private static boolean offer(Record record) {
+        while (true) {
+            long index = tail.get();
+            int slot = (int) (index & mask);
+            long sequence = sequences.get(slot);
+            if (sequence == index) {
+                if (tail.compareAndSet(index, index + 1)) {
+                    ring[slot] = record;
+                    sequences.set(slot, index + 1); // publishes the record to the writer
+                    if (sleeping) {
+                        LockSupport.unpark(writer); // the ring was empty; wake the writer only then
+                    }
+                    return true;
+                }
+            } else if (sequence < index) {
+                return false; // the writer hasn't freed this slot yet: full
+            }
+            // otherwise another producer claimed this index first; try the next
+        }
+    }
+
+    private static void drainLoop() {
+        int idle = 0;
+        while (true) {
+            if (drain() > 0) {
+                idle = 0;
+            } else if (++idle < IDLE_SPINS) {
+                Thread.onSpinWait();
+            } else {
+                idle = 0;
+                sleeping = true;
+                // checked after announcing it, so a record published in between isn't left waiting
+                if (!isPublished(head)) {
+                    LockSupport.park();
+                }
+                sleeping = false;
+            }
+        }
+    }
+
+    private static boolean isPublished(long index) {
+        return sequences.get((int) (index & mask)) == index + 1;
+    }
+
+    /**
+     * Writes what's in the ring
+     *
+     * @return records written
+     */
+    private static int drain() {
+        int count = 0;
+        synchronized (line) {
+            while (true) {
+                long index = head;
+                int slot = (int) (index & mask);
+                if (!isPublished(index)) {
+                    break; // empty, or the producer hasn't published yet
+                }
+                Record record = ring[slot];
+                ring[slot] = null;
+                sequences.set(slot, index + ring.length); // free for the producer one lap later
+                head = index + 1;
+                write(record);
+                count++;
+            }
+            long lost = dropped.get() - reported;
+            if (lost > 0) {
+                reported += lost;
+                out.println(String.format("%s WARN  [log-writer] Log: %d records dropped, the log couldn't keep up",
+                        TIME.format(Instant.now()), lost));
+            }
+            if (count > 0) {
+                out.flush();
+            }
+        }
+        return count;
+    }
+
+    private static void write(Record record) {
+        line.setLength(0);
+        TIME.formatTo(Instant.ofEpochMilli(record.time), line);
+        line.append(' ').append(record.level.name());
+        for (int pad = record.level.name().length(); pad < 5; pad++) {
+            line.append(' ');
+        }
+        line.append(" [").append(record.thread).append("] ");
+        if (record.source != null) {
+            line.append(record.source).append(": ");
+        }
+        try {
+            line.append(record.args == null || record.args.length == 0 ? record.message
+                    : String.format(record.message, record.args));
+        } catch (RuntimeException e) {
+            line.append(record.message).append(" (unformattable: ").append(e).append(')');
+        }
+        out.println(line);
+        if (record.error != null) {
+            record.error.printStackTrace(out);
+        }
+        written.incrementAndGet();
+    }
+
+    /**
+     * @param value
+     * @return the matching level, or INFO (reported on System.err, since Log
+     *         isn't up yet) if there is none; a typo mustn't keep the class
+     *         from loading
+     */
+    private static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println(String.format("Unknown log level '%s' (debug|info|warn|error|off), using INFO", value));
+            return Level.INFO;
+        }
+    }
+
+    private static PrintStream open(String file) {
+        if (file.isEmpty()) {
+            // buffered here so a drained batch reaches stdout as one write
+            return new PrintStream(new BufferedOutputStream(System.out, 64 * 1024), false, StandardCharsets.UTF_8);
+        }
+        try {
+            return new PrintStream(new FileOutputStream(file, true), false, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Unable to open log file " + file + ", logging to stdout: " + e.getMessage());
+            return System.out;
+        }
+    }
+}
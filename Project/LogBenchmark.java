@@ -0,0 +1,158 @@
+package Project;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server message throughput under each logging configuration.
+ * <p>
+ * Rooms of real ServerThreads on loopback sockets (the client ends drained on
+ * virtual threads); sender threads each own a slice of the members and feed
+ * MESSAGE payloads through receive(), as their reader threads would, so every
+ * message takes the whole server path including its log calls. The log goes
+ * to a temporary file. Configurations:
+ * </p>
+ * <ul>
+ * <li>debug-sync: every record formatted and written on the calling thread
+ * under one lock, which is what System.out.println did</li>
+ * <li>debug-async: the same records through the ring and writer thread</li>
+ * <li>info-async: the default; per-message records are DEBUG and skipped</li>
+ * <li>off</li>
+ * </ul>
+ * Reports messages and deliveries per second, and records written and
+ * dropped.
+ * <br>
+ * Usage: java Project.LogBenchmark [rooms] [membersPerRoom] [senders]
+ * [seconds]
+ */
+public class LogBenchmark {
+    private static final AtomicLong received = new AtomicLong();
+    private static long nextClientId = 1;
+
+    public static void main(String[] args) throws Exception {
+        int roomCount = intArg(args, 0, 10);
+        int perRoom = intArg(args, 1, 10);
+        int senders = intArg(args, 2, 4);
+        int seconds = intArg(args, 3, 5);
+        Path file = Files.createTempFile("log-bench", ".log");
+        try (ServerSocket serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+                OutputStream logFile = new BufferedOutputStream(new FileOutputStream(file.toFile()), 64 * 1024)) {
+            System.out.println(String.format("rooms=%d members/room=%d senders=%d seconds=%d", roomCount, perRoom,
+                    senders, seconds));
+            run(serverSocket, Log.Level.INFO, true, logFile, roomCount, perRoom, senders, 1, false); // warm up
+            System.out.println(String.format("%-12s %12s %14s %12s %10s", "log", "msgs/s", "deliveries/s",
+                    "written", "dropped"));
+            run(serverSocket, Log.Level.DEBUG, false, logFile, roomCount, perRoom, senders, seconds, true);
+            run(serverSocket, Log.Level.DEBUG, true, logFile, roomCount, perRoom, senders, seconds, true);
+            run(serverSocket, Log.Level.INFO, true, logFile, roomCount, perRoom, senders, seconds, true);
+            run(serverSocket, Log.Level.OFF, true, logFile, roomCount, perRoom, senders, seconds, true);
+            Log.configure(Log.Level.OFF, true, null);
+            System.out.println(String.format("log file: %,d bytes", Files.size(file)));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        System.exit(0);
+    }
+
+    private static void run(ServerSocket serverSocket, Log.Level level, boolean async, OutputStream logFile,
+            int roomCount, int perRoom, int senders, int seconds, boolean report) throws Exception {
+        Log.configure(Log.Level.OFF, true, logFile); // setup isn't measured
+        List<ServerThread> all = new ArrayList<>();
+        for (int r = 0; r < roomCount; r++) {
+            Room room = new Room("log-" + r);
+            for (int m = 0; m < perRoom; m++) {
+                ServerThread st = connect(serverSocket);
+                room.addClient(st);
+                all.add(st);
+            }
+        }
+        Log.configure(level, async, null);
+        long writtenBefore = Log.getWritten();
+        long droppedBefore = Log.getDropped();
+        long enqueuedBefore = all.stream().mapToLong(st -> st.getOutboundQueue().getEnqueued()).sum();
+        AtomicLong sent = new AtomicLong();
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < senders; s++) {
+            // each sender owns a slice of the members, like a reader thread owns its client
+            List<ServerThread> owned = new ArrayList<>();
+            for (int c = s; c < all.size(); c += senders) {
+                owned.add(all.get(c));
+            }
+            threads.add(Thread.ofPlatform().name("sender-" + s).start(() -> {
+                long count = 0;
+                while (System.nanoTime() < deadline) {
+                    Payload payload = new Payload();
+                    payload.setPayloadType(PayloadType.MESSAGE);
+                    payload.setMessage("benchmark line " + count + " with a *little* markup");
+                    owned.get((int) (count % owned.size())).receive(payload);
+                    count++;
+                }
+                sent.addAndGet(count);
+            }));
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        Log.flush(); // so written counts what the run logged
+        long enqueued = all.stream().mapToLong(st -> st.getOutboundQueue().getEnqueued()).sum() - enqueuedBefore;
+        if (report) {
+            System.out.println(String.format("%-12s %,12.0f %,14.0f %,12d %,10d",
+                    level.name().toLowerCase() + (level == Log.Level.OFF ? "" : async ? "-async" : "-sync"),
+                    sent.get() / elapsed, enqueued / elapsed, Log.getWritten() - writtenBefore,
+                    Log.getDropped() - droppedBefore));
+        }
+        Log.configure(Log.Level.OFF, true, null);
+        for (ServerThread st : all) {
+            st.cleanup(); // closes the socket without disconnect()'s mute file
+        }
+    }
+
+    /**
+     * Opens a loopback connection served by a started ServerThread; the client
+     * end is drained on a virtual thread
+     */
+    private static ServerThread connect(ServerSocket serverSocket) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        Frames.writePreamble(out);
+        out.flush();
+        ServerThread st = new ServerThread(serverSocket.accept(), s -> {
+        });
+        st.start(TransportMode.VIRTUAL.readerThreads());
+        while (!st.isRunning) {
+            Thread.onSpinWait(); // sends before the reader is up are silently skipped
+        }
+        st.sendClientId(nextClientId++);
+        Thread.ofVirtual().start(() -> {
+            byte[] buffer = new byte[16 * 1024];
+            try (InputStream in = socket.getInputStream()) {
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    received.addAndGet(count);
+                }
+            } catch (IOException e) {
+                // closed at exit
+            }
+        });
+        return st;
+    }
+
+    private static int intArg(String[] args, int index, int fallback) {
+        return args.length > index ? Integer.parseInt(args[index]) : fallback;
+    }
+}
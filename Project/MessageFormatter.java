@@ -0,0 +1,281 @@
+package Project;
+
+/**
+ * Renders the chat markup ({@code **bold**}, {@code *italic*},
+ * {@code _underline_}, {@code #r red r#}, {@code #g green g#},
+ * {@code #b blue b#}) to HTML without regular expressions, escaping
+ * everything else.
+ * <p>
+ * The output is exactly what the old chain of six {@code replaceAll} calls
+ * produced for the escaped text, i.e., {@code format(s)} equals
+ * {@code regexChain(escapeHTML(s))}: markers pair up the way those lazy,
+ * leftmost matches did (bold first, then italic, underline, red, green,
+ * blue; a pair never spans a line break, and the first five need something
+ * in between). Each marker kind is only paired if it occurs, each pairing
+ * is one linear walk, and the result is written once. Text without markup
+ * or special characters is returned as is.
+ * </p>
+ * <p>
+ * {@link #parse(String)} pairs the markers the same way but returns styled
+ * runs ({@link RichText}) instead of HTML; that's what goes to clients with
+ * {@link ConnectionPayload#FEATURE_RICH_TEXT}.
+ * </p>
+ */
+public final class MessageFormatter {
+    // what a character turns into; NONE is the character itself (escaped)
+    private static final byte NONE = 0;
+    private static final byte SKIP = 1; // second character of a two-character marker
+    private static final byte BOLD_OPEN = 2;
+    private static final byte BOLD_CLOSE = 3;
+    private static final byte ITALIC_OPEN = 4;
+    private static final byte ITALIC_CLOSE = 5;
+    private static final byte UNDERLINE_OPEN = 6;
+    private static final byte UNDERLINE_CLOSE = 7;
+    private static final byte RED_OPEN = 8;
+    private static final byte GREEN_OPEN = 9;
+    private static final byte BLUE_OPEN = 10;
+    private static final byte COLOR_CLOSE = 11;
+    private static final String[] TAGS = {
+            null, "",
+            "<b>", "</b>",
+            "<i>", "</i>",
+            "<u>", "</u>",
+            "<span style='color:red;'>", "<span style='color:green;'>", "<span style='color:blue;'>", "</span>" };
+    private static final int COLOR_SHIFT = 3; // RichText.COLOR_MASK as a two bit number
+
+    // what the first scan found
+    private static final int HAS_STAR = 1;
+    private static final int HAS_UNDERSCORE = 2;
+    private static final int HAS_HASH = 4;
+    private static final int HAS_SPECIAL = 8; // needs escaping
+
+    private MessageFormatter() {
+    }
+
+    /**
+     * @param text raw message
+     * @return HTML fragment; null and empty text are returned unchanged
+     */
+    public static String format(String text) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+        int found = scan(text);
+        if (found == 0) {
+            return text;
+        }
+        int n = text.length();
+        byte[] marks = (found & ~HAS_SPECIAL) != 0 ? mark(text, found) : null;
+        StringBuilder out = new StringBuilder(n + 32);
+        for (int i = 0; i < n; i++) {
+            byte mark = marks == null ? NONE : marks[i];
+            if (mark != NONE) {
+                out.append(TAGS[mark]);
+                continue;
+            }
+            char c = text.charAt(i);
+            switch (c) {
+                case '&' -> out.append("&amp;");
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                default -> out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Parses the markup into styled runs without rendering it; the same
+     * markers pair up as in {@link #format(String)}, and where the old HTML
+     * had colors overlap, a closing marker ends the most recent color like
+     * {@code </span>} did
+     *
+     * @param text raw message
+     * @return the text without markers, with its styles
+     */
+    public static RichText parse(String text) {
+        if (text == null || text.isEmpty()) {
+            return RichText.plain("");
+        }
+        int found = scan(text) & ~HAS_SPECIAL;
+        if (found == 0) {
+            return RichText.plain(text);
+        }
+        byte[] marks = mark(text, found);
+        RichText.Builder builder = new RichText.Builder();
+        int flags = 0;
+        int colors = 0; // stack of open colors, two bits each, most recent lowest
+        for (int i = 0; i < text.length(); i++) {
+            switch (marks[i]) {
+                case NONE -> builder.append(text.charAt(i), flags | (colors & 3) << COLOR_SHIFT);
+                case BOLD_OPEN -> flags |= RichText.BOLD;
+                case BOLD_CLOSE -> flags &= ~RichText.BOLD;
+                case ITALIC_OPEN -> flags |= RichText.ITALIC;
+                case ITALIC_CLOSE -> flags &= ~RichText.ITALIC;
+                case UNDERLINE_OPEN -> flags |= RichText.UNDERLINE;
+                case UNDERLINE_CLOSE -> flags &= ~RichText.UNDERLINE;
+                case RED_OPEN -> colors = (colors << 2) | RichText.RED >> COLOR_SHIFT;
+                case GREEN_OPEN -> colors = (colors << 2) | RichText.GREEN >> COLOR_SHIFT;
+                case BLUE_OPEN -> colors = (colors << 2) | RichText.BLUE >> COLOR_SHIFT;
+                case COLOR_CLOSE -> colors >>>= 2;
+                default -> {
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return HAS_* flags for the characters that occur in text
+     */
+    private static int scan(String text) {
+        int found = 0;
+        for (int i = 0; i < text.length(); i++) {
+            switch (text.charAt(i)) {
+                case '*' -> found |= HAS_STAR;
+                case '_' -> found |= HAS_UNDERSCORE;
+                case '#' -> found |= HAS_HASH;
+                case '<', '>', '&' -> found |= HAS_SPECIAL;
+                default -> {
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return what each character turns into, for the markers found
+     */
+    private static byte[] mark(String text, int found) {
+        byte[] marks = new byte[text.length()];
+        if ((found & HAS_STAR) != 0) {
+            pairDouble(text, marks, '*', BOLD_OPEN, BOLD_CLOSE);
+            pairSingle(text, marks, '*', ITALIC_OPEN, ITALIC_CLOSE);
+        }
+        if ((found & HAS_UNDERSCORE) != 0) {
+            pairSingle(text, marks, '_', UNDERLINE_OPEN, UNDERLINE_CLOSE);
+        }
+        if ((found & HAS_HASH) != 0) {
+            pairColor(text, marks, 'r', RED_OPEN);
+            pairColor(text, marks, 'g', GREEN_OPEN);
+            pairColor(text, marks, 'b', BLUE_OPEN);
+        }
+        return marks;
+    }
+
+    /**
+     * {@code **...**}: content of at least one character, closed by the next
+     * {@code **} on the same line
+     */
+    private static void pairDouble(String text, byte[] marks, char marker, byte open, byte close) {
+        int n = text.length();
+        int i = 0;
+        while (i + 1 < n) {
+            if (text.charAt(i) != marker || text.charAt(i + 1) != marker) {
+                i++;
+                continue;
+            }
+            int end = -1;
+            int k = i + 2;
+            for (; k + 1 < n && !isLineBreak(text.charAt(k)); k++) {
+                if (k >= i + 3 && text.charAt(k) == marker && text.charAt(k + 1) == marker) {
+                    end = k;
+                    break;
+                }
+            }
+            if (end < 0) {
+                // no later opener on this line can be closed either
+                i = nextLine(text, k);
+                continue;
+            }
+            marks[i] = open;
+            marks[i + 1] = SKIP;
+            marks[end] = close;
+            marks[end + 1] = SKIP;
+            i = end + 2;
+        }
+    }
+
+    /**
+     * {@code *...*} and {@code _..._}: the next unused marker on the same line
+     * that isn't right next to the opener
+     */
+    private static void pairSingle(String text, byte[] marks, char marker, byte open, byte close) {
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            if (text.charAt(i) != marker || marks[i] != NONE) {
+                i++;
+                continue;
+            }
+            int end = -1;
+            int k = i + 1;
+            for (; k < n && !isLineBreak(text.charAt(k)); k++) {
+                // anything in between counts, including a tag from an earlier pass
+                if (k >= i + 2 && text.charAt(k) == marker && marks[k] == NONE) {
+                    end = k;
+                    break;
+                }
+            }
+            if (end < 0) {
+                i = nextLine(text, k);
+                continue;
+            }
+            marks[i] = open;
+            marks[end] = close;
+            i = end + 1;
+        }
+    }
+
+    /**
+     * {@code #x...x#}: may be empty; both characters of each marker must be
+     * unused, otherwise a tag sits between them
+     */
+    private static void pairColor(String text, byte[] marks, char color, byte open) {
+        int n = text.length();
+        int i = 0;
+        while (i + 1 < n) {
+            if (text.charAt(i) != '#' || text.charAt(i + 1) != color || marks[i] != NONE || marks[i + 1] != NONE) {
+                i++;
+                continue;
+            }
+            int end = -1;
+            int k = i + 2;
+            for (; k + 1 < n && !isLineBreak(text.charAt(k)); k++) {
+                if (text.charAt(k) == color && text.charAt(k + 1) == '#' && marks[k] == NONE
+                        && marks[k + 1] == NONE) {
+                    end = k;
+                    break;
+                }
+            }
+            if (end < 0) {
+                i = nextLine(text, k);
+                continue;
+            }
+            marks[i] = open;
+            marks[i + 1] = SKIP;
+            marks[end] = COLOR_CLOSE;
+            marks[end + 1] = SKIP;
+            i = end + 2;
+        }
+    }
+
+    /**
+     * @return index after the line break at or after from, or the end of the
+     *         text
+     */
+    private static int nextLine(String text, int from) {
+        int n = text.length();
+        while (from < n && !isLineBreak(text.charAt(from))) {
+            from++;
+        }
+        return from + 1;
+    }
+
+    /**
+     * The characters {@code .} doesn't match in a default Pattern
+     */
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,141 @@
+package Project;
+
+import java.io.IOException;
+
+/**
+ * One chat message on its way to one or more clients: parsed into
+ * {@link RichText} for clients with {@link ConnectionPayload#FEATURE_RICH_TEXT}
+ * and rendered to HTML for the others. Each is built on first use and then
+ * shared, so a broadcast parses and renders the message at most once each.
+ * <p>
+ * A room's {@link Scrollback} keeps these around to replay them to joining
+ * clients, so they remember which wire formats were handed out and can be
+ * encoded ahead of time.
+ * </p>
+ */
+public final class MessageFrames {
+    // rough size of a payload object and its fields, on top of the text
+    private static final int PAYLOAD_OVERHEAD = 96;
+
+    private final long senderId;
+    private final String senderName;
+    private final PayloadType type;
+    private final String message;
+    private final long timestamp;
+    private OutboundFrame rich;
+    private OutboundFrame html;
+    private int richFormats; // 1 << Frames.FORMAT_* handed out with rich (legacy streams don't use them)
+    private int htmlFormats;
+
+    /**
+     * @param senderId client id of the author, or DEFAULT_CLIENT_ID for the
+     *                 server
+     * @param type     MESSAGE or PRIVATE_MESSAGE
+     * @param message  raw text with markup
+     */
+    public MessageFrames(long senderId, PayloadType type, String message) {
+        this(senderId, null, type, message);
+    }
+
+    /**
+     * @param senderId
+     * @param senderName sent along so a replayed message still has a name
+     *                   after its author left the room
+     * @param type
+     * @param message
+     */
+    public MessageFrames(long senderId, String senderName, PayloadType type, String message) {
+        this(senderId, senderName, type, message, System.currentTimeMillis());
+    }
+
+    /**
+     * A message sent earlier, e.g., read back from the journal
+     *
+     * @param senderId
+     * @param senderName
+     * @param type
+     * @param message
+     * @param timestamp  when it was sent
+     */
+    public MessageFrames(long senderId, String senderName, PayloadType type, String message, long timestamp) {
+        this.senderId = senderId;
+        this.senderName = senderName;
+        this.type = type;
+        this.message = message;
+        this.timestamp = timestamp;
+    }
+
+    public long getSenderId() {
+        return senderId;
+    }
+
+    /**
+     * @return when the message was sent
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @param client recipient
+     * @return the frame in the form the client negotiated
+     */
+    public synchronized OutboundFrame frameFor(BaseServerThread client) {
+        if (client.hasFeature(ConnectionPayload.FEATURE_RICH_TEXT)) {
+            if (rich == null) {
+                RichMessagePayload p = new RichMessagePayload();
+                p.setPayloadType(type);
+                p.setClientId(senderId);
+                p.setSenderName(senderName);
+                p.setTimestamp(timestamp);
+                p.setRichText(MessageFormatter.parse(message));
+                rich = new OutboundFrame(p);
+            }
+            richFormats |= formatBit(client);
+            return rich;
+        }
+        if (html == null) {
+            // legacy clients display the message as is
+            Payload p = type == PayloadType.PRIVATE_MESSAGE ? new PrivateMessagePayload() : new Payload();
+            p.setPayloadType(type);
+            p.setClientId(senderId);
+            p.setSenderName(senderName);
+            p.setTimestamp(timestamp);
+            p.setMessage(MessageFormatter.format(message));
+            html = new OutboundFrame(p);
+        }
+        htmlFormats |= formatBit(client);
+        return html;
+    }
+
+    private static int formatBit(BaseServerThread client) {
+        return client.isLegacyStream() ? 0 : 1 << client.getFrameFormat();
+    }
+
+    /**
+     * Encodes every form in each wire format it was handed out in (writers
+     * then find the bytes ready) and reports what that holds
+     *
+     * @return approximate bytes retained by this message
+     * @throws IOException
+     */
+    public synchronized int encode() throws IOException {
+        int bytes = PAYLOAD_OVERHEAD + 2 * message.length();
+        bytes += encode(rich, richFormats);
+        bytes += encode(html, htmlFormats);
+        return bytes;
+    }
+
+    private static int encode(OutboundFrame frame, int formats) throws IOException {
+        if (frame == null) {
+            return 0;
+        }
+        for (byte format : new byte[] { Frames.FORMAT_SERIALIZED, Frames.FORMAT_BINARY }) {
+            if ((formats & 1 << format) != 0) {
+                frame.encoded(format);
+            }
+        }
+        String text = frame.getPayload().getMessage();
+        return PAYLOAD_OVERHEAD + 2 * (text == null ? 0 : text.length()) + frame.encodedSize();
+    }
+}
@@ -0,0 +1,644 @@
+package Project;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of room and private messages, so history survives a
+ * restart.
+ * <p>
+ * Senders only put a record on a bounded queue (dropping it if the journal
+ * can't keep up, never waiting); a single writer thread appends batches to
+ * the current segment file through a FileChannel and forces them to disk
+ * according to the {@link Durability}. Segments are named after the
+ * sequence number of their first record and roll over at a fixed size; the
+ * oldest are deleted beyond the retention count.
+ * </p>
+ * <p>
+ * Each segment starts with {@link #MAGIC}, followed by records of
+ * {@code [int length][int crc32][body]}. On open every segment is read
+ * through a memory mapping; a record that is cut short or fails its checksum
+ * (a write torn by a crash) ends the segment, and if that's the last one the
+ * file is truncated there so appends continue after the last good record.
+ * The newest messages of each room are kept from that scan for
+ * {@link #takeRecent(String)}.
+ * </p>
+ */
+public class MessageJournal implements AutoCloseable {
+    /**
+     * When appended records are forced to disk
+     */
+    public enum Durability {
+        NONE, // left to the OS; a crash of the machine (not just the process) may lose recent messages
+        BATCH, // group commit: forced at most every fsync interval
+        ALWAYS // forced after every batch the writer drains, before it takes the next
+    }
+
+    public static final int MAGIC = 0x43484A31; // "CHJ1"
+    private static final int HEADER = 4;
+    private static final int RECORD_OVERHEAD = 8; // length and crc
+    private static final int MAX_RECORD = 1 << 20;
+    private static final byte TYPE_MESSAGE = 0;
+    private static final byte TYPE_PRIVATE_MESSAGE = 1;
+    private static final String SUFFIX = ".seg";
+
+    /**
+     * One journaled message
+     */
+    public static final class Record {
+        private final long seq;
+        private final long timestamp;
+        private final PayloadType type;
+        private final String room;
+        private final long senderId;
+        private final String senderName;
+        private final long targetId;
+        private final String message;
+        private final CountDownLatch synced; // only for the marker sync() puts on the queue
+
+        private Record(long seq, long timestamp, PayloadType type, String room, long senderId, String senderName,
+                long targetId, String message, CountDownLatch synced) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.type = type;
+            this.room = room;
+            this.senderId = senderId;
+            this.senderName = senderName;
+            this.targetId = targetId;
+            this.message = message;
+            this.synced = synced;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return MESSAGE or PRIVATE_MESSAGE
+         */
+        public PayloadType getType() {
+            return type;
+        }
+
+        public String getRoom() {
+            return room;
+        }
+
+        public long getSenderId() {
+            return senderId;
+        }
+
+        public String getSenderName() {
+            return senderName;
+        }
+
+        /**
+         * @return recipient of a private message, otherwise DEFAULT_CLIENT_ID
+         */
+        public long getTargetId() {
+            return targetId;
+        }
+
+        /**
+         * @return raw message text, with its markup
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final int retainSegments;
+    private final Durability durability;
+    private final long fsyncIntervalNanos;
+    private final int recentPerRoom;
+    private final BlockingQueue<Record> queue;
+    private final Map<String, ArrayDeque<Record>> recent = new HashMap<>(); // lowercase room -> newest messages
+    private final Thread writer;
+    private final CRC32 crc = new CRC32(); // writer only
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024); // writer only
+    private FileChannel segment; // writer only after open
+    private long nextSeq = 1; // writer only after open
+    private volatile boolean closed = false;
+    // stats
+    private final AtomicLong appended = new AtomicLong(); // append() runs on every sender's thread
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long written = 0;
+    private volatile long fsyncs = 0;
+    private volatile long bytes = 0;
+    private volatile long truncated = 0; // bytes cut from a torn tail when opened
+    private volatile int segments = 0;
+
+    /**
+     * Journal using the ServerConfig settings
+     *
+     * @param dir
+     * @return the opened journal, with its writer running
+     * @throws IOException
+     */
+    public static MessageJournal open(Path dir) throws IOException {
+        return new MessageJournal(dir, ServerConfig.JOURNAL_SEGMENT_BYTES, ServerConfig.JOURNAL_SEGMENTS,
+                ServerConfig.JOURNAL_FSYNC, ServerConfig.JOURNAL_FSYNC_MS, ServerConfig.JOURNAL_QUEUE,
+                ServerConfig.SCROLLBACK_MESSAGES);
+    }
+
+    /**
+     * Recovers the journal in dir (creating it if needed) and starts the
+     * writer
+     *
+     * @param dir
+     * @param segmentBytes    size at which a segment is rolled
+     * @param retainSegments  segments kept; older ones are deleted
+     * @param durability
+     * @param fsyncIntervalMs group commit interval for BATCH
+     * @param queueCapacity   records that may wait for the writer
+     * @param recentPerRoom   messages per room kept for
+     *                        {@link #takeRecent(String)}
+     * @throws IOException
+     */
+    public MessageJournal(Path dir, long segmentBytes, int retainSegments, Durability durability,
+            long fsyncIntervalMs, int queueCapacity, int recentPerRoom) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = Math.max(HEADER + RECORD_OVERHEAD + 64, segmentBytes);
+        this.retainSegments = Math.max(1, retainSegments);
+        this.durability = durability;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, fsyncIntervalMs));
+        this.recentPerRoom = recentPerRoom;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        Files.createDirectories(dir);
+        recover();
+        writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a message for the journal; never blocks
+     *
+     * @param type       MESSAGE or PRIVATE_MESSAGE
+     * @param room
+     * @param senderId
+     * @param senderName
+     * @param targetId   recipient of a private message
+     * @param message    raw text
+     * @return false if the journal is closed or too far behind (the record is
+     *         dropped and counted)
+     */
+    public boolean append(PayloadType type, String room, long senderId, String senderName, long targetId,
+            String message) {
+        if (closed) {
+            return false;
+        }
+        Record record = new Record(0, System.currentTimeMillis(), type, room, senderId, senderName, targetId,
+                message, null);
+        if (!queue.offer(record)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        appended.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Waits until everything appended before this call is written and forced
+     * to disk, whatever the durability
+     *
+     * @throws InterruptedException
+     */
+    public void sync() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        queue.put(new Record(0, 0, null, null, 0, null, 0, null, latch));
+        while (!latch.await(100, TimeUnit.MILLISECONDS)) {
+            if (!writer.isAlive()) {
+                return; // closed meanwhile; close() forces what was written
+            }
+        }
+    }
+
+    /**
+     * Hands out (once) the newest messages of a room found when the journal
+     * was opened, i.e., to seed a room's scrollback after a restart
+     *
+     * @param room
+     * @return oldest first; empty if there were none
+     */
+    public synchronized List<Record> takeRecent(String room) {
+        ArrayDeque<Record> records = recent.remove(room.toLowerCase());
+        return records == null ? List.of() : new ArrayList<>(records);
+    }
+
+    /**
+     * Reads every record still on disk, oldest first, through memory
+     * mappings of the segments (what's written so far; a record the writer
+     * is in the middle of ends the read)
+     *
+     * @param consumer
+     * @throws IOException
+     */
+    public void replay(Consumer<Record> consumer) throws IOException {
+        for (Path path : segmentPaths()) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                scan(path, channel, consumer);
+            }
+        }
+    }
+
+    /**
+     * Writes and forces what's queued, then stops the writer
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // wake the writer without interrupting it, which would close the channel mid-write
+            queue.put(new Record(0, 0, null, null, 0, null, 0, null, null));
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.info("Journal", "closed " + this);
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public long getAppended() {
+        return appended.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getFsyncs() {
+        return fsyncs;
+    }
+
+    /**
+     * @return bytes of a torn tail removed when the journal was opened
+     */
+    public long getTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "MessageJournal[dir=%s, durability=%s, appended=%d, written=%d, dropped=%d, fsyncs=%d, bytes=%d, segments=%d, backlog=%d]",
+                dir, durability, appended.get(), written, dropped.get(), fsyncs, bytes, segments, queue.size());
+    }
+
+    // recovery
+
+    private void recover() throws IOException {
+        List<Path> paths = segmentPaths();
+        long lastSeq = 0;
+        long total = 0;
+        for (int i = 0; i < paths.size(); i++) {
+            Path path = paths.get(i);
+            boolean last = i == paths.size() - 1;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                long[] seen = { 0 };
+                long good = scan(path, channel, record -> {
+                    seen[0] = record.seq;
+                    if (record.type == PayloadType.MESSAGE) {
+                        remember(record);
+                    }
+                });
+                lastSeq = Math.max(lastSeq, seen[0]);
+                if (good < channel.size()) {
+                    long cut = channel.size() - good;
+                    if (last) {
+                        channel.truncate(good);
+                        channel.force(true);
+                        truncated += cut;
+                        Log.warn("Journal", String.format("truncated %d bytes of a torn write at the end of %s", cut,
+                                path.getFileName()));
+                    } else {
+                        Log.warn("Journal", String.format("ignoring %d unreadable bytes at the end of %s", cut,
+                                path.getFileName()));
+                    }
+                }
+                total += good;
+            }
+        }
+        nextSeq = lastSeq + 1;
+        segments = paths.size();
+        bytes = total;
+        Path last = paths.isEmpty() ? null : paths.get(paths.size() - 1);
+        if (last != null) {
+            // the newest segment may have no records yet, but its name is still taken
+            nextSeq = Math.max(nextSeq, firstSeq(last));
+        }
+        if (last != null && Files.size(last) < segmentBytes) {
+            segment = FileChannel.open(last, StandardOpenOption.WRITE);
+            if (segment.size() < HEADER) {
+                // torn before the header was complete
+                segment.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).flip();
+                while (header.hasRemaining()) {
+                    segment.write(header);
+                }
+                bytes += HEADER;
+            }
+            segment.position(segment.size());
+        } else {
+            roll();
+        }
+        Log.info("Journal", "opened %s, %d segments, next seq %d", dir, segments, nextSeq);
+    }
+
+    /**
+     * Reads a segment through a read-only mapping
+     *
+     * @return length of the readable part (header and whole, valid records)
+     */
+    private static long scan(Path path, FileChannel channel, Consumer<Record> consumer) throws IOException {
+        long size = channel.size();
+        if (size < HEADER) {
+            return 0;
+        }
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (map.getInt() != MAGIC) {
+            Log.warn("Journal", path.getFileName() + " is not a journal segment");
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        long good = HEADER;
+        while (map.remaining() >= RECORD_OVERHEAD) {
+            int length = map.getInt();
+            int checksum = map.getInt();
+            if (length <= 0 || length > MAX_RECORD || length > map.remaining()) {
+                break; // cut short
+            }
+            ByteBuffer body = map.slice(map.position(), length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            try {
+                consumer.accept(decode(body));
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                break; // checksum matched but the body doesn't parse; treat like a torn write
+            }
+            map.position(map.position() + length);
+            good = map.position();
+        }
+        return good;
+    }
+
+    private void remember(Record record) {
+        if (recentPerRoom <= 0 || record.room == null) {
+            return;
+        }
+        ArrayDeque<Record> records = recent.computeIfAbsent(record.room.toLowerCase(), r -> new ArrayDeque<>());
+        records.addLast(record);
+        if (records.size() > recentPerRoom) {
+            records.removeFirst();
+        }
+    }
+
+    private static long firstSeq(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * @return bytes the record takes in a segment, with its length and crc
+     */
+    static int sizeOf(Record record) {
+        return RECORD_OVERHEAD + 8 + 8 + 1 + 8 + 8 + 3 * 4 + len(utf8(record.room)) + len(utf8(record.senderName))
+                + len(utf8(record.message));
+    }
+
+    private List<Path> segmentPaths() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            // names are zero padded sequence numbers, so name order is append order
+            return files.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+    }
+
+    // writer
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>();
+        long lastForce = System.nanoTime();
+        boolean dirty = false; // written but not forced
+        try {
+            while (true) {
+                Record first;
+                if (closed) {
+                    first = queue.poll();
+                    if (first == null) {
+                        break;
+                    }
+                } else {
+                    long wait = dirty && durability == Durability.BATCH
+                            ? fsyncIntervalNanos - (System.nanoTime() - lastForce)
+                            : TimeUnit.SECONDS.toNanos(1);
+                    first = queue.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+                }
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    for (Record record : batch) {
+                        if (record.synced != null) {
+                            flush();
+                            force();
+                            dirty = false;
+                            lastForce = System.nanoTime();
+                            record.synced.countDown();
+                        } else if (record.type != null) { // not the marker close() wakes us with
+                            add(record);
+                            dirty = true;
+                        }
+                    }
+                    batch.clear();
+                    flush();
+                }
+                boolean due = System.nanoTime() - lastForce >= fsyncIntervalNanos;
+                if (dirty && (durability == Durability.ALWAYS || (durability == Durability.BATCH && due))) {
+                    force();
+                    dirty = false;
+                    lastForce = System.nanoTime();
+                }
+            }
+            flush();
+            force();
+        } catch (IOException | InterruptedException e) {
+            Log.error("Journal", "write failed, no longer journaling", e);
+            closed = true;
+        } finally {
+            try {
+                if (segment != null) {
+                    segment.close();
+                }
+            } catch (IOException e) {
+                Log.error("Journal", "Error closing segment", e);
+            }
+        }
+    }
+
+    /**
+     * Encodes the record into the write buffer, rolling the segment first if
+     * it wouldn't fit
+     */
+    private void add(Record record) throws IOException {
+        byte[] room = utf8(record.room);
+        byte[] name = utf8(record.senderName);
+        byte[] message = utf8(record.message);
+        int length = 8 + 8 + 1 + 8 + 8 + 3 * 4 + len(room) + len(name) + len(message);
+        if (length > MAX_RECORD) {
+            dropped.incrementAndGet();
+            return;
+        }
+        int size = RECORD_OVERHEAD + length;
+        long used = segment.position() + buffer.position(); // written plus still buffered
+        if (used + size > segmentBytes && used > HEADER) {
+            flush();
+            roll();
+        }
+        if (buffer.remaining() < size) {
+            flush();
+            if (buffer.capacity() < size) {
+                buffer = ByteBuffer.allocateDirect(size);
+            }
+        }
+        int start = buffer.position();
+        buffer.position(start + RECORD_OVERHEAD);
+        buffer.putLong(nextSeq++);
+        buffer.putLong(record.timestamp);
+        buffer.put(record.type == PayloadType.PRIVATE_MESSAGE ? TYPE_PRIVATE_MESSAGE : TYPE_MESSAGE);
+        buffer.putLong(record.senderId);
+        buffer.putLong(record.targetId);
+        put(room);
+        put(name);
+        put(message);
+        crc.reset();
+        crc.update(buffer.slice(start + RECORD_OVERHEAD, length));
+        buffer.putInt(start, length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        written++;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        int count = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        buffer.clear();
+        bytes += count;
+    }
+
+    private void force() throws IOException {
+        segment.force(false);
+        fsyncs++;
+    }
+
+    /**
+     * Closes the current segment (forced, whatever the durability) and starts
+     * the next, deleting segments beyond the retention count
+     */
+    private void roll() throws IOException {
+        if (segment != null) {
+            segment.force(false);
+            segment.close();
+        }
+        Path path = dir.resolve(String.format("%020d%s", nextSeq, SUFFIX));
+        segment = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).flip();
+        while (header.hasRemaining()) {
+            segment.write(header);
+        }
+        bytes += HEADER;
+        List<Path> paths = segmentPaths();
+        for (int i = 0; i < paths.size() - retainSegments; i++) {
+            bytes -= Files.size(paths.get(i));
+            Files.deleteIfExists(paths.get(i));
+        }
+        segments = Math.min(paths.size(), retainSegments);
+    }
+
+    private void put(byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(value.length);
+            buffer.put(value);
+        }
+    }
+
+    private static int len(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Record decode(ByteBuffer body) {
+        long seq = body.getLong();
+        long timestamp = body.getLong();
+        byte type = body.get();
+        long senderId = body.getLong();
+        long targetId = body.getLong();
+        String room = string(body);
+        String name = string(body);
+        String message = string(body);
+        return new Record(seq, timestamp, type == TYPE_PRIVATE_MESSAGE ? PayloadType.PRIVATE_MESSAGE
+                : PayloadType.MESSAGE, room, senderId, name, targetId, message, null);
+    }
+
+    private static String string(ByteBuffer body) {
+        int length = body.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > body.remaining()) {
+            throw new IllegalArgumentException("string runs past the record");
+        }
+        byte[] bytes = new byte[length];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
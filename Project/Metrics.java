@@ -0,0 +1,248 @@
+package Project;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Server counters and latency histograms.
+ * <p>
+ * Everything recorded here is a LongAdder or a striped {@link Histogram}, so
+ * recording from connection threads neither allocates nor contends. The
+ * values are read when scraped: {@link #prometheus(Collection, int)} renders
+ * them in the Prometheus text format for {@link #serve(int, Supplier)}'s
+ * /metrics endpoint, {@link #summary(Collection, int)} as a few lines for
+ * /stats.
+ * </p>
+ */
+public final class Metrics {
+    private static final PayloadType[] TYPES = PayloadType.values();
+    private static final LongAdder[] payloadsIn = adders(TYPES.length);
+    private static final LongAdder[] payloadsOut = adders(TYPES.length);
+    private static final LongAdder bytesIn = new LongAdder();
+    private static final LongAdder bytesOut = new LongAdder();
+    private static final LongAdder connects = new LongAdder();
+    private static final LongAdder disconnects = new LongAdder();
+    /** receipt of a MESSAGE in processPayload until Room.sendMessage has queued it for every member */
+    public static final Histogram MESSAGE_LATENCY = new Histogram();
+    /** one member's send() during a room fan-out */
+    public static final Histogram SEND_LATENCY = new Histogram();
+    private static final long started = System.currentTimeMillis();
+    // histogram buckets exported to Prometheus, in seconds
+    private static final double[] BOUNDS = { 1e-6, 2.5e-6, 5e-6, 1e-5, 2.5e-5, 5e-5, 1e-4, 2.5e-4, 5e-4, 1e-3,
+            2.5e-3, 5e-3, 1e-2, 2.5e-2, 5e-2, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+    private Metrics() {
+    }
+
+    public static void received(PayloadType type) {
+        if (type != null) {
+            payloadsIn[type.ordinal()].increment();
+        }
+    }
+
+    public static void sent(PayloadType type) {
+        if (type != null) {
+            payloadsOut[type.ordinal()].increment();
+        }
+    }
+
+    public static void bytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public static void bytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    public static void connected() {
+        connects.increment();
+    }
+
+    public static void disconnected() {
+        disconnects.increment();
+    }
+
+    public static long getReceived(PayloadType type) {
+        return payloadsIn[type.ordinal()].sum();
+    }
+
+    public static long getSent(PayloadType type) {
+        return payloadsOut[type.ordinal()].sum();
+    }
+
+    /**
+     * Starts the scrape endpoint, http://127.0.0.1:port/metrics (loopback
+     * only)
+     *
+     * @param port
+     * @param server supplies the rooms and the connected client count
+     * @return the running HttpServer, to stop at shutdown
+     * @throws IOException if the port can't be bound
+     */
+    public static HttpServer serve(int port, Supplier<Scrape> server) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> {
+            try (exchange) {
+                Scrape scrape = server.get();
+                byte[] body = prometheus(scrape.rooms(), scrape.clients()).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        http.start(); // one dispatcher thread is plenty for a scraper
+        return http;
+    }
+
+    /**
+     * What a scrape reads from the Server besides the counters here
+     *
+     * @param rooms
+     * @param clients connected clients
+     */
+    public record Scrape(Collection<Room> rooms, int clients) {
+    }
+
+    /**
+     * @param rooms
+     * @param clients connected clients
+     * @return everything in the Prometheus text exposition format
+     */
+    public static String prometheus(Collection<Room> rooms, int clients) {
+        StringBuilder sb = new StringBuilder(8 * 1024);
+        byType(sb, "chat_payloads_received_total", "Payloads received from clients, by type", payloadsIn);
+        byType(sb, "chat_payloads_sent_total", "Payloads written to clients, by type", payloadsOut);
+        single(sb, "chat_bytes_received_total", "counter", "Bytes read from client connections", bytesIn.sum());
+        single(sb, "chat_bytes_sent_total", "counter", "Bytes written to client connections", bytesOut.sum());
+        single(sb, "chat_connects_total", "counter", "Clients that completed the handshake", connects.sum());
+        single(sb, "chat_disconnects_total", "counter", "Clients removed after disconnecting", disconnects.sum());
+        single(sb, "chat_clients", "gauge", "Connected clients", clients);
+        single(sb, "chat_rooms", "gauge", "Open rooms", rooms.size());
+        sb.append("# HELP chat_room_members Members of each room\n# TYPE chat_room_members gauge\n");
+        for (Room room : rooms) {
+            sb.append("chat_room_members{room=\"").append(escape(room.getName())).append("\"} ")
+                    .append(room.getClients().size()).append('\n');
+        }
+        single(sb, "chat_log_dropped_total", "counter", "Log records dropped because the log writer fell behind",
+                Log.getDropped());
+        histogram(sb, "chat_message_latency_seconds",
+                "Time from receiving a message to having queued it for every room member",
+                MESSAGE_LATENCY.snapshot());
+        histogram(sb, "chat_send_latency_seconds", "Time to queue a message for one member during a fan-out",
+                SEND_LATENCY.snapshot());
+        return sb.toString();
+    }
+
+    /**
+     * @param rooms
+     * @param clients connected clients
+     * @return a short human readable report, one line per entry
+     */
+    public static List<String> summary(Collection<Room> rooms, int clients) {
+        List<String> lines = new ArrayList<>();
+        long uptime = (System.currentTimeMillis() - started) / 1000;
+        lines.add(String.format("Server: up %dh%02dm%02ds, %d clients (%d connects, %d disconnects), %d rooms",
+                uptime / 3600, uptime / 60 % 60, uptime % 60, clients, connects.sum(), disconnects.sum(),
+                rooms.size()));
+        List<Room> largest = new ArrayList<>(rooms);
+        largest.sort(Comparator.comparingInt((Room r) -> r.getClients().size()).reversed());
+        StringBuilder sb = new StringBuilder("Rooms:");
+        for (int i = 0; i < Math.min(10, largest.size()); i++) {
+            sb.append(i == 0 ? " " : ", ").append(largest.get(i).getName()).append(' ')
+                    .append(largest.get(i).getClients().size());
+        }
+        if (largest.size() > 10) {
+            sb.append(", ...");
+        }
+        lines.add(sb.toString());
+        lines.add("Received: " + byType(payloadsIn) + "; " + bytes(bytesIn.sum()));
+        lines.add("Sent: " + byType(payloadsOut) + "; " + bytes(bytesOut.sum()));
+        lines.add("Message fan-out: " + latencies(MESSAGE_LATENCY.snapshot()));
+        lines.add("Per-member send: " + latencies(SEND_LATENCY.snapshot()));
+        return lines;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static void single(StringBuilder sb, String name, String type, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void byType(StringBuilder sb, String name, String help, LongAdder[] counts) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        for (PayloadType type : TYPES) {
+            sb.append(name).append("{type=\"").append(type.name()).append("\"} ").append(counts[type.ordinal()].sum())
+                    .append('\n');
+        }
+    }
+
+    private static void histogram(StringBuilder sb, String name, String help, Histogram.Snapshot snapshot) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        for (double bound : BOUNDS) {
+            sb.append(name).append("_bucket{le=\"").append(bound).append("\"} ")
+                    .append(snapshot.countAtOrBelow((long) (bound * 1e9))).append('\n');
+        }
+        sb.append(name).append("_bucket{le=\"+Inf\"} ").append(snapshot.getCount()).append('\n');
+        sb.append(name).append("_sum ").append(snapshot.getSum() / 1e9).append('\n');
+        sb.append(name).append("_count ").append(snapshot.getCount()).append('\n');
+    }
+
+    private static String byType(LongAdder[] counts) {
+        StringBuilder sb = new StringBuilder();
+        for (PayloadType type : TYPES) {
+            long count = counts[type.ordinal()].sum();
+            if (count > 0) {
+                sb.append(sb.length() == 0 ? "" : ", ").append(type.name()).append(' ').append(count);
+            }
+        }
+        return sb.length() == 0 ? "nothing" : sb.toString();
+    }
+
+    static String latencies(Histogram.Snapshot snapshot) {
+        if (snapshot.getCount() == 0) {
+            return "no samples";
+        }
+        return String.format("p50 %s, p99 %s, p99.9 %s, max %s (%,d samples)", duration(snapshot.valueAt(0.5)),
+                duration(snapshot.valueAt(0.99)), duration(snapshot.valueAt(0.999)), duration(snapshot.getMax()),
+                snapshot.getCount());
+    }
+
+    private static String duration(long nanos) {
+        if (nanos < 1_000_000) {
+            return String.format("%.1fus", nanos / 1e3);
+        }
+        return String.format("%.2fms", nanos / 1e6);
+    }
+
+    private static String bytes(long bytes) {
+        return bytes < 1 << 20 ? String.format("%,.1f KB", bytes / 1024.0)
+                : String.format("%,.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
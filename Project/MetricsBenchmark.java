@@ -0,0 +1,116 @@
+package Project;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost and accuracy of the Metrics recording path.
+ * <ul>
+ * <li>record: threads record into a Histogram as fast as they can; ns per
+ * record and bytes allocated per record (from the JVM's per-thread
+ * allocation counter), against the same histogram with a single stripe, a
+ * synchronized one, and a payload counter</li>
+ * <li>check: quantiles of log-normal latencies against the exact values from
+ * the sorted samples; exits with 1 if any is off by more than the bucket
+ * resolution</li>
+ * </ul>
+ * Usage: java Project.MetricsBenchmark [record|check] [threads]
+ */
+public class MetricsBenchmark {
+    private static final int RECORDS = 5_000_000;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "record";
+        switch (mode) {
+            case "record" -> record(args.length > 1 ? Integer.parseInt(args[1]) : 4);
+            case "check" -> {
+                if (!check()) {
+                    System.exit(1);
+                }
+            }
+            default -> System.out.println("Usage: java Project.MetricsBenchmark [record|check] [threads]");
+        }
+    }
+
+    private static void record(int threads) throws Exception {
+        Histogram striped = new Histogram();
+        Histogram shared = new Histogram(1);
+        Histogram locked = new Histogram(1);
+        Recorder[] recorders = { striped::record, shared::record, v -> {
+            synchronized (locked) {
+                locked.record(v);
+            }
+        }, v -> Metrics.received(PayloadType.MESSAGE) };
+        String[] names = { "striped", "one stripe", "synchronized", "counter" };
+        for (Recorder recorder : recorders) {
+            run(recorder, threads); // warm up
+        }
+        System.out.println(String.format("%,d records from %d threads", RECORDS, threads));
+        System.out.println(String.format("%-14s %10s %14s", "recording", "ns/record", "bytes/record"));
+        for (int i = 0; i < recorders.length; i++) {
+            long[] result = run(recorders[i], threads);
+            System.out.println(String.format("%-14s %,10.1f %,14.3f", names[i], (double) result[0] / RECORDS,
+                    (double) result[1] / RECORDS));
+        }
+        Benchmarks.consume(striped.snapshot().getCount() + shared.snapshot().getCount() + locked.snapshot().getCount());
+    }
+
+    /**
+     * @return elapsed nanoseconds and bytes allocated by the recording threads
+     */
+    private static long[] run(Recorder recorder, int threads) throws InterruptedException {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        AtomicLong allocated = new AtomicLong();
+        List<Thread> started = new ArrayList<>();
+        int each = RECORDS / threads;
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            started.add(Thread.ofPlatform().start(() -> {
+                long value = Thread.currentThread().threadId() * 7919;
+                long before = bean.getCurrentThreadAllocatedBytes();
+                for (int i = 0; i < each; i++) {
+                    value = value * 6364136223846793005L + 1442695040888963407L; // cheap LCG
+                    recorder.record((value >>> 40) & 0xFFFFF); // up to ~1ms
+                }
+                allocated.addAndGet(bean.getCurrentThreadAllocatedBytes() - before);
+            }));
+        }
+        for (Thread thread : started) {
+            thread.join();
+        }
+        return new long[] { System.nanoTime() - start, allocated.get() };
+    }
+
+    private static boolean check() {
+        Random random = new Random(11);
+        int count = 1_000_000;
+        long[] values = new long[count];
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < count; i++) {
+            // around 50us with a long tail, like the fan-out latency
+            values[i] = Math.min((long) Math.exp(10.8 + 1.2 * random.nextGaussian()), Histogram.MAX_VALUE);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        boolean ok = snapshot.getCount() == count && snapshot.getMax() == values[count - 1];
+        System.out.println(String.format("%-8s %14s %14s %8s", "quantile", "exact ns", "histogram ns", "error"));
+        for (double q : new double[] { 0.5, 0.9, 0.99, 0.999, 0.9999, 1 }) {
+            long exact = values[(int) Math.max(0, Math.ceil(q * count) - 1)];
+            long reported = snapshot.valueAt(q);
+            double error = (double) (reported - exact) / Math.max(1, exact);
+            ok &= reported >= exact && error <= 1.0 / 32;
+            System.out.println(String.format("%-8s %,14d %,14d %7.2f%%", q, exact, reported, error * 100));
+        }
+        System.out.println(ok ? "check: quantiles within the 1/32 bucket resolution" : "FAIL");
+        return ok;
+    }
+
+    private interface Recorder {
+        void record(long value);
+    }
+}
@@ -0,0 +1,244 @@
+package Project;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * One client channel owned by a {@link NioServer.EventLoop}.
+ * <p>
+ * Reads accumulate in a buffer until whole frames are available and are then
+ * handed to the ServerThread on the loop thread. Sends may come from any
+ * thread; they land in the ServerThread's OutboundQueue and the loop encodes
+ * and writes them when the socket can take more.
+ * Legacy ObjectOutputStream clients can't be decoded without blocking, so
+ * they're handed off to a regular ServerThread on their own thread.
+ * </p>
+ */
+public class NioConnection {
+    private static final int INITIAL_READ_BUFFER = 8 * 1024;
+    private static final int MAX_BATCH_FRAMES = 64;
+
+    private final SocketChannel channel;
+    private final NioServer.EventLoop loop;
+    private final Consumer<ServerThread> onInitializationComplete;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private OutboundQueue outbound; // owned by the ServerThread
+    // frames being written with one gathering write; [batchOffset, batchLength) are still pending
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH_FRAMES];
+    private int batchOffset = 0;
+    private int batchLength = 0;
+    private SelectionKey key;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private boolean preambleRead = false;
+    private ServerThread serverThread;
+    private volatile boolean isOpen = true;
+
+    NioConnection(SocketChannel channel, NioServer.EventLoop loop, Consumer<ServerThread> onInitializationComplete) {
+        this.channel = channel;
+        this.loop = loop;
+        this.onInitializationComplete = onInitializationComplete;
+    }
+
+    void register(Selector selector) throws IOException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Called by the event loop for each ready key
+     *
+     * @param key
+     */
+    void handle(SelectionKey key) {
+        try {
+            if (key.isReadable()) {
+                read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            // a failure here only ends this connection, never the loop shared with other clients
+            closeNow();
+        }
+    }
+
+    /**
+     * Asks the loop to write whatever is in the outbound queue; safe to call
+     * from any thread
+     */
+    void requestFlush() {
+        if (isOpen && flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Closes the connection after attempting to write anything still queued;
+     * safe to call from any thread
+     */
+    void close() {
+        if (!isOpen) {
+            return;
+        }
+        isOpen = false;
+        loop.execute(() -> {
+            flushQuietly();
+            closeNow();
+        });
+    }
+
+    /**
+     * Closes the channel immediately; loop thread only
+     */
+    void closeNow() {
+        isOpen = false;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        ServerThread st = serverThread;
+        serverThread = null;
+        if (st != null) {
+            st.releaseDeflater();
+            st.onConnectionClosed();
+        }
+    }
+
+    private void read() throws IOException {
+        int count = channel.read(readBuffer);
+        if (count < 0) {
+            closeNow();
+            return;
+        }
+        Metrics.bytesIn(count);
+        readBuffer.flip();
+        if (!preambleRead) {
+            if (readBuffer.remaining() >= 2
+                    && Frames.isSerializationStream(readBuffer.get(0) & 0xFF, readBuffer.get(1) & 0xFF)) {
+                handOffLegacyClient();
+                return;
+            }
+            if (readBuffer.remaining() < Frames.LENGTH_FIELD) {
+                readBuffer.compact();
+                return;
+            }
+            int magic = readBuffer.getInt();
+            if (magic != Frames.MAGIC) {
+                throw new StreamCorruptedException(String.format("Unexpected preamble %08x", magic));
+            }
+            preambleRead = true;
+            serverThread = new ServerThread(this, onInitializationComplete);
+            outbound = serverThread.getOutboundQueue();
+        }
+        Payload fromClient;
+        while (isOpen && serverThread != null && (fromClient = Frames.decode(readBuffer)) != null) {
+            serverThread.receive(fromClient);
+        }
+        readBuffer.compact();
+        if (!readBuffer.hasRemaining()) {
+            // a frame larger than the buffer is pending; Frames.decode() already capped its size
+            ByteBuffer larger = ByteBuffer.allocate(
+                    Math.min(readBuffer.capacity() * 2, Frames.MAX_FRAME_LENGTH + Frames.LENGTH_FIELD));
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    private void flush() throws IOException {
+        flushScheduled.set(false);
+        ServerThread owner = serverThread;
+        if (!channel.isOpen() || owner == null) {
+            return;
+        }
+        while (true) {
+            int frames = 0;
+            if (batchOffset == batchLength && (frames = fillBatch(owner)) == 0) {
+                break;
+            }
+            Metrics.bytesOut(channel.write(batch, batchOffset, batchLength - batchOffset));
+            outbound.recordFlush(frames);
+            while (batchOffset < batchLength && !batch[batchOffset].hasRemaining()) {
+                batch[batchOffset++] = null;
+            }
+            if (batchOffset < batchLength) {
+                // socket buffer is full, wait for the selector to tell us it drained
+                if (!key.isValid()) {
+                    return;
+                }
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Moves whatever is queued (up to MAX_BATCH_FRAMES or
+     * ServerConfig.FLUSH_MAX_BYTES) into the batch so it goes out with a
+     * single gathering write
+     *
+     * @param owner
+     * @return number of frames added
+     * @throws IOException
+     */
+    private int fillBatch(ServerThread owner) throws IOException {
+        batchOffset = 0;
+        batchLength = 0;
+        long bytes = 0;
+        OutboundFrame next;
+        while (batchLength < MAX_BATCH_FRAMES && (next = outbound.poll()) != null) {
+            // wrap() so a frame shared by a broadcast keeps its own position per connection
+            ByteBuffer frame = ByteBuffer.wrap(owner.wireFrame(next));
+            batch[batchLength++] = frame;
+            Metrics.sent(next.getPayloadType());
+            bytes += frame.remaining();
+            if (bytes >= ServerConfig.FLUSH_MAX_BYTES) {
+                break;
+            }
+        }
+        return batchLength;
+    }
+
+    /**
+     * Legacy clients speak a continuous ObjectOutputStream which can't be
+     * parsed incrementally, so the channel goes back to blocking mode and gets a
+     * dedicated ServerThread on a virtual thread like in the VIRTUAL transport
+     */
+    private void handOffLegacyClient() {
+        byte[] preRead = new byte[readBuffer.remaining()];
+        readBuffer.get(preRead);
+        key.cancel();
+        loop.execute(() -> {
+            try {
+                loop.deregisterCancelled();
+                channel.configureBlocking(true);
+                ServerThread sClient = new ServerThread(channel.socket(), onInitializationComplete);
+                sClient.setPreRead(preRead);
+                sClient.start(TransportMode.VIRTUAL.readerThreads());
+            } catch (IOException e) {
+                Log.error("NioConnection", "Failed to hand off legacy client", e);
+                closeNow();
+            }
+        });
+    }
+}
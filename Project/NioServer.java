@@ -0,0 +1,194 @@
+package Project;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Selector based transport for the Server.
+ * <p>
+ * A single acceptor hands new connections round-robin to a fixed set of event
+ * loops. Each loop owns a Selector and does every read and write for its
+ * connections without blocking, so the number of threads no longer grows with
+ * the number of clients. ServerThread/Room logic runs unchanged on top of it
+ * (see {@link NioConnection}).
+ * </p>
+ */
+public class NioServer implements AutoCloseable {
+    private final int port;
+    private final EventLoop[] loops;
+    private volatile boolean isRunning = true;
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * @param port
+     * @param loopCount                number of selector threads
+     * @param onInitializationComplete passed to each ServerThread that gets
+     *                                 created
+     * @throws IOException if a Selector can't be opened
+     */
+    public NioServer(int port, int loopCount, Consumer<ServerThread> onInitializationComplete) throws IOException {
+        this.port = port;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i, onInitializationComplete);
+        }
+    }
+
+    /**
+     * Starts the event loops and then accepts connections on the calling thread
+     * until {@link #close()} is called
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+            serverChannel = ssc;
+            ssc.bind(new InetSocketAddress(port));
+            for (EventLoop loop : loops) {
+                loop.start();
+            }
+            Log.info("NioServer", "%d event loop(s) started", loops.length);
+            int next = 0;
+            while (isRunning) {
+                SocketChannel incomingClient = ssc.accept(); // blocking accept, only this thread waits here
+                Log.info("NioServer", "Client connected");
+                incomingClient.configureBlocking(false);
+                incomingClient.setOption(StandardSocketOptions.TCP_NODELAY, true); // writes are already batched
+                loops[next].register(incomingClient);
+                next = (next + 1) % loops.length;
+            }
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            Log.error("NioServer", "Error closing server channel", e);
+        }
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * A single selector thread. Work submitted from other threads goes through
+     * {@link #execute(Runnable)} so that only this thread ever touches its
+     * Selector and channels.
+     */
+    static class EventLoop extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Consumer<ServerThread> onInitializationComplete;
+        private volatile boolean isRunning = true;
+
+        EventLoop(int index, Consumer<ServerThread> onInitializationComplete) throws IOException {
+            super("nio-loop-" + index);
+            this.selector = Selector.open();
+            this.onInitializationComplete = onInitializationComplete;
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    NioConnection connection = new NioConnection(channel, this, onInitializationComplete);
+                    connection.register(selector);
+                } catch (IOException e) {
+                    Log.error(getName(), "Failed to register client channel", e);
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+        }
+
+        /**
+         * Runs the task on this loop's thread
+         *
+         * @param task
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != this) {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Flushes cancelled keys so their channels can be switched back to
+         * blocking mode. Readiness is level triggered so clearing the selected set
+         * doesn't lose events.
+         *
+         * @throws IOException
+         */
+        void deregisterCancelled() throws IOException {
+            selector.selectNow();
+            selector.selectedKeys().clear();
+        }
+
+        void shutdown() {
+            isRunning = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (isRunning) {
+                    runTasks();
+                    selector.select();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        ((NioConnection) key.attachment()).handle(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                Log.error(getName(), "stopped unexpectedly", e);
+            } finally {
+                runTasks(); // lets pending close() calls finish
+                for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                    ((NioConnection) key.attachment()).closeNow();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    Log.error(getName(), "Error closing selector", e);
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    Log.error(getName(), "task failed", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package Project;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * A long-lived ObjectOutputStream that resets itself periodically.
+ * <p>
+ * An ObjectOutputStream keeps a handle table of every object it has written
+ * (and the ObjectInputStream on the other end mirrors it), so a connection
+ * that is never reset keeps every payload it ever sent reachable on both
+ * sides. This writer calls {@link ObjectOutputStream#reset()} once either
+ * limit is reached, which caps that state while still letting class
+ * descriptors and repeated strings be back-referenced between resets.
+ * </p>
+ */
+public class ObjectStreamWriter implements AutoCloseable {
+    private final CountingOutputStream counter;
+    private final ObjectOutputStream out;
+    private final long resetBytes;
+    private final long resetObjects;
+    // gauges (written by the single writer thread, readable from anywhere)
+    private volatile long bytesSinceReset = 0;
+    private volatile long objectsSinceReset = 0;
+    private volatile long resets = 0;
+    private volatile long objectsWritten = 0;
+
+    /**
+     * @param out          the socket stream
+     * @param resetBytes   reset after this many bytes since the last reset (0
+     *                     disables)
+     * @param resetObjects reset after this many writes since the last reset (0
+     *                     disables)
+     * @throws IOException
+     */
+    public ObjectStreamWriter(OutputStream out, long resetBytes, long resetObjects) throws IOException {
+        this.counter = new CountingOutputStream(out);
+        this.out = new ObjectOutputStream(counter);
+        this.out.flush(); // the peer's ObjectInputStream constructor blocks until it has the stream header
+        this.resetBytes = resetBytes;
+        this.resetObjects = resetObjects;
+        bytesSinceReset = counter.count;
+    }
+
+    /**
+     * Writer using the ServerConfig limits
+     *
+     * @param out
+     * @throws IOException
+     */
+    public ObjectStreamWriter(OutputStream out) throws IOException {
+        this(out, ServerConfig.STREAM_RESET_BYTES, ServerConfig.STREAM_RESET_OBJECTS);
+    }
+
+    /**
+     * Writes one object, resetting the stream afterwards if a limit was
+     * reached; call {@link #flush()} once the batch is complete
+     *
+     * @param value
+     * @throws IOException
+     */
+    public void write(Object value) throws IOException {
+        long before = counter.count;
+        out.writeObject(value);
+        objectsWritten++;
+        long objects = objectsSinceReset + 1;
+        long bytes = bytesSinceReset + (counter.count - before);
+        if ((resetObjects > 0 && objects >= resetObjects) || (resetBytes > 0 && bytes >= resetBytes)) {
+            out.reset(); // writes a TC_RESET marker so the reader drops its handles too
+            resets++;
+            objects = 0;
+            bytes = 0;
+        }
+        objectsSinceReset = objects;
+        bytesSinceReset = bytes;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * @return objects written since the last reset; each one (and whatever it
+     *         references) is still held by both stream handle tables
+     */
+    public long getObjectsSinceReset() {
+        return objectsSinceReset;
+    }
+
+    /**
+     * @return bytes written since the last reset, a rough size of the retained
+     *         state
+     */
+    public long getBytesSinceReset() {
+        return bytesSinceReset;
+    }
+
+    public long getResets() {
+        return resets;
+    }
+
+    public long getObjectsWritten() {
+        return objectsWritten;
+    }
+
+    public long getBytesWritten() {
+        return counter.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ObjectStreamWriter[retainedObjects=%d, retainedBytes=%d, resets=%d, written=%d/%dB]",
+                objectsSinceReset, bytesSinceReset, resets, objectsWritten, counter.count);
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private volatile long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
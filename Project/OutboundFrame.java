@@ -0,0 +1,61 @@
+package Project;
+
+import java.io.IOException;
+
+/**
+ * An outgoing Payload together with its encoded frames.
+ * <p>
+ * Broadcasts create one OutboundFrame and hand the same instance to every
+ * recipient, so the payload is encoded once per wire format instead of once
+ * per recipient. The payload must not be modified after it's wrapped.
+ * </p>
+ */
+public final class OutboundFrame {
+    private final Payload payload;
+    // cached encodings, one per Frames.FORMAT_*; a racing encode just produces identical bytes
+    private volatile byte[] serialized;
+    private volatile byte[] binary;
+
+    public OutboundFrame(Payload payload) {
+        this.payload = payload;
+    }
+
+    public Payload getPayload() {
+        return payload;
+    }
+
+    public PayloadType getPayloadType() {
+        return payload.getPayloadType();
+    }
+
+    /**
+     * @return bytes held by the encodings made so far
+     */
+    public int encodedSize() {
+        byte[] s = serialized;
+        byte[] b = binary;
+        return (s == null ? 0 : s.length) + (b == null ? 0 : b.length);
+    }
+
+    /**
+     * @param format Frames.FORMAT_SERIALIZED or Frames.FORMAT_BINARY
+     * @return the complete frame (length field included); encoded on first use
+     * @throws IOException
+     */
+    public byte[] encoded(byte format) throws IOException {
+        if (format == Frames.FORMAT_BINARY) {
+            byte[] frame = binary;
+            if (frame == null) {
+                frame = BinaryCodec.encode(payload);
+                binary = frame;
+            }
+            return frame;
+        }
+        byte[] frame = serialized;
+        if (frame == null) {
+            frame = Frames.encode(payload);
+            serialized = frame;
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,315 @@
+package Project;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded per-connection queue of frames waiting to be written.
+ * <p>
+ * Senders (Room fan-out, server notices) only enqueue, and a single writer
+ * (the connection's writer thread or its NIO event loop) drains it. One slow
+ * client then only fills its own queue instead of stalling every sender. What
+ * happens when the queue is full is decided by the {@link OverflowPolicy}.
+ * </p>
+ */
+public class OutboundQueue {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST_CHAT, // evict the oldest queued chat MESSAGE; control payloads are never dropped
+        DISCONNECT, // treat the client as a slow consumer and disconnect it
+        BLOCK // make the sender wait up to the block timeout, then disconnect
+    }
+
+    private final ArrayDeque<OutboundFrame> queue = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private volatile boolean closed = false;
+    private volatile boolean overflowed = false;
+    // counters (written under lock, readable without it)
+    private volatile int depth = 0;
+    private volatile int highWaterMark = 0;
+    private volatile long enqueued = 0;
+    private volatile long dropped = 0;
+    private volatile long flushes = 0; // socket writes/flushes (written by the single writer)
+    private volatile long written = 0; // frames those flushes carried
+
+    /**
+     * @param capacity           maximum queued payloads
+     * @param policy             what to do when full
+     * @param blockTimeoutMillis only used by {@link OverflowPolicy#BLOCK}
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeoutMillis) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+    }
+
+    /**
+     * Queue using the ServerConfig defaults
+     */
+    public OutboundQueue() {
+        this(ServerConfig.OUTBOUND_CAPACITY, ServerConfig.OUTBOUND_POLICY, ServerConfig.OUTBOUND_BLOCK_TIMEOUT_MS);
+    }
+
+    /**
+     * Adds a frame for the writer
+     *
+     * @param frame
+     * @param mayBlock false if the caller must never wait (i.e., an NIO event
+     *                 loop), in which case BLOCK behaves like DISCONNECT
+     * @return false if the queue is closed or the client should be disconnected
+     *         as a slow consumer (see {@link #isOverflowed()})
+     */
+    public boolean offer(OutboundFrame frame, boolean mayBlock) {
+        lock.lock();
+        try {
+            return add(frame, mayBlock);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds several frames in order under one lock acquisition, so the writer
+     * wakes up once and can send them with a single flush (i.e., a room's
+     * scrollback for a joining client)
+     *
+     * @param frames
+     * @param mayBlock see {@link #offer(OutboundFrame, boolean)}
+     * @return false as soon as one is refused, like
+     *         {@link #offer(OutboundFrame, boolean)}
+     */
+    public boolean offerAll(List<OutboundFrame> frames, boolean mayBlock) {
+        lock.lock();
+        try {
+            for (OutboundFrame frame : frames) {
+                if (!add(frame, mayBlock)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the overflow policy and queues the frame; lock must be held
+     */
+    private boolean add(OutboundFrame frame, boolean mayBlock) throws InterruptedException {
+        if (closed) {
+            return false;
+        }
+        if (queue.size() >= capacity) {
+            switch (policy) {
+                case DROP_OLDEST_CHAT:
+                    if (!dropOldestChat()) {
+                        if (isChat(frame)) {
+                            // nothing older to evict, so the newest chat line is the one that goes
+                            dropped++;
+                            return true;
+                        }
+                        overflowed = true;
+                        return false;
+                    }
+                    break;
+                case BLOCK:
+                    long nanos = mayBlock ? blockTimeoutNanos : 0;
+                    while (queue.size() >= capacity && !closed) {
+                        if (nanos <= 0) {
+                            overflowed = true;
+                            return false;
+                        }
+                        nanos = notFull.awaitNanos(nanos);
+                    }
+                    if (closed) {
+                        return false;
+                    }
+                    break;
+                case DISCONNECT:
+                default:
+                    overflowed = true;
+                    return false;
+            }
+        }
+        queue.addLast(frame);
+        enqueued++;
+        depth = queue.size();
+        if (depth > highWaterMark) {
+            highWaterMark = depth;
+        }
+        notEmpty.signal();
+        return true;
+    }
+
+    /**
+     * Waits for the next frame
+     *
+     * @return the frame, or null once the queue is closed and fully drained
+     * @throws InterruptedException
+     */
+    public OutboundFrame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                if (closed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the next frame or null if none is queued right now
+     */
+    public OutboundFrame poll() {
+        lock.lock();
+        try {
+            return queue.isEmpty() ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to the given time for the next frame; used by the writer to
+     * gather a batch on a busy connection
+     *
+     * @param nanos
+     * @return the frame or null if none arrived in time (or the queue is closed)
+     * @throws InterruptedException
+     */
+    public OutboundFrame poll(long nanos) throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                if (closed || nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records one flush (or write call) to the socket; writer only
+     *
+     * @param frames frames it carried
+     */
+    public void recordFlush(int frames) {
+        flushes++;
+        written += frames;
+    }
+
+    /**
+     * Stops accepting payloads; whatever is already queued can still be drained
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return true if a payload was refused because the client couldn't keep up
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getEnqueued() {
+        return enqueued;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return socket writes per frame; 1.0 means nothing was coalesced
+     */
+    public double getFlushesPerFrame() {
+        long frames = written;
+        return frames == 0 ? 0 : flushes / (double) frames;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "OutboundQueue[depth=%d/%d, highWater=%d, enqueued=%d, dropped=%d, flushes/frame=%.2f, policy=%s]",
+                depth, capacity, highWaterMark, enqueued, dropped, getFlushesPerFrame(), policy);
+    }
+
+    private OutboundFrame removeFirst() {
+        OutboundFrame p = queue.pollFirst();
+        depth = queue.size();
+        notFull.signal();
+        return p;
+    }
+
+    private boolean dropOldestChat() {
+        Iterator<OutboundFrame> it = queue.iterator();
+        while (it.hasNext()) {
+            if (isChat(it.next())) {
+                it.remove();
+                dropped++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isChat(OutboundFrame frame) {
+        return frame.getPayloadType() == PayloadType.MESSAGE;
+    }
+}
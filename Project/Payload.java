@@ -4,6 +4,8 @@ import java.io.Serializable;
 import java.util.List;
 
 public class Payload implements Serializable {
+    // pinned to the value computed for the original class so legacy clients can still deserialize it
+    private static final long serialVersionUID = 4617877615233170627L;
     private PayloadType payloadType; // The type of the payload
     private long clientId;           // ID of the sender client
     private long targetClientId;     // ID of the target client (e.g., for mute/unmute)
@@ -79,7 +81,8 @@ public class Payload implements Serializable {
     public String toString() {
         return String.format(
             "Payload [Type: %s, Client ID: %s, Sender: %s, Target: %s, Timestamp: %s, Message: %s, Muted Users: %s]",
-            getPayloadType(), getClientId(), getSenderName(), getTargetClientId(), getTimestamp(), getMessage(), getMutedUsers()
+            getPayloadType(), getClientId(), getSenderName(), getTargetClientId(), getTimestamp(),
+            getPayloadType() == PayloadType.PRIVATE_MESSAGE ? Log.privateText(getMessage()) : getMessage(), getMutedUsers()
         );
     }
 }
@@ -14,5 +14,9 @@ public enum PayloadType {
     MUTE,           
     UNMUTE,
     MUTE_LIST,
-    UNMUTE_LIST
+    UNMUTE_LIST,
+    ROOM_SNAPSHOT,  // everyone in the room, sent once to a joining client
+    PRESENCE_DELTA, // joins/leaves in a room collected over a short window
+    SEARCH,         // /search request, and one page of its results
+    STATS           // /stats request, and the server's report as lines of text
 }
\ No newline at end of file
@@ -0,0 +1,251 @@
+package Project;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Collects a room's joins and leaves for a short window and sends them as one
+ * {@link PresenceDeltaPayload} to the members that negotiated
+ * {@link ConnectionPayload#FEATURE_PRESENCE_DELTA}, so a reconnect storm
+ * costs each member a few deltas instead of a ROOM_JOIN per event. Members
+ * without the feature are still notified right away by the Room.
+ * <p>
+ * Membership changes run inside {@link #join} and {@link #leave} so they are
+ * recorded in the same order they happen, and {@link #snapshot(long)} reads the
+ * members under the same lock. A join and leave of the same id inside one
+ * window cancel out, unless another client's snapshot was taken in between:
+ * the joiner that got it saw the intermediate state and still needs the final
+ * one.
+ * </p>
+ */
+public class PresenceAggregator {
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence-flush");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String roomName;
+    private final long windowMillis;
+    private final Supplier<Map<Long, ServerThread>> members;
+    private final Consumer<ServerThread> onSendFailed;
+    private final LinkedHashMap<Long, Change> pending = new LinkedHashMap<>(); // guarded by this
+    private final ReentrantLock flushLock = new ReentrantLock(); // keeps deltas in order per recipient
+    private volatile boolean hasPending = false;
+    private boolean scheduled = false; // guarded by this
+    // stats
+    private volatile long events = 0;
+    private volatile long cancelled = 0;
+    private volatile long deltas = 0;
+
+    private static final class Change {
+        private final boolean wasPresent; // state before the window
+        private String name;
+        private boolean present;
+        private boolean seen; // a snapshot was taken while this change was pending
+
+        private Change(String name, boolean present) {
+            this.name = name;
+            this.present = present;
+            this.wasPresent = !present;
+        }
+    }
+
+    /**
+     * @param roomName     name carried in each delta
+     * @param windowMillis how long to collect events (0 disables aggregation)
+     * @param members      the room's current members
+     * @param onSendFailed called for a recipient that couldn't take a delta
+     */
+    public PresenceAggregator(String roomName, long windowMillis, Supplier<Map<Long, ServerThread>> members,
+            Consumer<ServerThread> onSendFailed) {
+        this.roomName = roomName;
+        this.windowMillis = windowMillis;
+        this.members = members;
+        this.onSendFailed = onSendFailed;
+    }
+
+    public boolean isEnabled() {
+        return windowMillis > 0;
+    }
+
+    /**
+     * @param client
+     * @return true if the client gets other members' joins/leaves from this
+     *         aggregator rather than one payload per event
+     */
+    public boolean wantsDeltas(ServerThread client) {
+        return isEnabled() && client.hasFeature(ConnectionPayload.FEATURE_PRESENCE_DELTA);
+    }
+
+    /**
+     * Runs the membership change and records the join if it happened
+     *
+     * @param client
+     * @param change adds the client; false if it was already a member
+     * @return the result of change
+     */
+    public synchronized boolean join(ServerThread client, BooleanSupplier change) {
+        if (!change.getAsBoolean()) {
+            return false;
+        }
+        record(client.getClientId(), client.getClientName(), true);
+        return true;
+    }
+
+    /**
+     * Runs the membership change and records the leave if it happened
+     *
+     * @param client
+     * @param change removes the client; null if it wasn't a member
+     * @return the result of change
+     */
+    public synchronized <T> T leave(ServerThread client, Supplier<T> change) {
+        T result = change.get();
+        if (result != null) {
+            record(client.getClientId(), client.getClientName(), false);
+        }
+        return result;
+    }
+
+    /**
+     * @param selfId the client being synced; its own pending join isn't
+     *               something it saw, so a quick leave still cancels it
+     * @return the current members, for syncing a joining client; other pending
+     *         changes it shows mid-way (i.e., someone who left and hasn't
+     *         rejoined yet) are no longer cancelled
+     */
+    public synchronized Map<Long, ServerThread> snapshot(long selfId) {
+        pending.forEach((id, c) -> {
+            // one already back where it started shows the final state either way
+            if (id != selfId && c.present != c.wasPresent) {
+                c.seen = true;
+            }
+        });
+        return members.get();
+    }
+
+    /**
+     * Sends the pending delta early if it announces this client, so members
+     * know their name before their first message arrives
+     *
+     * @param clientId
+     */
+    public void flushIfPending(long clientId) {
+        if (!hasPending) {
+            return;
+        }
+        boolean announced;
+        synchronized (this) {
+            Change c = pending.get(clientId);
+            announced = c != null && c.present;
+        }
+        if (announced) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends everything collected so far as one shared frame
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            PresenceDeltaPayload delta = new PresenceDeltaPayload();
+            delta.setRoomName(roomName);
+            Map<Long, ServerThread> recipients;
+            synchronized (this) {
+                scheduled = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                for (Map.Entry<Long, Change> e : pending.entrySet()) {
+                    Change c = e.getValue();
+                    if (c.present == c.wasPresent && !c.seen) {
+                        cancelled++;
+                    } else if (c.present) {
+                        delta.addJoined(e.getKey(), c.name);
+                    } else {
+                        delta.addLeft(e.getKey());
+                    }
+                }
+                pending.clear();
+                hasPending = false;
+                recipients = members.get();
+            }
+            if (delta.isEmpty()) {
+                return;
+            }
+            deltas++;
+            // encoded once and shared by every recipient
+            OutboundFrame frame = new OutboundFrame(delta);
+            for (ServerThread client : recipients.values()) {
+                if (wantsDeltas(client) && !client.send(frame)) {
+                    onSendFailed.accept(client);
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Runs the change that empties the room and drops anything pending; joins
+     * and leaves happen either before it or not at all
+     *
+     * @param change empties the room
+     * @return the result of change
+     */
+    public synchronized <T> T clear(Supplier<T> change) {
+        T result = change.get();
+        pending.clear();
+        hasPending = false;
+        return result;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getCancelled() {
+        return cancelled;
+    }
+
+    public long getDeltas() {
+        return deltas;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PresenceAggregator[%s, window=%dms, events=%d, cancelled=%d, deltas=%d]", roomName,
+                windowMillis, events, cancelled, deltas);
+    }
+
+    private void record(long clientId, String clientName, boolean present) {
+        if (!isEnabled()) {
+            return;
+        }
+        events++;
+        Change c = pending.get(clientId);
+        if (c == null) {
+            pending.put(clientId, new Change(clientName, present));
+        } else {
+            c.present = present;
+            if (present) {
+                c.name = clientName;
+            }
+        }
+        hasPending = true;
+        if (!scheduled) {
+            scheduled = true;
+            SCHEDULER.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
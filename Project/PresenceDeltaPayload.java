@@ -0,0 +1,64 @@
+package Project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Joins and leaves in a room collected over a short window (see
+ * {@link PresenceAggregator}). Each id appears at most once, with its state at
+ * the end of the window, so applying a delta twice or on top of a newer
+ * snapshot is harmless. Only sent to clients that offered
+ * {@link ConnectionPayload#FEATURE_PRESENCE_DELTA}.
+ */
+public class PresenceDeltaPayload extends Payload {
+    private static final long serialVersionUID = 1L;
+    private String roomName;
+    private List<Long> joinedIds = new ArrayList<>(); // same order as joinedNames
+    private List<String> joinedNames = new ArrayList<>();
+    private List<Long> leftIds = new ArrayList<>();
+
+    public PresenceDeltaPayload() {
+        setPayloadType(PayloadType.PRESENCE_DELTA);
+        setTimestamp(System.currentTimeMillis());
+    }
+
+    // Getter and Setter for roomName
+    public String getRoomName() {
+        return roomName;
+    }
+
+    public void setRoomName(String roomName) {
+        this.roomName = roomName;
+    }
+
+    public void addJoined(long clientId, String clientName) {
+        joinedIds.add(clientId);
+        joinedNames.add(clientName);
+    }
+
+    public void addLeft(long clientId) {
+        leftIds.add(clientId);
+    }
+
+    public List<Long> getJoinedIds() {
+        return joinedIds;
+    }
+
+    public List<String> getJoinedNames() {
+        return joinedNames;
+    }
+
+    public List<Long> getLeftIds() {
+        return leftIds;
+    }
+
+    public boolean isEmpty() {
+        return joinedIds.isEmpty() && leftIds.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + String.format(" [PresenceDeltaPayload] Room: %s, Joined: %d, Left: %d", roomName,
+                joinedIds.size(), leftIds.size());
+    }
+}
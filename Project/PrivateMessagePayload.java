@@ -3,6 +3,8 @@ package Project;
 import java.io.Serializable;
 
 public class PrivateMessagePayload extends Payload implements Serializable {
+    // pinned to the value computed for the original class so legacy clients can still deserialize it
+    private static final long serialVersionUID = -8171695719705317599L;
     private long targetClientId;
 
     public long getTargetClientId() {
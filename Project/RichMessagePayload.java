@@ -0,0 +1,34 @@
+package Project;
+
+/**
+ * MESSAGE or PRIVATE_MESSAGE for clients with
+ * {@link ConnectionPayload#FEATURE_RICH_TEXT}: the message field holds the
+ * plain text and the styles travel as runs, instead of rendered HTML.
+ */
+public class RichMessagePayload extends Payload {
+    private static final long serialVersionUID = 1L;
+    private RichText richText = RichText.plain("");
+
+    public RichMessagePayload() {
+        setPayloadType(PayloadType.MESSAGE);
+    }
+
+    public RichText getRichText() {
+        return richText;
+    }
+
+    /**
+     * Sets the styled text and its plain text as the message
+     *
+     * @param richText
+     */
+    public void setRichText(RichText richText) {
+        this.richText = richText;
+        setMessage(richText.getText());
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + String.format(" [RichMessagePayload] Runs: %d", richText.getRunCount());
+    }
+}
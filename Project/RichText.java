@@ -0,0 +1,236 @@
+package Project;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A chat message as plain text plus style runs, which is what the server
+ * sends to clients with {@link ConnectionPayload#FEATURE_RICH_TEXT} instead
+ * of rendered HTML.
+ * <p>
+ * The runs cover the text from start to end; each has a length and a style:
+ * the BOLD, ITALIC and UNDERLINE flags and at most one color. Console clients
+ * and the chat export just use {@link #getText()}; the chat view renders
+ * {@link #toHtml()}. Instances are immutable, use {@link Builder} or
+ * {@link MessageFormatter#parse(String)} to create them.
+ * </p>
+ */
+public final class RichText implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int BOLD = 1;
+    public static final int ITALIC = 2;
+    public static final int UNDERLINE = 4;
+    public static final int COLOR_MASK = 0x18;
+    public static final int RED = 0x08;
+    public static final int GREEN = 0x10;
+    public static final int BLUE = 0x18;
+    private static final int STYLE_MASK = BOLD | ITALIC | UNDERLINE | COLOR_MASK;
+
+    private static final byte[] NO_STYLES = new byte[0];
+    private static final int[] NO_LENGTHS = new int[0];
+
+    private final String text;
+    private final int[] runLengths;
+    private final byte[] runStyles;
+
+    /**
+     * @param text       plain text
+     * @param runLengths characters in each run, adding up to the text's length
+     * @param runStyles  style of each run
+     * @throws IllegalArgumentException if the runs don't fit the text
+     */
+    RichText(String text, int[] runLengths, byte[] runStyles) {
+        if (text == null || runLengths.length != runStyles.length) {
+            throw new IllegalArgumentException("Runs don't match the text");
+        }
+        long total = 0;
+        for (int i = 0; i < runLengths.length; i++) {
+            if (runLengths[i] <= 0 || (runStyles[i] & ~STYLE_MASK) != 0) {
+                throw new IllegalArgumentException("Invalid run " + i);
+            }
+            total += runLengths[i];
+        }
+        if (total != text.length()) {
+            throw new IllegalArgumentException("Runs cover " + total + " of " + text.length() + " characters");
+        }
+        this.text = text;
+        this.runLengths = runLengths;
+        this.runStyles = runStyles;
+    }
+
+    /**
+     * @param text
+     * @return the text without any styling
+     */
+    public static RichText plain(String text) {
+        if (text == null || text.isEmpty()) {
+            return new RichText("", NO_LENGTHS, NO_STYLES);
+        }
+        return new RichText(text, new int[] { text.length() }, new byte[] { 0 });
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getRunCount() {
+        return runLengths.length;
+    }
+
+    public int getRunLength(int run) {
+        return runLengths[run];
+    }
+
+    /**
+     * @param run
+     * @return BOLD, ITALIC and UNDERLINE flags plus the color (style &amp;
+     *         COLOR_MASK, 0 for none)
+     */
+    public int getRunStyle(int run) {
+        return runStyles[run];
+    }
+
+    /**
+     * Renders the runs as an HTML fragment with the text escaped, using the
+     * same tags as {@link MessageFormatter#format(String)}
+     *
+     * @return HTML for a JLabel or the chat history
+     */
+    public String toHtml() {
+        StringBuilder out = new StringBuilder(text.length() + runLengths.length * 16);
+        int start = 0;
+        for (int i = 0; i < runLengths.length; i++) {
+            int style = runStyles[i];
+            int end = start + runLengths[i];
+            if ((style & BOLD) != 0) {
+                out.append("<b>");
+            }
+            if ((style & ITALIC) != 0) {
+                out.append("<i>");
+            }
+            if ((style & UNDERLINE) != 0) {
+                out.append("<u>");
+            }
+            switch (style & COLOR_MASK) {
+                case RED -> out.append("<span style='color:red;'>");
+                case GREEN -> out.append("<span style='color:green;'>");
+                case BLUE -> out.append("<span style='color:blue;'>");
+                default -> {
+                }
+            }
+            for (int c = start; c < end; c++) {
+                char ch = text.charAt(c);
+                switch (ch) {
+                    case '&' -> out.append("&amp;");
+                    case '<' -> out.append("&lt;");
+                    case '>' -> out.append("&gt;");
+                    default -> out.append(ch);
+                }
+            }
+            if ((style & COLOR_MASK) != 0) {
+                out.append("</span>");
+            }
+            if ((style & UNDERLINE) != 0) {
+                out.append("</u>");
+            }
+            if ((style & ITALIC) != 0) {
+                out.append("</i>");
+            }
+            if ((style & BOLD) != 0) {
+                out.append("</b>");
+            }
+            start = end;
+        }
+        return out.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RichText other)) {
+            return false;
+        }
+        return text.equals(other.text) && Arrays.equals(runLengths, other.runLengths)
+                && Arrays.equals(runStyles, other.runStyles);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * text.hashCode() + Arrays.hashCode(runStyles);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Builds a RichText from pieces, merging neighbors with the same style
+     */
+    public static final class Builder {
+        private final StringBuilder text = new StringBuilder();
+        private int[] lengths = new int[4];
+        private byte[] styles = new byte[4];
+        private int runs = 0;
+
+        /**
+         * @param piece
+         * @param style BOLD, ITALIC, UNDERLINE and a color
+         * @return this
+         */
+        public Builder append(String piece, int style) {
+            if (piece == null || piece.isEmpty()) {
+                return this;
+            }
+            text.append(piece);
+            addRun(piece.length(), (byte) (style & STYLE_MASK));
+            return this;
+        }
+
+        /**
+         * Appends a single character; what MessageFormatter.parse uses
+         *
+         * @param c
+         * @param style
+         * @return this
+         */
+        public Builder append(char c, int style) {
+            text.append(c);
+            addRun(1, (byte) (style & STYLE_MASK));
+            return this;
+        }
+
+        /**
+         * @param other text with its styles kept
+         * @return this
+         */
+        public Builder append(RichText other) {
+            text.append(other.text);
+            for (int i = 0; i < other.runLengths.length; i++) {
+                addRun(other.runLengths[i], other.runStyles[i]);
+            }
+            return this;
+        }
+
+        public RichText build() {
+            return new RichText(text.toString(), Arrays.copyOf(lengths, runs), Arrays.copyOf(styles, runs));
+        }
+
+        private void addRun(int length, byte style) {
+            if (runs > 0 && styles[runs - 1] == style) {
+                lengths[runs - 1] += length;
+                return;
+            }
+            if (runs == lengths.length) {
+                lengths = Arrays.copyOf(lengths, runs * 2);
+                styles = Arrays.copyOf(styles, runs * 2);
+            }
+            lengths[runs] = length;
+            styles[runs] = style;
+            runs++;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package Project;
 
 public class RollPayload extends Payload {
+    // pinned to the value computed for the original class so legacy clients can still deserialize it
+    private static final long serialVersionUID = 5353037937898802651L;
     private int rollRange; // For format: /roll #
     private int numberOfDice; // For format: /roll #d#
     private int sidesPerDie; // For format: /roll #d#
@@ -1,25 +1,62 @@
 package Project;
 
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Room implements AutoCloseable {
     private String name; // Unique name of the Room
     private volatile boolean isRunning = false;
-    private ConcurrentHashMap<Long, ServerThread> clientsInRoom = new ConcurrentHashMap<>();
+    // immutable id -> client snapshot, replaced with compareAndSet on join/leave so sends never hold a lock
+    private final AtomicReference<Map<Long, ServerThread>> members = new AtomicReference<>(Map.of());
+    // what close() leaves in members; compared by identity, so it isn't Map.of()
+    private static final Map<Long, ServerThread> CLOSED = Collections.unmodifiableMap(new HashMap<>());
+    private final PresenceAggregator presence;
+    private final Scrollback scrollback = new Scrollback(); // recent messages for clients that join later
+    private final MessageJournal journal; // null if messages aren't journaled
+    private final SearchIndex searchIndex; // what /search looks in
 
     public static final String LOBBY = "lobby";
 
     private void info(String message) {
-        System.out.println(String.format("Room[%s]: %s", name, message));
+        Log.info(this, message);
+    }
+
+    @Override
+    public String toString() {
+        return "Room[" + name + "]";
     }
 
     public Room(String name) {
+        this(name, ServerConfig.PRESENCE_WINDOW_MS, null, new SearchIndex(ServerConfig.SEARCH_MAX_BYTES));
+    }
+
+    /**
+     * @param name
+     * @param presenceWindowMs how long joins/leaves are collected into one
+     *                         delta (0 = notify members of each one at once)
+     * @param journal          where messages are journaled, or null; the
+     *                         room's last journaled messages seed its
+     *                         scrollback
+     * @param searchIndex      index of the room's messages, possibly rebuilt
+     *                         from the journal
+     */
+    Room(String name, long presenceWindowMs, MessageJournal journal, SearchIndex searchIndex) {
         this.name = name;
+        this.presence = new PresenceAggregator(name, presenceWindowMs, members::get, this::disconnect);
+        this.journal = journal;
+        this.searchIndex = searchIndex;
+        if (journal != null) {
+            for (MessageJournal.Record record : journal.takeRecent(name)) {
+                scrollback.encoded(scrollback.add(new MessageFrames(record.getSenderId(), record.getSenderName(),
+                        PayloadType.MESSAGE, record.getMessage(), record.getTimestamp())));
+            }
+        }
         isRunning = true;
-        System.out.println(String.format("Room[%s] created", this.name));
+        info("created");
     }
 
     public String getName() {
@@ -74,19 +111,26 @@ public class Room implements AutoCloseable {
         sendMessage(client, resultMessage); // Pass 'client' instead of 'null'
     }
 
-    protected synchronized void addClient(ServerThread client) {
-        if (!isRunning) {
-            return;
-        }
-
-        if (clientsInRoom.containsKey(client.getClientId())) {
-            info("Client already in room");
+    protected void addClient(ServerThread client) {
+        boolean joined = presence.join(client, () -> {
+            if (!addMember(client)) {
+                return false;
+            }
+            client.setCurrentRoom(this); // with the membership, so close() migrates everyone whose room this is
+            return true;
+        });
+        if (!joined) {
+            if (members.get() != CLOSED) {
+                info("Client already in room");
+            } else if (!Room.LOBBY.equalsIgnoreCase(name)) {
+                // closed while they were on their way in; send them where close() sent everyone else
+                info(String.format("Closed, sending %s[%s] to the lobby", client.getClientName(),
+                        client.getClientId()));
+                Server.INSTANCE.joinRoom(Room.LOBBY, client);
+            }
             return;
         }
 
-        clientsInRoom.put(client.getClientId(), client);
-        client.setCurrentRoom(this);
-
         // Reset the muted list for the joining client
         client.clearMutedClientIds();
 
@@ -94,14 +138,25 @@ public class Room implements AutoCloseable {
         sendRoomStatus(client.getClientId(), client.getClientName(), true);
         syncRoomList(client);
 
+        // then what was said before they arrived, queued together so it goes out in one write
+        if (!client.sendAll(scrollback.replayFor(client))) {
+            disconnect(client);
+            return;
+        }
+
         info(String.format("%s[%s] joined the Room[%s]", client.getClientName(), client.getClientId(), getName()));
     }
 
-    protected synchronized void removedClient(ServerThread client) {
+    protected void removedClient(ServerThread client) {
         if (!isRunning)
             return;
-        sendRoomStatus(client.getClientId(), client.getClientName(), false);
-        clientsInRoom.remove(client.getClientId());
+        Map<Long, ServerThread> before = presence.leave(client, () -> removeMember(client));
+        if (before == null) {
+            return; // not (or no longer) in this room
+        }
+        // the leaving client is still in the previous snapshot so it gets its own notice
+        broadcast(withoutDeltas(before, client), new OutboundFrame(
+                ServerThread.buildRoomAction(client.getClientId(), client.getClientName(), getName(), false)));
 
         info(String.format("%s[%s] left Room[%s]", client.getClientName(), client.getClientId(), getName()));
         autoCleanup();
@@ -109,39 +164,41 @@ public class Room implements AutoCloseable {
 
     /**
      * Takes a ServerThread and removes them from the Server.
-     * Adding the synchronized keyword ensures that only one thread can execute
-     * these methods at a time, preventing concurrent modification issues and
-     * ensuring thread safety.
+     * Removing the member first means only one caller wins if several
+     * threads try to disconnect the same client (i.e., after failed sends).
      * 
      * @param client The client to disconnect.
      */
     // kr553 10/21/2024
-    protected synchronized void disconnect(ServerThread client) {
+    protected void disconnect(ServerThread client) {
         if (!isRunning) { // Block action if Room isn't running
             return;
         }
         long id = client.getClientId();
-        sendDisconnect(client);
+        Map<Long, ServerThread> before = presence.leave(client, () -> removeMember(client));
+        if (before == null) {
+            return; // already handled by another thread
+        }
+        sendDisconnect(withoutDeltas(before, client), client);
         client.disconnect();
-        clientsInRoom.remove(client.getClientId());
 
         // Improved logging with user data
         info(String.format("%s[%s] disconnected", client.getClientName(), id));
     }
 
-    public Set<ServerThread> getClients() {
-        return new HashSet<>(clientsInRoom.values()); // Return a thread-safe copy of the clients
+    /**
+     * @return the current members; an immutable snapshot, so no copy is needed
+     */
+    public Collection<ServerThread> getClients() {
+        return members.get().values();
     }
 
-    protected synchronized void disconnectAll() {
+    protected void disconnectAll() {
         info("Disconnect All triggered");
         if (!isRunning) {
             return;
         }
-        clientsInRoom.values().removeIf(client -> {
-            disconnect(client);
-            return true;
-        });
+        members.get().values().forEach(this::disconnect);
         info("Disconnect All finished");
     }
 
@@ -149,22 +206,25 @@ public class Room implements AutoCloseable {
      * Sends a private message between two users in the room.
      */
     // kr553 11/23/2024
-    protected synchronized void sendPrivateMessage(ServerThread sender, long targetClientId, String message) {
+    protected void sendPrivateMessage(ServerThread sender, long targetClientId, String message) {
         if (!isRunning) {
             return;
         }
 
-        ServerThread targetClient = clientsInRoom.get(targetClientId);
+        ServerThread targetClient = members.get().get(targetClientId);
 
         if (targetClient != null) {
-            // Apply text formatting
-            String formattedMessage = TextFX.formatText(message);
-
             long senderId = sender.getClientId();
+            presence.flushIfPending(senderId);
 
-            // Send the message to sender and receiver
-            boolean failedToSendSender = !sender.sendPrivateMessage(senderId, formattedMessage);
-            boolean failedToSendReceiver = !targetClient.sendPrivateMessage(senderId, formattedMessage);
+            // Send the message to sender and receiver, parsed or rendered once for both
+            MessageFrames frames = new MessageFrames(senderId, PayloadType.PRIVATE_MESSAGE, message);
+            if (journal != null) {
+                journal.append(PayloadType.PRIVATE_MESSAGE, name, senderId, sender.getClientName(), targetClientId,
+                        message);
+            }
+            boolean failedToSendSender = !sender.send(frames.frameFor(sender));
+            boolean failedToSendReceiver = !targetClient.send(frames.frameFor(targetClient));
 
             if (failedToSendSender) {
                 info(String.format("Removing disconnected client[%s] from list", sender.getClientId()));
@@ -176,8 +236,8 @@ public class Room implements AutoCloseable {
             }
 
             // Log the private message (optional)
-            info(String.format("Private message from %s to %s: %s", sender.getClientName(),
-                    targetClient.getClientName(), message));
+            Log.info(this, "Private message from %s to %s: %s", sender.getClientName(),
+                    targetClient.getClientName(), Log.privateText(message));
         } else {
             // Target client not found in the room
             // Optionally, send an error message back to the sender
@@ -189,112 +249,280 @@ public class Room implements AutoCloseable {
      * Attempts to close the room to free up resources if it's empty.
      */
     private void autoCleanup() {
-        if (!Room.LOBBY.equalsIgnoreCase(name) && clientsInRoom.isEmpty()) {
+        if (!Room.LOBBY.equalsIgnoreCase(name) && members.get().isEmpty()) {
             close();
         }
     }
 
     @Override
     public void close() {
+        // only the first caller gets the members; anyone joining after this is refused
+        Map<Long, ServerThread> remaining = presence.clear(() -> members.getAndSet(CLOSED));
+        if (remaining == CLOSED) {
+            return; // already closed
+        }
+        isRunning = false;
         // Attempt to gracefully close and migrate clients
-        if (!clientsInRoom.isEmpty()) {
-            sendMessage(null, "Room is shutting down, migrating to lobby");
-            info(String.format("Migrating %d clients", clientsInRoom.size()));
-            clientsInRoom.values().forEach(client -> Server.INSTANCE.joinRoom(Room.LOBBY, client));
-            clientsInRoom.clear();
+        int messages = scrollback.size();
+        info(String.format("Released scrollback: %d messages, %d bytes", messages, scrollback.clear()));
+        if (!remaining.isEmpty()) {
+            broadcast(remaining, new MessageFrames(ServerThread.DEFAULT_CLIENT_ID, PayloadType.MESSAGE,
+                    "Room is shutting down, migrating to lobby"));
+            info(String.format("Migrating %d clients", remaining.size()));
+            remaining.values().forEach(client -> Server.INSTANCE.joinRoom(Room.LOBBY, client));
         }
         Server.INSTANCE.removeRoom(this);
-        isRunning = false;
-        info(String.format("Room[%s] closed", name));
+        info("closed");
     }
 
-    // Send/sync data to client(s)
+    // membership (copy-on-write)
 
     /**
-     * Sends to all clients details of a disconnected client.
+     * Publishes a new snapshot containing the client
+     * 
+     * @param client
+     * @return false if a client with that id is already a member or the room
+     *         is closed
      */
-    // kr553 10/21/2024
-    protected synchronized void sendDisconnect(ServerThread client) {
-        info(String.format("Sending disconnect status to %d recipients", clientsInRoom.size()));
-        clientsInRoom.values().removeIf(clientInRoom -> {
-            boolean failedToSend = !clientInRoom.sendDisconnect(client.getClientId(), client.getClientName());
-            if (failedToSend) {
-                info(String.format("Removing disconnected client[%s] from list", clientInRoom.getClientId()));
-                disconnect(clientInRoom);
+    private boolean addMember(ServerThread client) {
+        while (true) {
+            Map<Long, ServerThread> current = members.get();
+            if (current == CLOSED || current.containsKey(client.getClientId())) {
+                return false;
             }
-            return failedToSend;
-        });
+            HashMap<Long, ServerThread> next = new HashMap<>(current);
+            next.put(client.getClientId(), client);
+            if (members.compareAndSet(current, Map.copyOf(next))) {
+                return true;
+            }
+        }
     }
 
     /**
-     * Syncs info of existing users in room with the client.
+     * Publishes a new snapshot without the client
+     * 
+     * @param client
+     * @return the snapshot it was removed from, or null if it wasn't a member
      */
-    protected synchronized void syncRoomList(ServerThread client) {
-        // Sync existing users in room to the joining client
-        clientsInRoom.values().forEach(clientInRoom -> {
-            if (clientInRoom.getClientId() != client.getClientId()) {
-                client.sendClientSync(clientInRoom.getClientId(), clientInRoom.getClientName());
+    private Map<Long, ServerThread> removeMember(ServerThread client) {
+        while (true) {
+            Map<Long, ServerThread> current = members.get();
+            if (current.get(client.getClientId()) != client) {
+                return null;
             }
-        });
+            HashMap<Long, ServerThread> next = new HashMap<>(current);
+            next.remove(client.getClientId());
+            if (members.compareAndSet(current, Map.copyOf(next))) {
+                return current;
+            }
+        }
+    }
 
-        // Send the joining client's details to existing clients
-        clientsInRoom.values().forEach(clientInRoom -> {
-            if (clientInRoom.getClientId() != client.getClientId()) {
-                clientInRoom.sendClientSync(client.getClientId(), client.getClientName());
+    /**
+     * @param recipients
+     * @param subject    the client who joined/left; always told directly
+     * @return the recipients that need a payload for this join/leave right
+     *         away, i.e., everyone but those getting it in a presence delta
+     */
+    private Map<Long, ServerThread> withoutDeltas(Map<Long, ServerThread> recipients, ServerThread subject) {
+        if (!presence.isEnabled()) {
+            return recipients;
+        }
+        HashMap<Long, ServerThread> direct = new HashMap<>();
+        recipients.forEach((id, client) -> {
+            if (client == subject || !presence.wantsDeltas(client)) {
+                direct.put(id, client);
             }
         });
-
-        // Sync muted clients to the joining client
-        client.sendMutedUsers();
+        return direct;
     }
 
+    // end membership
+
+    // Send/sync data to client(s)
+
     /**
-     * Syncs room status of one client to all connected clients.
+     * Queues one shared frame for every client in the snapshot; no lock is held
+     * while sending. Clients that can't take it are disconnected.
+     * 
+     * @param recipients
+     * @param frame
      */
-    protected synchronized void sendRoomStatus(long clientId, String clientName, boolean isConnect) {
-        info(String.format("Sending room status to %d recipients", clientsInRoom.size()));
-        clientsInRoom.values().removeIf(client -> {
-            boolean failedToSend = !client.sendRoomAction(clientId, clientName, getName(), isConnect);
-            if (failedToSend) {
+    private void broadcast(Map<Long, ServerThread> recipients, OutboundFrame frame) {
+        for (ServerThread client : recipients.values()) {
+            if (!client.send(frame)) {
+                info(String.format("Removing disconnected client[%s] from list", client.getClientId()));
+                disconnect(client);
+            }
+        }
+    }
+
+    private void broadcast(Map<Long, ServerThread> recipients, MessageFrames frames) {
+        for (ServerThread client : recipients.values()) {
+            if (!client.send(frames.frameFor(client))) {
                 info(String.format("Removing disconnected client[%s] from list", client.getClientId()));
                 disconnect(client);
             }
-            return failedToSend;
+        }
+    }
+
+    /**
+     * Sends to all clients details of a disconnected client.
+     */
+    // kr553 10/21/2024
+    protected void sendDisconnect(ServerThread client) {
+        sendDisconnect(members.get(), client);
+    }
+
+    private void sendDisconnect(Map<Long, ServerThread> recipients, ServerThread client) {
+        Log.debug(this, () -> "Sending disconnect status to " + recipients.size() + " recipients");
+        // encoded once and shared by every recipient
+        broadcast(recipients, new OutboundFrame(
+                ServerThread.buildDisconnect(client.getClientId(), client.getClientName())));
+    }
+
+    /**
+     * Syncs info of existing users in room with the client.
+     */
+    protected void syncRoomList(ServerThread client) {
+        // read after the client was added, so of two concurrent joiners the later one always sees the earlier
+        Map<Long, ServerThread> snapshot = presence.snapshot(client.getClientId());
+        if (client.hasFeature(ConnectionPayload.FEATURE_ROOM_SNAPSHOT)) {
+            // the whole room and the mute list in one frame
+            client.sendRoomSnapshot(getName(), snapshot.values());
+        } else {
+            // Sync existing users in room to the joining client
+            snapshot.values().forEach(clientInRoom -> {
+                if (clientInRoom.getClientId() != client.getClientId()) {
+                    client.sendClientSync(clientInRoom.getClientId(), clientInRoom.getClientName());
+                }
+            });
+            // Sync muted clients to the joining client
+            client.sendMutedUsers();
+        }
+
+        // Existing clients already learned about the joiner from the ROOM_JOIN in
+        // sendRoomStatus() (or will in the next presence delta); only those who
+        // muted them need a fresh mute list
+        snapshot.values().forEach(clientInRoom -> {
+            if (clientInRoom != client && clientInRoom.isMuted(client.getClientId())) {
+                clientInRoom.sendMutedUsers();
+            }
         });
     }
 
+    /**
+     * Syncs room status of one client to all connected clients.
+     */
+    protected void sendRoomStatus(long clientId, String clientName, boolean isConnect) {
+        Map<Long, ServerThread> snapshot = members.get();
+        ServerThread subject = snapshot.get(clientId);
+        if (subject != null) {
+            snapshot = withoutDeltas(snapshot, subject);
+        }
+        int recipients = snapshot.size();
+        Log.debug(this, () -> "Sending room status to " + recipients + " recipients");
+        broadcast(snapshot, new OutboundFrame(ServerThread.buildRoomAction(clientId, clientName, getName(), isConnect)));
+    }
+
     /**
      * Sends a message from the sender to all clients in the room.
      * If the sender is null, it's considered a server message.
      */
     // kr553 10/21/2024
-    protected synchronized void sendMessage(ServerThread sender, String message) {
+    protected void sendMessage(ServerThread sender, String message) {
+        sendMessage(sender, message, System.nanoTime());
+    }
+
+    /**
+     * @param sender
+     * @param message
+     * @param receivedNanos System.nanoTime() when the message was received;
+     *                      the time until it's queued for every member goes
+     *                      to Metrics.MESSAGE_LATENCY
+     */
+    protected void sendMessage(ServerThread sender, String message, long receivedNanos) {
         if (!isRunning)
             return;
 
-        String formattedMessage = TextFX.formatText(message);
         long senderId = sender == null ? ServerThread.DEFAULT_CLIENT_ID : sender.getClientId();
+        if (sender != null) {
+            presence.flushIfPending(senderId); // members should know the name before the message
+        }
+        // one frame per message form for the whole room; each is encoded at most once per wire format
+        MessageFrames frames = new MessageFrames(senderId, sender == null ? null : sender.getClientName(),
+                PayloadType.MESSAGE, message);
+        Scrollback.Entry entry = scrollback.add(frames);
+        if (journal != null) {
+            // only queued here; the journal's writer thread does the disk work
+            journal.append(PayloadType.MESSAGE, name, senderId, sender == null ? null : sender.getClientName(),
+                    ServerThread.DEFAULT_CLIENT_ID, message);
+        }
 
-        for (ServerThread client : clientsInRoom.values()) {
+        for (ServerThread client : members.get().values()) {
             // Skip if the client has muted the sender
             if (sender != null && client.isMuted(senderId)) {
-                info(String.format("Message skipped for muted client [%s]", client.getClientName()));
+                Log.debug(this, () -> "Message skipped for muted client [" + client.getClientName() + "]");
                 continue;
             }
 
-            boolean messageSent = client.sendMessage(senderId, formattedMessage);
+            long start = System.nanoTime();
+            boolean messageSent = client.send(frames.frameFor(client));
+            Metrics.SEND_LATENCY.record(System.nanoTime() - start);
 
             if (!messageSent) {
                 info(String.format("Removing disconnected client [%s]", client.getClientName()));
                 disconnect(client);
             }
         }
+        Metrics.MESSAGE_LATENCY.record(System.nanoTime() - receivedNanos);
+        scrollback.encoded(entry);
+        // after the fan-out so members don't wait for the tokenizing
+        searchIndex.add(senderId, sender == null ? null : sender.getClientName(), frames.getTimestamp(), message);
+    }
+
+    /**
+     * @return recent messages kept for joining clients (size and memory)
+     */
+    public Scrollback getScrollback() {
+        return scrollback;
     }
 
     // End send data to client(s)
 
     // Receive data from ServerThread
 
+    /**
+     * Answers a /search with one page of matching messages, leaving out
+     * senders the searcher muted
+     */
+    protected void handleSearch(ServerThread sender, SearchPayload request) {
+        String query = request.getMessage() == null ? "" : request.getMessage().trim();
+        SearchPayload results = new SearchPayload();
+        results.setRoomName(name);
+        results.setMessage(query);
+        long start = System.nanoTime();
+        int total = searchIndex.search(query, request.getPage(), ServerConfig.SEARCH_PAGE_SIZE, sender::isMuted,
+                results);
+        Log.info(this, "Search '%s' page %d by %s: %d hits in %d us", query, results.getPage(),
+                sender.getClientName(), total, (System.nanoTime() - start) / 1000);
+        sender.send(results);
+    }
+
+    /**
+     * @return the room's join/leave aggregator
+     */
+    PresenceAggregator getPresence() {
+        return presence;
+    }
+
+    /**
+     * @return index of the room's messages
+     */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
     protected void handleCreateRoom(ServerThread sender, String roomName) {
         if (Server.INSTANCE.createRoom(roomName)) {
             Server.INSTANCE.joinRoom(roomName, sender);
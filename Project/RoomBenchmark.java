@@ -0,0 +1,406 @@
+package Project;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency check and broadcast throughput for Room membership.
+ * <p>
+ * Every member is a real ServerThread on a loopback socket whose other end
+ * is drained in the background, so sends go through the same outbound queues
+ * and writers as in the Server.
+ * </p>
+ * <ul>
+ * <li>throughput: senders broadcast into random rooms for a fixed time;
+ * reports messages and deliveries per second</li>
+ * <li>stress: threads move their clients between rooms while others
+ * broadcast, then checks every client ended up in exactly one room and that
+ * room agrees with getCurrentRoom(); exits with 1 on any violation</li>
+ * <li>join: frames queued and time taken per join into a large room, for
+ * joiners with and without FEATURE_ROOM_SNAPSHOT</li>
+ * <li>churn: part of a room drops and rejoins at once (like after a network
+ * blip), drops and rejoins one by one, and new clients join and leave again;
+ * frames queued and joins/leaves cancelled with presence deltas off and on,
+ * then once more with a window longer than any phase, flushed right after
+ * each; exits with 1 if a pair in that last run wasn't cancelled (with the
+ * short window a scheduled flush may split a pair)</li>
+ * <li>scrollback: messages are said in a room, then clients join; replayed
+ * frames, socket writes and time per join, for rich/binary and legacy
+ * joiners, the room's scrollback memory, and that it's released once the
+ * room empties and closes</li>
+ * </ul>
+ * Usage: java Project.RoomBenchmark throughput [rooms] [membersPerRoom]
+ * [senders] [seconds]
+ * <br>
+ * java Project.RoomBenchmark stress [rooms] [clients] [threads] [movesPerThread]
+ * <br>
+ * java Project.RoomBenchmark join [members] [joins]
+ * <br>
+ * java Project.RoomBenchmark churn [members] [reconnects] [windowMs]
+ * <br>
+ * java Project.RoomBenchmark scrollback [members] [messages] [joins]
+ */
+public class RoomBenchmark {
+    private static final AtomicLong received = new AtomicLong();
+    private static final int CHECKED_WINDOW_MS = 60_000; // far longer than a churn phase takes
+    private static long nextClientId = 1;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "throughput";
+        if (!mode.equalsIgnoreCase("throughput")) {
+            // joins/leaves queue control frames that are never dropped; don't let slow-consumer
+            // disconnects (correct, but not what this checks) take clients out mid-run
+            System.setProperty("chat.outbound.capacity", "1000000");
+        }
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Room/ServerThread logging is too chatty here
+        try (ServerSocket serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress())) {
+            boolean ok = switch (mode.toLowerCase()) {
+                case "stress" -> stress(console, serverSocket, intArg(args, 1, 8), intArg(args, 2, 200),
+                        intArg(args, 3, 8), intArg(args, 4, 2_000));
+                case "join" -> join(console, serverSocket, intArg(args, 1, 1_000), intArg(args, 2, 50));
+                case "churn" -> churn(console, serverSocket, intArg(args, 1, 500), intArg(args, 2, 250),
+                        intArg(args, 3, 50));
+                case "scrollback" -> scrollback(console, serverSocket, intArg(args, 1, 50), intArg(args, 2, 500),
+                        intArg(args, 3, 50));
+                default -> throughput(console, serverSocket, intArg(args, 1, 20), intArg(args, 2, 25),
+                        intArg(args, 3, 8), intArg(args, 4, 10));
+            };
+            System.exit(ok ? 0 : 1);
+        }
+    }
+
+    private static boolean throughput(PrintStream console, ServerSocket serverSocket, int roomCount, int perRoom,
+            int senders, int seconds) throws Exception {
+        List<Room> rooms = new ArrayList<>();
+        List<ServerThread> all = new ArrayList<>();
+        for (int r = 0; r < roomCount; r++) {
+            Room room = new Room("bench-" + r);
+            rooms.add(room);
+            for (int m = 0; m < perRoom; m++) {
+                ServerThread st = connect(serverSocket);
+                room.addClient(st);
+                all.add(st);
+            }
+        }
+        console.println(String.format("rooms=%d members/room=%d senders=%d seconds=%d", roomCount, perRoom, senders,
+                seconds));
+        AtomicLong sent = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long start = System.nanoTime();
+        long receivedBefore = received.get();
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < senders; s++) {
+            threads.add(Thread.ofPlatform().name("sender-" + s).start(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                while (System.nanoTime() < deadline) {
+                    Room room = rooms.get(random.nextInt(rooms.size()));
+                    List<ServerThread> members = new ArrayList<>(room.getClients());
+                    if (!members.isEmpty()) {
+                        room.sendMessage(members.get(random.nextInt(members.size())), "benchmark line " + count);
+                        count++;
+                    }
+                }
+                sent.addAndGet(count);
+            }));
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long dropped = all.stream().mapToLong(st -> st.getOutboundQueue().getDropped()).sum();
+        long enqueued = all.stream().mapToLong(st -> st.getOutboundQueue().getEnqueued()).sum();
+        console.println(String.format("%,d messages in %.1fs: %,.0f msg/s, %,.0f deliveries/s queued, %,d dropped",
+                sent.get(), elapsed, sent.get() / elapsed, enqueued / elapsed, dropped));
+        console.println(String.format("%,.0f bytes/s drained by clients", (received.get() - receivedBefore) / elapsed));
+        return true;
+    }
+
+    private static boolean stress(PrintStream console, ServerSocket serverSocket, int roomCount, int clientCount,
+            int threadCount, int moves) throws Exception {
+        List<Room> rooms = new ArrayList<>();
+        for (int r = 0; r < roomCount; r++) {
+            Room room = new Room("stress-" + r);
+            room.addClient(connect(serverSocket)); // anchor member so the room never auto-closes
+            rooms.add(room);
+        }
+        List<ServerThread> clients = new ArrayList<>();
+        for (int c = 0; c < clientCount; c++) {
+            ServerThread st = connect(serverSocket);
+            rooms.get(c % roomCount).addClient(st);
+            clients.add(st);
+        }
+        console.println(String.format("rooms=%d clients=%d threads=%d moves/thread=%d", roomCount, clientCount,
+                threadCount, moves));
+        AtomicLong failures = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threadCount; t++) {
+            // each thread owns a slice of the clients, like a reader thread owns its client
+            List<ServerThread> owned = new ArrayList<>();
+            for (int c = t; c < clientCount; c += threadCount) {
+                owned.add(clients.get(c));
+            }
+            threads.add(Thread.ofPlatform().name("stress-" + t).start(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    for (int i = 0; i < moves; i++) {
+                        ServerThread st = owned.get(random.nextInt(owned.size()));
+                        Room from = st.getCurrentRoom();
+                        Room to = rooms.get(random.nextInt(rooms.size()));
+                        if (random.nextInt(4) == 0 || from == to) {
+                            from.sendMessage(st, "stress line " + i);
+                        } else {
+                            from.removedClient(st);
+                            to.addClient(st);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    failures.incrementAndGet();
+                    e.printStackTrace();
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        int violations = 0;
+        int total = 0;
+        for (Room room : rooms) {
+            total += room.getClients().size() - 1;
+        }
+        for (ServerThread st : clients) {
+            int homes = 0;
+            for (Room room : rooms) {
+                if (room.getClients().contains(st)) {
+                    homes++;
+                    if (st.getCurrentRoom() != room) {
+                        violations++;
+                    }
+                }
+            }
+            if (homes != 1) {
+                violations++;
+            }
+        }
+        if (total != clientCount) {
+            violations++;
+        }
+        console.println(String.format("%,d operations in %.2fs, members=%d/%d, violations=%d, failures=%d",
+                (long) threadCount * moves, elapsed, total, clientCount, violations, failures.get()));
+        return violations == 0 && failures.get() == 0;
+    }
+
+    private static boolean join(PrintStream console, ServerSocket serverSocket, int memberCount, int joins)
+            throws Exception {
+        console.println(String.format("members=%d joins=%d", memberCount, joins));
+        for (boolean snapshots : new boolean[] { false, true }) {
+            int features = ConnectionPayload.FEATURE_BINARY_CODEC
+                    | (snapshots ? ConnectionPayload.FEATURE_ROOM_SNAPSHOT : 0);
+            Room room = new Room("join-" + snapshots);
+            List<ServerThread> all = new ArrayList<>();
+            for (int m = 0; m < memberCount; m++) {
+                ServerThread st = connect(serverSocket, features);
+                room.addClient(st);
+                all.add(st);
+            }
+            List<ServerThread> joiners = new ArrayList<>();
+            for (int j = 0; j < joins; j++) {
+                joiners.add(connect(serverSocket, features));
+            }
+            all.addAll(joiners);
+            long enqueuedBefore = all.stream().mapToLong(st -> st.getOutboundQueue().getEnqueued()).sum();
+            long nanos = 0;
+            for (ServerThread joiner : joiners) {
+                long start = System.nanoTime();
+                room.addClient(joiner);
+                nanos += System.nanoTime() - start;
+                room.removedClient(joiner); // keeps the room at memberCount for the next join
+            }
+            long enqueued = all.stream().mapToLong(st -> st.getOutboundQueue().getEnqueued()).sum() - enqueuedBefore;
+            long leaveFrames = (long) joins * (memberCount + 1); // one ROOM_JOIN(false) per member and the leaver
+            console.println(String.format("%-9s %,9.0f frames/join %,9.1f us/join", snapshots ? "snapshot" : "legacy",
+                    (enqueued - leaveFrames) / (double) joins, nanos / 1e3 / joins));
+        }
+        return true;
+    }
+
+    private static boolean churn(PrintStream console, ServerSocket serverSocket, int memberCount, int reconnects,
+            int windowMs) throws Exception {
+        console.println(String.format("members=%d reconnects=%d", memberCount, reconnects));
+        int features = ConnectionPayload.FEATURE_BINARY_CODEC | ConnectionPayload.FEATURE_ROOM_SNAPSHOT
+                | ConnectionPayload.FEATURE_PRESENCE_DELTA;
+        boolean ok = true;
+        for (int window : new int[] { 0, windowMs, CHECKED_WINDOW_MS }) {
+            boolean checked = window == CHECKED_WINDOW_MS;
+            Room room = new Room("churn-" + window, window, null, new SearchIndex(ServerConfig.SEARCH_MAX_BYTES));
+            List<ServerThread> all = new ArrayList<>();
+            for (int m = 0; m < memberCount; m++) {
+                ServerThread st = connect(serverSocket, features);
+                room.addClient(st);
+                all.add(st);
+            }
+            settle(room, window, checked); // the joins above
+            List<ServerThread> blipped = all.subList(0, Math.min(reconnects, memberCount));
+            // storm: everyone drops, then everyone rejoins; a rejoiner's snapshot shows the
+            // others still gone, so their rejoins must be announced
+            churnPhase(console, room, all, window, checked, "storm", () -> {
+                blipped.forEach(room::removedClient);
+                blipped.forEach(room::addClient);
+            });
+            // blips: each drops and is back before anyone else syncs; all of it cancels out
+            long cancelled = churnPhase(console, room, all, window, checked, "blips", () -> blipped.forEach(st -> {
+                room.removedClient(st);
+                room.addClient(st);
+            }));
+            ok &= !checked || cancelled == blipped.size();
+            // visitors: new clients join and leave again; members needn't hear of them
+            List<ServerThread> visitors = new ArrayList<>();
+            for (int v = 0; v < blipped.size(); v++) {
+                visitors.add(connect(serverSocket, features));
+            }
+            cancelled = churnPhase(console, room, all, window, checked, "visitors", () -> visitors.forEach(st -> {
+                room.addClient(st);
+                room.removedClient(st);
+            }));
+            ok &= !checked || cancelled == visitors.size();
+            visitors.forEach(ServerThread::disconnect);
+        }
+        console.println(ok ? "churn: every join/leave pair inside a window cancelled" : "FAIL");
+        return ok;
+    }
+
+    /**
+     * @param checked the window outlasts the phase and the delta is flushed
+     *                right after it, so every pair falls inside one window
+     * @return joins/leaves the room's aggregator cancelled during the phase
+     */
+    private static long churnPhase(PrintStream console, Room room, List<ServerThread> all, int window,
+            boolean checked, String name, Runnable phase) throws InterruptedException {
+        PresenceAggregator presence = room.getPresence();
+        long enqueuedBefore = all.stream().mapToLong(st -> st.getOutboundQueue().getEnqueued()).sum();
+        long cancelledBefore = presence.getCancelled();
+        long deltasBefore = presence.getDeltas();
+        long start = System.nanoTime();
+        phase.run();
+        double millis = (System.nanoTime() - start) / 1e6;
+        settle(room, window, checked); // the last delta
+        long enqueued = all.stream().mapToLong(st -> st.getOutboundQueue().getEnqueued()).sum() - enqueuedBefore;
+        long cancelled = presence.getCancelled() - cancelledBefore;
+        console.println(String.format("window=%5dms %-8s %,10d frames queued %,6d cancelled %,4d deltas %,9.1f ms",
+                window, name, enqueued, cancelled, presence.getDeltas() - deltasBefore, millis));
+        return cancelled;
+    }
+
+    private static void settle(Room room, int window, boolean checked) throws InterruptedException {
+        if (checked) {
+            room.getPresence().flush();
+        } else {
+            Thread.sleep(window * 2L); // the scheduled flush
+        }
+    }
+
+    private static boolean scrollback(PrintStream console, ServerSocket serverSocket, int memberCount, int messages,
+            int joins) throws Exception {
+        int rich = ConnectionPayload.FEATURE_BINARY_CODEC | ConnectionPayload.FEATURE_ROOM_SNAPSHOT
+                | ConnectionPayload.FEATURE_RICH_TEXT;
+        Room room = new Room("scrollback");
+        List<ServerThread> members = new ArrayList<>();
+        for (int m = 0; m < memberCount; m++) {
+            ServerThread st = connect(serverSocket, rich);
+            room.addClient(st);
+            members.add(st);
+        }
+        for (int i = 0; i < messages; i++) {
+            room.sendMessage(members.get(i % memberCount), "message **" + i + "** from the #b scrollback b# run");
+        }
+        Scrollback scrollback = room.getScrollback();
+        console.println(String.format("members=%d messages=%d joins=%d", memberCount, messages, joins));
+        console.println("after messages: " + scrollback);
+        boolean ok = true;
+        for (int features : new int[] { rich, 0 }) {
+            // ROOM_JOIN plus a ROOM_SNAPSHOT, or a SYNC_CLIENT per member and a MUTE_LIST
+            int syncFrames = features == 0 ? memberCount + 2 : 2;
+            long frames = 0;
+            long flushes = 0;
+            long nanos = 0;
+            for (int j = 0; j < joins; j++) {
+                ServerThread joiner = connect(serverSocket, features);
+                OutboundQueue queue = joiner.getOutboundQueue();
+                long enqueuedBefore = queue.getEnqueued();
+                int held = scrollback.size(); // a legacy joiner's encodings may evict some afterwards
+                long start = System.nanoTime();
+                room.addClient(joiner);
+                nanos += System.nanoTime() - start;
+                long replayed = queue.getEnqueued() - enqueuedBefore - syncFrames;
+                while (queue.getDepth() > 0 || queue.getWritten() < queue.getEnqueued()) {
+                    Thread.sleep(1); // let the writer send it all
+                }
+                frames += replayed;
+                flushes += queue.getFlushes();
+                ok &= replayed == held;
+                room.removedClient(joiner);
+                joiner.disconnect();
+            }
+            console.println(String.format("%-7s %,7.1f replayed/join %,7.1f writes/join %,9.1f us/join",
+                    features == 0 ? "legacy" : "rich", frames / (double) joins, flushes / (double) joins,
+                    nanos / 1e3 / joins));
+            console.println("  " + scrollback);
+        }
+        members.forEach(room::removedClient); // the last one out closes the room
+        console.println("after the room closed: " + scrollback);
+        return ok && scrollback.size() == 0 && scrollback.getBytes() == 0;
+    }
+
+    private static ServerThread connect(ServerSocket serverSocket) throws IOException {
+        return connect(serverSocket, 0);
+    }
+
+    /**
+     * Opens a loopback connection served by a started ServerThread; the client
+     * end is drained (and counted) on a virtual thread
+     */
+    private static ServerThread connect(ServerSocket serverSocket, int features) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        Frames.writePreamble(out);
+        out.flush();
+        ServerThread st = new ServerThread(serverSocket.accept(), s -> {
+        });
+        st.negotiateFeatures(features);
+        st.start(TransportMode.VIRTUAL.readerThreads());
+        while (!st.isRunning) {
+            Thread.onSpinWait(); // sends before the reader is up are silently skipped
+        }
+        st.sendClientId(nextClientId++);
+        Thread.ofVirtual().start(() -> {
+            byte[] buffer = new byte[16 * 1024];
+            try (InputStream in = socket.getInputStream()) {
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    received.addAndGet(count);
+                }
+            } catch (IOException e) {
+                // closed at exit
+            }
+        });
+        return st;
+    }
+
+    private static int intArg(String[] args, int index, int fallback) {
+        return args.length > index ? Integer.parseInt(args[index]) : fallback;
+    }
+}
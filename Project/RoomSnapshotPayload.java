@@ -0,0 +1,53 @@
+package Project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everyone in a room, sent once to a client that just joined (in place of a
+ * SYNC_CLIENT per member). Only sent to clients that offered
+ * {@link ConnectionPayload#FEATURE_ROOM_SNAPSHOT}; the joiner's resolved
+ * mute list travels in {@link Payload#getMutedUsers()}.
+ */
+public class RoomSnapshotPayload extends Payload {
+    private static final long serialVersionUID = 1L;
+    private String roomName;
+    private List<Long> clientIds = new ArrayList<>(); // same order as clientNames
+    private List<String> clientNames = new ArrayList<>();
+
+    public RoomSnapshotPayload() {
+        setPayloadType(PayloadType.ROOM_SNAPSHOT);
+        setTimestamp(System.currentTimeMillis());
+    }
+
+    // Getter and Setter for roomName
+    public String getRoomName() {
+        return roomName;
+    }
+
+    public void setRoomName(String roomName) {
+        this.roomName = roomName;
+    }
+
+    public void addClient(long clientId, String clientName) {
+        clientIds.add(clientId);
+        clientNames.add(clientName);
+    }
+
+    public List<Long> getClientIds() {
+        return clientIds;
+    }
+
+    public List<String> getClientNames() {
+        return clientNames;
+    }
+
+    public int size() {
+        return clientIds.size();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + String.format(" [RoomSnapshotPayload] Room: %s, Members: %d", roomName, size());
+    }
+}
@@ -0,0 +1,195 @@
+package Project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last messages said in a room, replayed to clients that join (or
+ * reconnect) later.
+ * <p>
+ * A fixed-size ring of {@link MessageFrames}: each message keeps the frames
+ * the room already built and encoded for its members, so a replay normally
+ * costs no parsing or encoding. Messages drop out when the ring is full,
+ * when they are older than the age limit, or when the bytes held (the
+ * encodings plus the text) would exceed the room's cap.
+ * </p>
+ */
+public class Scrollback {
+    /**
+     * One message in the ring
+     */
+    static final class Entry {
+        private final MessageFrames frames;
+        private int bytes; // last measured, counted in Scrollback.bytes while the entry is held
+        private boolean evicted;
+
+        private Entry(MessageFrames frames) {
+            this.frames = frames;
+        }
+    }
+
+    private final Entry[] ring;
+    private final long maxAgeMillis;
+    private final long maxBytes;
+    private int head = 0; // index of the oldest entry
+    private int size = 0;
+    private long bytes = 0;
+    private long added = 0;
+    private long evicted = 0;
+
+    public Scrollback() {
+        this(ServerConfig.SCROLLBACK_MESSAGES, TimeUnit.MINUTES.toMillis(ServerConfig.SCROLLBACK_MINUTES),
+                ServerConfig.SCROLLBACK_MAX_BYTES);
+    }
+
+    /**
+     * @param messages     most messages kept (0 disables the scrollback)
+     * @param maxAgeMillis older messages aren't replayed
+     * @param maxBytes     memory cap (approximate, see
+     *                     {@link MessageFrames#encode()})
+     */
+    public Scrollback(int messages, long maxAgeMillis, long maxBytes) {
+        ring = new Entry[Math.max(0, messages)];
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isEnabled() {
+        return ring.length > 0;
+    }
+
+    /**
+     * Adds a message before it's sent to the room, so a client that joins
+     * meanwhile gets it live, replayed or (rarely) both, but never misses it
+     *
+     * @param frames
+     * @return the entry to pass to {@link #encoded(Entry)} after the
+     *         broadcast, or null if the scrollback is disabled
+     */
+    public synchronized Entry add(MessageFrames frames) {
+        if (ring.length == 0) {
+            return null;
+        }
+        if (size == ring.length) {
+            evictOldest();
+        }
+        Entry entry = new Entry(frames);
+        ring[(head + size) % ring.length] = entry;
+        size++;
+        added++;
+        return entry;
+    }
+
+    /**
+     * Encodes the message in the forms the room used and counts it against
+     * the cap; called once the broadcast handed out its frames
+     *
+     * @param entry from {@link #add(MessageFrames)}, may be null
+     */
+    public void encoded(Entry entry) {
+        if (entry != null) {
+            remeasure(List.of(entry));
+        }
+    }
+
+    /**
+     * @param client the joining client, after its mute list is loaded
+     * @return the frames to replay, oldest first, without messages from
+     *         clients it muted
+     */
+    public List<OutboundFrame> replayFor(ServerThread client) {
+        List<Entry> entries = new ArrayList<>();
+        synchronized (this) {
+            expire(System.currentTimeMillis());
+            for (int i = 0; i < size; i++) {
+                Entry entry = ring[(head + i) % ring.length];
+                long senderId = entry.frames.getSenderId();
+                if (senderId == ServerThread.DEFAULT_CLIENT_ID || !client.isMuted(senderId)) {
+                    entries.add(entry);
+                }
+            }
+        }
+        List<OutboundFrame> frames = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            frames.add(entry.frames.frameFor(client));
+        }
+        // the client may need a form or format nobody else did; encode and count it now
+        remeasure(entries);
+        return frames;
+    }
+
+    /**
+     * Drops every message, i.e., when the room closes
+     *
+     * @return bytes released
+     */
+    public synchronized long clear() {
+        long released = bytes;
+        while (size > 0) {
+            evictOldest();
+        }
+        return released;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return approximate memory held by the messages
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Scrollback[messages=%d/%d, bytes=%d/%d, added=%d, evicted=%d]", size, ring.length,
+                bytes, maxBytes, added, evicted);
+    }
+
+    private void remeasure(List<Entry> entries) {
+        for (Entry entry : entries) {
+            int measured;
+            try {
+                measured = entry.frames.encode(); // outside the lock; the frames guard themselves
+            } catch (IOException e) {
+                Log.warn("Scrollback", "Unable to encode scrollback message: " + e.getMessage());
+                continue; // the writer will report it when it tries the same encoding
+            }
+            synchronized (this) {
+                if (!entry.evicted) {
+                    bytes += measured - entry.bytes;
+                    entry.bytes = measured;
+                }
+            }
+        }
+        synchronized (this) {
+            while (size > 0 && bytes > maxBytes) {
+                evictOldest();
+            }
+        }
+    }
+
+    private void expire(long now) {
+        while (size > 0 && now - ring[head].frames.getTimestamp() > maxAgeMillis) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        Entry oldest = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+        oldest.evicted = true;
+        bytes -= oldest.bytes;
+        evicted++;
+    }
+}
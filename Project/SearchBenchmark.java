@@ -0,0 +1,209 @@
+package Project;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * SearchIndex against scanning the history, on generated chat: words drawn
+ * from a skewed vocabulary so a few are very common and most are rare, with
+ * some markup.
+ * <ul>
+ * <li>bench: indexing cost and memory per message, then search time for
+ * common, rare, two-word and missing terms against a linear scan of every
+ * message</li>
+ * <li>check: random queries and pages against a linear scan of the messages
+ * the index still holds, with a muted sender left out, under a byte budget
+ * small enough to evict; exits with 1 on the first difference or if the
+ * index outgrows its budget</li>
+ * <li>rebuild: writes the messages to a journal in a temporary directory and
+ * times reopening it and rebuilding the index, as at startup</li>
+ * </ul>
+ * Usage: java Project.SearchBenchmark [bench|check|rebuild] [messages]
+ */
+public class SearchBenchmark {
+    private static final int VOCABULARY = 20_000;
+    private static final String[] MARKUP = { "**%s**", "*%s*", "_%s_", "#r %s r#" };
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "bench";
+        switch (mode) {
+            case "bench" -> bench(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            case "check" -> {
+                if (!check(args.length > 1 ? Integer.parseInt(args[1]) : 50_000)) {
+                    System.exit(1);
+                }
+            }
+            case "rebuild" -> rebuild(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            default -> System.out.println("Usage: java Project.SearchBenchmark [bench|check|rebuild] [messages]");
+        }
+    }
+
+    private static void bench(int count) {
+        List<String> messages = messages(count, new Random(42));
+        SearchIndex index = new SearchIndex(Long.MAX_VALUE);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            index.add(i % 50, "user" + (i % 50), i, messages.get(i));
+        }
+        long nanos = System.nanoTime() - start;
+        long textBytes = 0;
+        for (String message : messages) {
+            textBytes += message.length();
+        }
+        System.out.println(String.format("indexed %,d messages: %,.0f ns/message, %,d bytes (%.1f per message, %,d of them text)",
+                count, (double) nanos / count, index.getBytes(), (double) index.getBytes() / count, textBytes));
+        System.out.println(String.format("%-24s %10s %14s %14s", "query", "hits", "index us", "scan us"));
+        String[] queries = { word(0), word(VOCABULARY - 1), word(1) + " " + word(2), word(3) + " " + word(5000),
+                "nosuchword" };
+        for (String query : queries) {
+            int[] hits = new int[1];
+            double indexed = Benchmarks.nanosPerOp(50, 200,
+                    i -> hits[0] = index.search(query, 1, 10, null, new SearchPayload()));
+            List<String> terms = SearchIndex.terms(query);
+            double scanned = Benchmarks.nanosPerOp(0, 2, i -> Benchmarks.consume(scan(messages, terms, 10)));
+            System.out.println(String.format("%-24s %,10d %,14.1f %,14.1f", query, hits[0], indexed / 1000,
+                    scanned / 1000));
+        }
+    }
+
+    private static boolean check(int count) {
+        Random random = new Random(7);
+        List<String> messages = messages(count, random);
+        long budget = 2 << 20;
+        SearchIndex index = new SearchIndex(budget);
+        long muted = 3;
+        long maxBytes = 0;
+        for (int i = 0; i < count; i++) {
+            index.add(i % 10, "user" + (i % 10), i, messages.get(i));
+            maxBytes = Math.max(maxBytes, index.getBytes());
+        }
+        // what the index still holds: the newest messages, whole blocks
+        int kept = index.size();
+        List<String> held = messages.subList(count - kept, count);
+        if (kept == count || maxBytes > budget) {
+            System.out.println(String.format("FAIL: kept %d of %d messages, peak %d bytes of a %d budget", kept,
+                    count, maxBytes, budget));
+            return false;
+        }
+        int queries = 0;
+        for (int q = 0; q < 2000; q++) {
+            String query = random.nextBoolean() ? word(zipf(random)) : word(zipf(random)) + " " + word(zipf(random));
+            List<Integer> expected = new ArrayList<>(); // message numbers, newest first
+            List<String> terms = SearchIndex.terms(query);
+            for (int i = held.size() - 1; i >= 0; i--) {
+                int number = count - kept + i;
+                if (number % 10 != muted && SearchIndex.terms(held.get(i)).containsAll(terms)) {
+                    expected.add(number);
+                }
+            }
+            int pageSize = 1 + random.nextInt(20);
+            int pages = Math.max(1, (expected.size() + pageSize - 1) / pageSize);
+            int page = 1 + random.nextInt(pages + 1); // sometimes one past the end
+            SearchPayload results = new SearchPayload();
+            int total = index.search(query, page, pageSize, id -> id == muted, results);
+            List<Integer> got = new ArrayList<>();
+            for (int i = 0; i < results.getHitCount(); i++) {
+                got.add(results.getTimestamps().get(i).intValue()); // the message number went in as timestamp
+                if (!messages.get(got.get(i)).equals(results.getMessages().get(i))) {
+                    System.out.println("FAIL: hit " + got.get(i) + " has the wrong text");
+                    return false;
+                }
+            }
+            int from = Math.min(expected.size(), (page - 1) * pageSize);
+            List<Integer> want = expected.subList(from, Math.min(expected.size(), from + pageSize));
+            if (total != expected.size() || !got.equals(want)) {
+                System.out.println(String.format("FAIL: '%s' page %d/%d: %d hits %s, expected %d %s", query, page,
+                        pageSize, total, got, expected.size(), want));
+                return false;
+            }
+            queries++;
+        }
+        System.out.println(String.format(
+                "check: %d queries match a scan of the %,d of %,d messages kept; peak %,d bytes of a %,d budget; %s",
+                queries, kept, count, maxBytes, budget, index));
+        return true;
+    }
+
+    private static void rebuild(int count) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("search-rebuild");
+        try {
+            List<String> messages = messages(count, new Random(42));
+            MessageJournal journal = new MessageJournal(dir, 16 << 20, 1000, MessageJournal.Durability.NONE, 20,
+                    64 * 1024, 0);
+            for (int i = 0; i < count; i++) {
+                while (!journal.append(PayloadType.MESSAGE, i % 4 == 0 ? "games" : "lobby", i % 50, "user" + (i % 50),
+                        ServerThread.DEFAULT_CLIENT_ID, messages.get(i))) {
+                    Thread.yield();
+                }
+            }
+            journal.close();
+            long start = System.nanoTime();
+            MessageJournal reopened = MessageJournal.open(dir);
+            long opened = System.nanoTime();
+            Map<String, SearchIndex> indexes = SearchIndex.rebuild(reopened, ServerConfig.SEARCH_MAX_BYTES);
+            long rebuilt = System.nanoTime();
+            reopened.close();
+            System.out.println(String.format("rebuild: %,d journaled messages, open %,d ms, rebuild %,d ms", count,
+                    (opened - start) / 1_000_000, (rebuilt - opened) / 1_000_000));
+            indexes.forEach((room, index) -> System.out.println("  " + room + ": " + index));
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * What /search had to do without an index
+     */
+    private static List<String> scan(List<String> messages, List<String> terms, int limit) {
+        List<String> hits = new ArrayList<>();
+        int total = 0;
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (SearchIndex.terms(messages.get(i)).containsAll(terms)) {
+                if (total++ < limit) {
+                    hits.add(messages.get(i));
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static List<String> messages(int count, Random random) {
+        List<String> messages = new ArrayList<>(count);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.setLength(0);
+            int words = 3 + random.nextInt(10);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    sb.append(' ');
+                }
+                String word = word(zipf(random));
+                if (random.nextInt(20) == 0) {
+                    word = String.format(MARKUP[random.nextInt(MARKUP.length)], word);
+                }
+                sb.append(random.nextInt(10) == 0 ? word.toUpperCase() : word);
+            }
+            messages.add(sb.toString());
+        }
+        return messages;
+    }
+
+    private static int zipf(Random random) {
+        return (int) (VOCABULARY * Math.pow(random.nextDouble(), 4));
+    }
+
+    private static String word(int n) {
+        return "w" + Integer.toString(n, 36);
+    }
+}
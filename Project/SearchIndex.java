@@ -0,0 +1,368 @@
+package Project;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+/**
+ * Incremental inverted index over a room's messages, for /search.
+ * <p>
+ * Messages get increasing sequence numbers. Each term (a lowercase run of
+ * letters and digits from the message's text, without markup) maps to a
+ * posting list of the sequence numbers it occurs in, stored as varint gaps in
+ * a byte array, so a common term costs about a byte per message. The messages
+ * themselves are kept in a ring to return as hits.
+ * </p>
+ * <p>
+ * A search intersects the posting lists of all its terms, starting from the
+ * rarest, and returns one page of hits, newest first. When the index holds
+ * more than its byte budget the oldest quarter of the messages is dropped and
+ * the posting lists are compacted, so very old messages stop being found but
+ * memory stays bounded. At startup the indexes are rebuilt from the message
+ * journal, see {@link #rebuild(MessageJournal, long)}.
+ * </p>
+ */
+public class SearchIndex {
+    private static final int MIN_TERM = 2; // shorter tokens match too much to be worth a posting list
+    private static final int MAX_TERM = 32;
+    private static final int MAX_QUERY_TERMS = 8;
+    // rough sizes for the byte budget
+    private static final int TERM_OVERHEAD = 112; // map entry, String and Postings objects
+    private static final int MESSAGE_OVERHEAD = 8 + 8 + 4 + 4 + 48; // ring slots and the String
+    private static final int NAME_OVERHEAD = 48;
+
+    private final long maxBytes;
+    private final Map<String, Postings> postings = new HashMap<>();
+    // ring of the messages still searchable, the oldest at head
+    private long[] senderIds = new long[64];
+    private long[] timestamps = new long[64];
+    private String[] names = new String[64];
+    private String[] messages = new String[64];
+    private int head = 0;
+    private int count = 0;
+    private long firstSeq = 1; // sequence number of the message at head
+    private long bytes = 0;
+    private long evicted = 0;
+    private int compactions = 0;
+
+    /**
+     * @param maxBytes approximate memory the index may hold
+     */
+    public SearchIndex(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Indexes a message
+     *
+     * @param senderId
+     * @param senderName
+     * @param timestamp
+     * @param message    raw text with markup
+     * @return the message's sequence number in this index
+     */
+    public synchronized long add(long senderId, String senderName, long timestamp, String message) {
+        if (count == messages.length) {
+            grow();
+        }
+        long seq = firstSeq + count;
+        int slot = (head + count) % messages.length;
+        senderIds[slot] = senderId;
+        timestamps[slot] = timestamp;
+        names[slot] = senderName;
+        messages[slot] = message;
+        count++;
+        bytes += MESSAGE_OVERHEAD + (message == null ? 0 : message.length())
+                + (senderName == null ? 0 : NAME_OVERHEAD + senderName.length());
+        for (String term : terms(message)) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                list = new Postings();
+                postings.put(term, list);
+                bytes += TERM_OVERHEAD + term.length();
+            }
+            bytes += list.add(seq);
+        }
+        if (bytes > maxBytes && count > 1) {
+            evict(Math.max(1, count / 4));
+        }
+        return seq;
+    }
+
+    /**
+     * Finds the messages containing every term of the query
+     *
+     * @param query      words to look for; markup and case are ignored
+     * @param page       1 based
+     * @param pageSize
+     * @param skipSender senders whose messages aren't returned (i.e., the
+     *                   searcher muted them), or null
+     * @param results    receives the hits of the page, newest first, and the
+     *                   total
+     * @return total number of hits
+     */
+    public synchronized int search(String query, int page, int pageSize, LongPredicate skipSender,
+            SearchPayload results) {
+        List<String> terms = terms(query);
+        if (terms.size() > MAX_QUERY_TERMS) {
+            terms = terms.subList(0, MAX_QUERY_TERMS);
+        }
+        long[] matches = match(terms);
+        int skip = (Math.max(1, page) - 1) * pageSize;
+        int total = 0;
+        for (int i = matches.length - 1; i >= 0; i--) {
+            int slot = (int) ((head + (matches[i] - firstSeq)) % messages.length);
+            if (skipSender != null && skipSender.test(senderIds[slot])) {
+                continue;
+            }
+            if (total >= skip && total < skip + pageSize) {
+                results.addHit(matches[i], timestamps[slot], names[slot], messages[slot]);
+            }
+            total++;
+        }
+        results.setPage(Math.max(1, page));
+        results.setPageSize(pageSize);
+        results.setTotalHits(total);
+        return total;
+    }
+
+    /**
+     * @return messages that can still be found
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return approximate memory held
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("SearchIndex[messages=%d, terms=%d, bytes=%d/%d, evicted=%d, compactions=%d]", count,
+                postings.size(), bytes, maxBytes, evicted, compactions);
+    }
+
+    /**
+     * Indexes the room messages still in the journal, one index per room
+     *
+     * @param journal
+     * @param maxBytes budget of each index
+     * @return lowercase room name -&gt; index
+     * @throws IOException
+     */
+    public static Map<String, SearchIndex> rebuild(MessageJournal journal, long maxBytes) throws IOException {
+        Map<String, SearchIndex> indexes = new HashMap<>();
+        journal.replay(record -> {
+            if (record.getType() == PayloadType.MESSAGE && record.getRoom() != null) {
+                indexes.computeIfAbsent(record.getRoom().toLowerCase(), r -> new SearchIndex(maxBytes)).add(
+                        record.getSenderId(), record.getSenderName(), record.getTimestamp(), record.getMessage());
+            }
+        });
+        return indexes;
+    }
+
+    /**
+     * @param text raw text with markup
+     * @return distinct lowercase terms, in order of appearance
+     */
+    public static List<String> terms(String text) {
+        if (text == null || text.isEmpty()) {
+            return List.of();
+        }
+        String plain = MessageFormatter.parse(text).getText();
+        Set<String> terms = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= plain.length(); i++) {
+            boolean letter = i < plain.length() && Character.isLetterOrDigit(plain.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                int length = i - start;
+                if (length >= MIN_TERM) {
+                    terms.add(plain.substring(start, start + Math.min(length, MAX_TERM)).toLowerCase());
+                }
+                start = -1;
+            }
+        }
+        return new ArrayList<>(terms);
+    }
+
+    /**
+     * @return sequence numbers of the messages with every term, ascending
+     */
+    private long[] match(List<String> terms) {
+        if (terms.isEmpty()) {
+            return new long[0];
+        }
+        Postings[] lists = new Postings[terms.size()];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = postings.get(terms.get(i));
+            if (lists[i] == null) {
+                return new long[0];
+            }
+        }
+        // start from the rarest term; each step can only shrink the candidates
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+        long[] result = lists[0].retain(null, firstSeq);
+        for (int i = 1; i < lists.length && result.length > 0; i++) {
+            result = lists[i].retain(result, firstSeq);
+        }
+        return result;
+    }
+
+    private void grow() {
+        int capacity = messages.length * 2;
+        long[] ids = new long[capacity];
+        long[] times = new long[capacity];
+        String[] senders = new String[capacity];
+        String[] texts = new String[capacity];
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % messages.length;
+            ids[i] = senderIds[slot];
+            times[i] = timestamps[slot];
+            senders[i] = names[slot];
+            texts[i] = messages[slot];
+        }
+        bytes += (long) (capacity - messages.length) * (8 + 8 + 4 + 4);
+        senderIds = ids;
+        timestamps = times;
+        names = senders;
+        messages = texts;
+        head = 0;
+    }
+
+    /**
+     * Drops the oldest messages and rewrites the posting lists without them
+     */
+    private void evict(int drop) {
+        for (int i = 0; i < drop; i++) {
+            String message = messages[head];
+            String name = names[head];
+            bytes -= MESSAGE_OVERHEAD + (message == null ? 0 : message.length())
+                    + (name == null ? 0 : NAME_OVERHEAD + name.length());
+            names[head] = null;
+            messages[head] = null;
+            head = (head + 1) % messages.length;
+        }
+        count -= drop;
+        firstSeq += drop;
+        evicted += drop;
+        Iterator<Map.Entry<String, Postings>> it = postings.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Postings> entry = it.next();
+            Postings list = entry.getValue();
+            bytes -= list.data.length;
+            if (list.last < firstSeq) {
+                bytes -= TERM_OVERHEAD + entry.getKey().length();
+                it.remove();
+            } else {
+                list.trim(firstSeq);
+                bytes += list.data.length;
+            }
+        }
+        compactions++;
+    }
+
+    /**
+     * Ascending sequence numbers as varint gaps
+     */
+    private static final class Postings {
+        byte[] data = new byte[4];
+        int length = 0;
+        int size = 0;
+        long base = 0; // the value the first gap is relative to
+        long last = 0;
+
+        /**
+         * @return bytes the backing array grew by
+         */
+        int add(long seq) {
+            int grown = 0;
+            if (length + 10 > data.length) {
+                int capacity = Math.max(data.length * 2, length + 10);
+                grown = capacity - data.length;
+                data = Arrays.copyOf(data, capacity);
+            }
+            long gap = size == 0 ? seq - base : seq - last;
+            while (gap >= 0x80) {
+                data[length++] = (byte) (gap | 0x80);
+                gap >>>= 7;
+            }
+            data[length++] = (byte) gap;
+            last = seq;
+            size++;
+            return grown;
+        }
+
+        /**
+         * @param candidates ascending, or null for every value
+         * @param floor      values below it were evicted
+         * @return the candidates (at least floor) that are also in this list
+         */
+        long[] retain(long[] candidates, long floor) {
+            long[] kept = new long[candidates == null ? size : candidates.length];
+            int count = 0;
+            int c = 0;
+            long value = base;
+            int pos = 0;
+            for (int i = 0; i < size; i++) {
+                long gap = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    gap |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                value += gap;
+                if (value < floor) {
+                    continue;
+                }
+                if (candidates == null) {
+                    kept[count++] = value;
+                    continue;
+                }
+                while (c < candidates.length && candidates[c] < value) {
+                    c++;
+                }
+                if (c == candidates.length) {
+                    break;
+                }
+                if (candidates[c] == value) {
+                    kept[count++] = value;
+                    c++;
+                }
+            }
+            return count == kept.length ? kept : Arrays.copyOf(kept, count);
+        }
+
+        /**
+         * Rewrites the list without values below floor, in a right-sized
+         * array
+         */
+        void trim(long floor) {
+            long[] values = retain(null, floor);
+            data = new byte[values.length * 2 + 10];
+            length = 0;
+            size = 0;
+            base = floor;
+            for (long value : values) {
+                add(value);
+            }
+            if (length + 10 < data.length) {
+                data = Arrays.copyOf(data, length + 10); // room for the next append
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package Project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A /search request and its results. The client sends the terms in
+ * {@link Payload#getMessage()} and the page it wants; the server answers with
+ * the same query and page, the total number of hits and one page of
+ * matching messages from the room's {@link SearchIndex}, newest first.
+ */
+public class SearchPayload extends Payload {
+    private static final long serialVersionUID = 1L;
+    private String roomName;
+    private int page = 1; // 1 based
+    private int pageSize;
+    private int totalHits;
+    private List<Long> seqs = new ArrayList<>(); // same order as the other hit lists
+    private List<Long> timestamps = new ArrayList<>();
+    private List<String> senderNames = new ArrayList<>();
+    private List<String> messages = new ArrayList<>(); // raw text, with its markup
+
+    public SearchPayload() {
+        setPayloadType(PayloadType.SEARCH);
+        setTimestamp(System.currentTimeMillis());
+    }
+
+    // Getter and Setter for roomName
+    public String getRoomName() {
+        return roomName;
+    }
+
+    public void setRoomName(String roomName) {
+        this.roomName = roomName;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public void setPage(int page) {
+        this.page = page;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    public void setTotalHits(int totalHits) {
+        this.totalHits = totalHits;
+    }
+
+    /**
+     * @return pages needed for all hits
+     */
+    public int getPageCount() {
+        return pageSize <= 0 ? 0 : (totalHits + pageSize - 1) / pageSize;
+    }
+
+    public void addHit(long seq, long timestamp, String senderName, String message) {
+        seqs.add(seq);
+        timestamps.add(timestamp);
+        senderNames.add(senderName);
+        messages.add(message);
+    }
+
+    public int getHitCount() {
+        return seqs.size();
+    }
+
+    public List<Long> getSeqs() {
+        return seqs;
+    }
+
+    public List<Long> getTimestamps() {
+        return timestamps;
+    }
+
+    public List<String> getSenderNames() {
+        return senderNames;
+    }
+
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + String.format(" [SearchPayload] Room: %s, Page: %d, Hits: %d of %d", roomName, page,
+                seqs.size(), totalHits);
+    }
+}
@@ -3,9 +3,17 @@ package Project;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpServer;
 
 public enum Server {
     INSTANCE;
@@ -13,37 +21,84 @@ public enum Server {
     private int port = 3000;
     private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
     private boolean isRunning = true;
-    private long nextClientId = 1;
-    private final Set<ServerThread> clients = ConcurrentHashMap.newKeySet(); // Thread-safe set for connected clients
+    private final AtomicLong nextClientId = new AtomicLong(1); // initializations can run on several threads
+    // connected clients indexed by id and by lowercase name; updated on initialize and cleanup
+    private final ConcurrentHashMap<Long, ServerThread> clientsById = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ServerThread> clientsByName = new ConcurrentHashMap<>();
+    private NioServer nioServer; // only used by TransportMode.NIO
+    private HttpServer metricsServer; // null when the /metrics endpoint is off
+    private MessageJournal journal; // null when journaling is off or the directory couldn't be opened
+    // search indexes of rooms that aren't open (rebuilt from the journal, or kept when the room closed) by lowercase
+    // name, least recently closed first; handed back when the room is created again. Guarded by itself.
+    private final LinkedHashMap<String, SearchIndex> closedIndexes = new LinkedHashMap<>();
 
     private Server() {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            System.out.println("JVM is shutting down. Perform cleanup tasks.");
+            Log.info("Server", "JVM is shutting down. Perform cleanup tasks.");
             shutdown();
         }));
     }
 
-    private void start(int port) {
+    private void start(int port, TransportMode mode) {
         this.port = port;
-        System.out.println("Listening on port " + this.port);
+        Log.info("Server", "Listening on port %s using %s transport", this.port, mode);
+        if (!ServerConfig.JOURNAL_DIR.isEmpty()) {
+            try {
+                journal = MessageJournal.open(Path.of(ServerConfig.JOURNAL_DIR));
+                long start = System.nanoTime();
+                Map<String, SearchIndex> indexes = SearchIndex.rebuild(journal, ServerConfig.SEARCH_MAX_BYTES);
+                indexes.forEach(this::keepIndex);
+                Log.info("Server", "Rebuilt search indexes of %d rooms in %d ms", indexes.size(),
+                        (System.nanoTime() - start) / 1_000_000);
+            } catch (IOException e) {
+                Log.error("Server", "Error opening message journal, continuing without it", e);
+            }
+        }
+        if (ServerConfig.METRICS_PORT > 0) {
+            try {
+                metricsServer = Metrics.serve(ServerConfig.METRICS_PORT, this::scrape);
+                Log.info("Server", "Metrics at http://127.0.0.1:%d/metrics", ServerConfig.METRICS_PORT);
+            } catch (IOException e) {
+                Log.warn("Server", "Metrics endpoint unavailable on port " + ServerConfig.METRICS_PORT + ": "
+                        + e.getMessage());
+            }
+        }
+        createRoom(Room.LOBBY); // Create the default lobby room
+        if (mode == TransportMode.NIO) {
+            startNio();
+        } else {
+            startBlocking(mode.readerThreads());
+        }
+    }
 
+    private void startBlocking(ThreadFactory readerThreads) {
         try (ServerSocket serverSocket = new ServerSocket(port)) {
-            createRoom(Room.LOBBY); // Create the default lobby room
             while (isRunning) {
-                System.out.println("Waiting for next client");
+                Log.debug("Server", "Waiting for next client");
                 Socket incomingClient = serverSocket.accept();
-                System.out.println("Client connected");
+                Log.info("Server", "Client connected");
 
                 // Create and initialize a new client thread
                 ServerThread sClient = new ServerThread(incomingClient, this::onClientInitialized);
-                sClient.start();
+                sClient.start(readerThreads);
             }
         } catch (IOException e) {
-            System.err.println("Error accepting connection");
-            e.printStackTrace();
+            Log.error("Server", "Error accepting connection", e);
+        } finally {
+            shutdown();
+            Log.info("Server", "Closing server socket");
+        }
+    }
+
+    private void startNio() {
+        try {
+            nioServer = new NioServer(port, ServerConfig.NIO_EVENT_LOOPS, this::onClientInitialized);
+            nioServer.start(); // accepts on this thread until closed
+        } catch (IOException e) {
+            Log.error("Server", "Error accepting connection", e);
         } finally {
             shutdown();
-            System.out.println("Closing server socket");
+            Log.info("Server", "Closing server channel");
         }
     }
 
@@ -52,12 +107,23 @@ public enum Server {
      */
     private void shutdown() {
         try {
-            clients.forEach(ServerThread::disconnect); // Disconnect all clients
-            clients.clear(); // Clear the clients set
+            getAllClients().forEach(ServerThread::disconnect); // Disconnect all clients
+            clientsById.clear(); // Clear the client indexes
+            clientsByName.clear();
             rooms.values().forEach(Room::close); // Close all rooms
+            if (nioServer != null) {
+                nioServer.close(); // Stop the event loops
+            }
+            if (journal != null) {
+                journal.close(); // Write and force what's still queued
+            }
+            if (metricsServer != null) {
+                metricsServer.stop(0);
+            }
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.error("Server", "Error shutting down", e);
         }
+        Log.flush();
     }
 
     /**
@@ -66,23 +132,20 @@ public enum Server {
      * @param sClient the initialized client
      */
     private void onClientInitialized(ServerThread sClient) {
-        sClient.sendClientId(nextClientId);
-        nextClientId++;
-        if (nextClientId < 0) {
-            nextClientId = 1;
-        }
-        clients.add(sClient); // Add the client to the tracked set
-        System.out.println(String.format("Server: *%s[%s] initialized*", sClient.getClientName(), sClient.getClientId()));
+        long clientId = nextClientId.getAndUpdate(id -> id == Long.MAX_VALUE ? 1 : id + 1);
+        sClient.sendClientId(clientId);
+        addClient(sClient);
+        Log.info("Server", "*%s[%s] initialized*", sClient.getClientName(), sClient.getClientId());
         joinRoom(Room.LOBBY, sClient); // Add the client to the lobby room
     }
 
     /**
      * Get all currently connected clients.
      * 
-     * @return a set of all connected clients
+     * @return all connected clients (a live read-only view)
      */
-    public Set<ServerThread> getAllClients() {
-        return new HashSet<>(clients); // Return a thread-safe copy
+    public Collection<ServerThread> getAllClients() {
+        return Collections.unmodifiableCollection(clientsById.values()); // weakly consistent view, no copy
     }
 
     /**
@@ -92,10 +155,46 @@ public enum Server {
      * @return the matching client, or null if not found
      */
     protected ServerThread getClientById(long clientId) {
-        return clients.stream()
-                .filter(client -> client.getClientId() == clientId)
-                .findFirst()
-                .orElse(null);
+        return clientsById.get(clientId);
+    }
+
+    /**
+     * Get a client by name, ignoring case. If several clients share a name the
+     * most recently initialized one is returned.
+     * 
+     * @param clientName the client name
+     * @return the matching client, or null if not found
+     */
+    protected ServerThread getClientByName(String clientName) {
+        return clientName == null ? null : clientsByName.get(clientName.toLowerCase());
+    }
+
+    /**
+     * Adds the client to the id and name indexes
+     * 
+     * @param client has its id (and name, if any) already
+     */
+    protected void addClient(ServerThread client) {
+        clientsById.put(client.getClientId(), client);
+        if (client.getClientName() != null) {
+            clientsByName.put(client.getClientName().toLowerCase(), client);
+        }
+        Metrics.connected();
+    }
+
+    /**
+     * Drops a client from the indexes once its connection is closed
+     * 
+     * @param client the client being cleaned up
+     */
+    protected void removeClient(ServerThread client) {
+        // conditional removes so a stale client can't evict a newer one with the same id/name
+        if (clientsById.remove(client.getClientId(), client)) {
+            Metrics.disconnected();
+        }
+        if (client.getClientName() != null) {
+            clientsByName.remove(client.getClientName().toLowerCase(), client);
+        }
     }
 
     /**
@@ -109,12 +208,31 @@ public enum Server {
         if (rooms.containsKey(nameCheck)) {
             return false; // Room already exists
         }
-        Room room = new Room(name);
+        SearchIndex index;
+        synchronized (closedIndexes) {
+            index = closedIndexes.remove(nameCheck);
+        }
+        Room room = new Room(name, ServerConfig.PRESENCE_WINDOW_MS, journal,
+                index != null ? index : new SearchIndex(ServerConfig.SEARCH_MAX_BYTES));
         rooms.put(nameCheck, room);
-        System.out.println(String.format("Created new Room %s", name));
+        Log.info("Server", "Created new Room %s", name);
         return true;
     }
 
+    /**
+     * @return what Metrics reports about the server right now
+     */
+    protected Metrics.Scrape scrape() {
+        return new Metrics.Scrape(Collections.unmodifiableCollection(rooms.values()), clientsById.size());
+    }
+
+    /**
+     * @return the message journal, or null if messages aren't journaled
+     */
+    protected MessageJournal getJournal() {
+        return journal;
+    }
+
     /**
      * Attempt to move a client to a specific room.
      * 
@@ -124,7 +242,9 @@ public enum Server {
      */
     protected boolean joinRoom(String name, ServerThread client) {
         final String nameCheck = name.toLowerCase();
-        if (!rooms.containsKey(nameCheck)) {
+        // looked up once; if it closes from here on, addClient sends the client to the lobby
+        Room nextRoom = rooms.get(nameCheck);
+        if (nextRoom == null) {
             return false; // Room does not exist
         }
 
@@ -133,7 +253,6 @@ public enum Server {
             currentRoom.removedClient(client); // Remove the client from their current room
         }
 
-        Room nextRoom = rooms.get(nameCheck);
         nextRoom.addClient(client); // Add the client to the target room
         return true;
     }
@@ -144,8 +263,35 @@ public enum Server {
      * @param room the room to remove
      */
     protected void removeRoom(Room room) {
-        rooms.remove(room.getName().toLowerCase());
-        System.out.println(String.format("Server removed room %s", room.getName()));
+        String nameCheck = room.getName().toLowerCase();
+        keepIndex(nameCheck, room.getSearchIndex()); // before the name is free again, so a new room finds it
+        rooms.remove(nameCheck);
+        Log.info("Server", "Removed room %s", room.getName());
+    }
+
+    /**
+     * Keeps a room's search index until the room is created again, releasing
+     * the least recently kept ones beyond ServerConfig.SEARCH_CLOSED_MAX_BYTES
+     * 
+     * @param nameCheck lowercase room name
+     * @param index
+     */
+    private void keepIndex(String nameCheck, SearchIndex index) {
+        synchronized (closedIndexes) {
+            closedIndexes.remove(nameCheck); // re-inserted as the most recent
+            closedIndexes.put(nameCheck, index);
+            long bytes = 0;
+            for (SearchIndex kept : closedIndexes.values()) {
+                bytes += kept.getBytes();
+            }
+            Iterator<Map.Entry<String, SearchIndex>> oldest = closedIndexes.entrySet().iterator();
+            while (bytes > ServerConfig.SEARCH_CLOSED_MAX_BYTES && oldest.hasNext()) {
+                Map.Entry<String, SearchIndex> released = oldest.next();
+                bytes -= released.getValue().getBytes();
+                oldest.remove();
+                Log.info("Server", "Released the search index of room %s", released.getKey());
+            }
+        }
     }
 
     /**
@@ -154,13 +300,14 @@ public enum Server {
      * @param message the message to broadcast
      */
     protected void broadcast(String message) {
-        for (ServerThread client : clients) {
-            client.sendMessage(message);
+        MessageFrames frames = new MessageFrames(ServerThread.DEFAULT_CLIENT_ID, PayloadType.MESSAGE, message);
+        for (ServerThread client : clientsById.values()) {
+            client.send(frames.frameFor(client));
         }
     }
 
     public static void main(String[] args) {
-        System.out.println("Server Starting");
+        Log.info("Server", "Server Starting");
         Server server = Server.INSTANCE;
         int port = 3000;
         try {
@@ -168,7 +315,9 @@ public enum Server {
         } catch (Exception e) {
             // Default to the predefined port in case of an error
         }
-        server.start(port);
-        System.out.println("Server Stopped");
+        // optional second argument picks the transport (blocking|virtual|nio)
+        TransportMode mode = TransportMode.parse(args.length > 1 ? args[1] : null, ServerConfig.TRANSPORT);
+        server.start(port, mode);
+        Log.info("Server", "Server Stopped");
     }
 }
@@ -0,0 +1,77 @@
+package Project;
+
+/**
+ * Tunables for the Server, read once from -D system properties so they can be
+ * adjusted per deployment without code changes
+ */
+public final class ServerConfig {
+    /** -Dchat.transport=blocking|virtual|nio (the second program argument takes precedence) */
+    public static final TransportMode TRANSPORT = TransportMode.parse(System.getProperty("chat.transport"),
+            TransportMode.BLOCKING);
+    /** -Dchat.nio.loops number of selector threads used by the NIO transport */
+    public static final int NIO_EVENT_LOOPS = Integer.getInteger("chat.nio.loops",
+            Runtime.getRuntime().availableProcessors());
+    /** -Dchat.outbound.capacity payloads that may wait in a client's outbound queue */
+    public static final int OUTBOUND_CAPACITY = Integer.getInteger("chat.outbound.capacity", 1024);
+    /** -Dchat.outbound.policy=drop_oldest_chat|disconnect|block what to do when that queue is full */
+    public static final OutboundQueue.OverflowPolicy OUTBOUND_POLICY = OutboundQueue.OverflowPolicy
+            .valueOf(System.getProperty("chat.outbound.policy", "drop_oldest_chat").trim().toUpperCase());
+    /** -Dchat.outbound.blockTimeoutMs how long a sender may wait under the block policy */
+    public static final long OUTBOUND_BLOCK_TIMEOUT_MS = Long.getLong("chat.outbound.blockTimeoutMs", 250);
+    /** -Dchat.stream.resetBytes reset a legacy client's ObjectOutputStream after this many bytes (0 = never) */
+    public static final long STREAM_RESET_BYTES = Long.getLong("chat.stream.resetBytes", 1 << 20);
+    /** -Dchat.stream.resetObjects ...or after this many payloads (0 = never) */
+    public static final long STREAM_RESET_OBJECTS = Long.getLong("chat.stream.resetObjects", 256);
+
+    /** -Dchat.flush.maxBytes largest batch of frames written with one flush (0 = flush every frame) */
+    public static final int FLUSH_MAX_BYTES = Integer.getInteger("chat.flush.maxBytes", 64 * 1024);
+    /** -Dchat.flush.windowMicros how long a busy connection waits for more frames before flushing */
+    public static final long FLUSH_WINDOW_MICROS = Long.getLong("chat.flush.windowMicros", 200);
+
+    /** -Dchat.compress=true offer per-connection compression to clients that support it */
+    public static final boolean COMPRESSION = Boolean.getBoolean("chat.compress");
+    /** -Dchat.compress.level Deflater level, 1 (fastest) to 9 (smallest) */
+    public static final int COMPRESSION_LEVEL = Integer.getInteger("chat.compress.level", 6);
+    /** -Dchat.compress.minBytes frames smaller than this are sent uncompressed */
+    public static final int COMPRESSION_MIN_BYTES = Integer.getInteger("chat.compress.minBytes", 64);
+    /** -Dchat.compress.dictionary prime each stream with common markup and class names */
+    public static final boolean COMPRESSION_DICTIONARY = Boolean
+            .parseBoolean(System.getProperty("chat.compress.dictionary", "true"));
+
+    /** -Dchat.presence.windowMs how long a room collects joins/leaves into one delta (0 = send each at once) */
+    public static final long PRESENCE_WINDOW_MS = Long.getLong("chat.presence.windowMs", 50);
+
+    /** -Dchat.scrollback.messages messages each room keeps for clients that join later (0 = none) */
+    public static final int SCROLLBACK_MESSAGES = Integer.getInteger("chat.scrollback.messages", 100);
+    /** -Dchat.scrollback.minutes ...as long as they are no older than this */
+    public static final long SCROLLBACK_MINUTES = Long.getLong("chat.scrollback.minutes", 60);
+    /** -Dchat.scrollback.maxBytes ...and hold no more than this much memory per room */
+    public static final long SCROLLBACK_MAX_BYTES = Long.getLong("chat.scrollback.maxBytes", 256 * 1024);
+
+    /** -Dchat.journal.dir where room and private messages are journaled (empty = no journal) */
+    public static final String JOURNAL_DIR = System.getProperty("chat.journal.dir", "journal").trim();
+    /** -Dchat.journal.fsync=none|batch|always when journaled messages are forced to disk */
+    public static final MessageJournal.Durability JOURNAL_FSYNC = MessageJournal.Durability
+            .valueOf(System.getProperty("chat.journal.fsync", "batch").trim().toUpperCase());
+    /** -Dchat.journal.fsyncMs group commit interval of the batch policy */
+    public static final long JOURNAL_FSYNC_MS = Long.getLong("chat.journal.fsyncMs", 20);
+    /** -Dchat.journal.segmentBytes size at which the journal starts a new segment file */
+    public static final long JOURNAL_SEGMENT_BYTES = Long.getLong("chat.journal.segmentBytes", 16 << 20);
+    /** -Dchat.journal.segments segment files kept; older ones are deleted */
+    public static final int JOURNAL_SEGMENTS = Integer.getInteger("chat.journal.segments", 8);
+    /** -Dchat.journal.queue messages that may wait for the journal writer before new ones are dropped */
+    public static final int JOURNAL_QUEUE = Integer.getInteger("chat.journal.queue", 64 * 1024);
+
+    /** -Dchat.search.maxBytes memory each room's search index may hold; the oldest messages are dropped first */
+    public static final long SEARCH_MAX_BYTES = Long.getLong("chat.search.maxBytes", 8 << 20);
+    /** -Dchat.search.closedBytes memory the indexes of rooms that aren't open may hold together; the least recently closed go first */
+    public static final long SEARCH_CLOSED_MAX_BYTES = Long.getLong("chat.search.closedBytes", 64 << 20);
+    /** -Dchat.search.pageSize hits returned per /search page */
+    public static final int SEARCH_PAGE_SIZE = Integer.getInteger("chat.search.pageSize", 10);
+
+    /** -Dchat.metrics.port local port of the Prometheus /metrics endpoint (0 = off) */
+    public static final int METRICS_PORT = Integer.getInteger("chat.metrics.port", 9400);
+
+    private ServerConfig() {
+    }
+}
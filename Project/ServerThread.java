@@ -7,7 +7,9 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Consumer;
@@ -43,6 +45,23 @@ public class ServerThread extends BaseServerThread {
         this.onInitializationComplete = onInitializationComplete;
     }
 
+    /**
+     * Wraps a selector-managed connection (see {@link NioServer}); the thread
+     * itself is never started since the event loop drives reads
+     * 
+     * @param connection
+     * @param onInitializationComplete method to inform listener that this object is
+     *                                 ready
+     */
+    protected ServerThread(NioConnection connection, Consumer<ServerThread> onInitializationComplete) {
+        Objects.requireNonNull(connection, "Client connection cannot be null");
+        Objects.requireNonNull(onInitializationComplete, "callback cannot be null");
+        info("ServerThread created");
+        attach(connection);
+        this.clientId = ServerThread.DEFAULT_CLIENT_ID; // this is updated later by the server
+        this.onInitializationComplete = onInitializationComplete;
+    }
+
     public void setClientName(String name) {
         if (name == null) {
             throw new NullPointerException("Client name can't be null");
@@ -84,16 +103,19 @@ public class ServerThread extends BaseServerThread {
     public void sendMutedUsers() {
         Payload payload = new Payload();
         payload.setPayloadType(PayloadType.MUTE_LIST);
+        payload.setMutedUsers(getMutedUserNames());
+        send(payload); // Send the payload to the client
+    }
+
+    private List<String> getMutedUserNames() {
         synchronized (mutedClientIds) {
             // Convert mutedClientIds to corresponding usernames
-            payload.setMutedUsers(
-                    mutedClientIds.stream()
-                            .map(id -> Server.INSTANCE.getClientById(id))
-                            .filter(Objects::nonNull)
-                            .map(ServerThread::getClientName)
-                            .toList());
+            return mutedClientIds.stream()
+                    .map(id -> Server.INSTANCE.getClientById(id))
+                    .filter(Objects::nonNull)
+                    .map(ServerThread::getClientName)
+                    .toList();
         }
-        send(payload); // Send the payload to the client
     }
 
     private void loadMuteList() {
@@ -117,6 +139,9 @@ public class ServerThread extends BaseServerThread {
     }
 
     private void saveMuteList() {
+        if (clientName == null) {
+            return; // never finished connecting; there's no file to save under
+        }
         synchronized (mutedClientIds) {
             File muteFile = new File(MUTE_FILE_DIR, clientName + ".txt");
             muteFile.getParentFile().mkdirs(); // Ensure directory exists
@@ -133,12 +158,18 @@ public class ServerThread extends BaseServerThread {
 
     @Override
     protected void info(String message) {
-        System.out.println(String.format("ServerThread[%s(%s)]: %s", getClientName(), getClientId(), message));
+        Log.info(this, message);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ServerThread[%s(%s)]", getClientName(), getClientId());
     }
 
     @Override
     protected void cleanup() {
         currentRoom = null;
+        Server.INSTANCE.removeClient(this);
         super.cleanup();
     }
 
@@ -162,7 +193,7 @@ public class ServerThread extends BaseServerThread {
         if (currentRoom != null) {
             currentRoom.processRollCommand(this, payload);
         } else {
-            System.out.println("No room assigned to process roll command.");
+            info("No room assigned to process roll command.");
         }
     }
 
@@ -179,7 +210,7 @@ public class ServerThread extends BaseServerThread {
         if (currentRoom != null) {
             currentRoom.processFlipCommand(this);
         } else {
-            System.out.println("No room assigned to process flip command.");
+            info("No room assigned to process flip command.");
         }
     }
 
@@ -189,19 +220,21 @@ public class ServerThread extends BaseServerThread {
     // kr553 10/20/2024
     @Override
     protected void processPayload(Payload payload) {
+        long received = System.nanoTime();
         try {
             switch (payload.getPayloadType()) {
                 case CLIENT_CONNECT:
                     ConnectionPayload cp = (ConnectionPayload) payload;
+                    negotiateFeatures(cp.getFeatures()); // before setClientName() triggers CLIENT_ID
                     setClientName(cp.getClientName());
                     break;
                 case PRIVATE_MESSAGE:
                     processPrivateMessagePayload((PrivateMessagePayload) payload);
                     break;
                 case MESSAGE:
-                    info(String.format("Processing MESSAGE payload: %s", payload.getMessage()));
+                    Log.debug(this, () -> "Processing MESSAGE payload: " + payload.getMessage());
                     if (currentRoom != null) {
-                        currentRoom.sendMessage(this, payload.getMessage());
+                        currentRoom.sendMessage(this, payload.getMessage(), received);
                     } else {
                         info("No room assigned for MESSAGE payload.");
                     }
@@ -227,19 +260,26 @@ public class ServerThread extends BaseServerThread {
                 case UNMUTE:
                     handleUnmute(payload);
                     break;
+                case STATS:
+                    sendStats();
+                    break;
+                case SEARCH:
+                    if (currentRoom != null) {
+                        currentRoom.handleSearch(this, (SearchPayload) payload);
+                    }
+                    break;
                 default:
-                    System.out.println("Unhandled payload type: " + payload.getPayloadType());
+                    Log.warn(this, "Unhandled payload type: " + payload.getPayloadType());
                     break;
             }
         } catch (Exception e) {
-            System.out.println("Could not process Payload: " + payload);
-            e.printStackTrace();
+            Log.error(this, "Could not process Payload: " + payload, e);
         }
     }
 
     // kr553 12/11/2024
     private void handleMute(Payload payload) {
-        long targetClientId = payload.getTargetClientId();
+        long targetClientId = resolveTarget(payload);
         if (targetClientId == clientId) {
             sendMessage("You cannot mute yourself.");
             return;
@@ -266,7 +306,7 @@ public class ServerThread extends BaseServerThread {
     }
 
     private void handleUnmute(Payload payload) {
-        long targetClientId = payload.getTargetClientId();
+        long targetClientId = resolveTarget(payload);
         if (!mutedClientIds.contains(targetClientId)) { // Check if not muted
             sendMessage("You have not muted " + payload.getMessage() + ".");
             return;
@@ -287,6 +327,22 @@ public class ServerThread extends BaseServerThread {
         }
     }
 
+    /**
+     * @param payload a MUTE/UNMUTE naming the user in its message
+     * @return the id the sender knew them by if it still has that name,
+     *         otherwise whoever has the name now (i.e., the sender's list was
+     *         stale after a reconnect), otherwise the sender's id as is
+     */
+    private long resolveTarget(Payload payload) {
+        String name = payload.getMessage();
+        ServerThread known = getClientById(payload.getTargetClientId());
+        if (known != null && known.getClientName().equalsIgnoreCase(name)) {
+            return known.getClientId();
+        }
+        ServerThread named = Server.INSTANCE.getClientByName(name);
+        return named != null ? named.getClientId() : payload.getTargetClientId();
+    }
+
     private ServerThread getClientById(long clientId) {
         return Server.INSTANCE.getClientById(clientId);
     }
@@ -295,22 +351,44 @@ public class ServerThread extends BaseServerThread {
         return mutedClientIds.contains(clientId);
     }
 
+    /**
+     * Adds to the mute list without saving it or notifying anyone (i.e., for
+     * benchmarks)
+     * 
+     * @param clientId
+     */
+    void addMutedClientId(long clientId) {
+        mutedClientIds.add(clientId);
+    }
+
     // send methods to pass data back to the Client
 
+    /**
+     * Answers /stats with the server's metrics summary, one line per entry
+     */
+    private void sendStats() {
+        Metrics.Scrape scrape = Server.INSTANCE.scrape();
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.STATS);
+        p.setMessage(String.join("\n", Metrics.summary(scrape.rooms(), scrape.clients())));
+        send(p);
+    }
+
     private void processPrivateMessagePayload(PrivateMessagePayload payload) {
         if (currentRoom != null) {
             currentRoom.sendPrivateMessage(this, payload.getTargetClientId(), payload.getMessage());
         } else {
-            System.out.println("No room assigned to process private message.");
+            info("No room assigned to process private message.");
         }
     }
 
+    /**
+     * @param senderId
+     * @param message raw text; rendered for this client by MessageFrames
+     * @return @see {@link #send(Payload)}
+     */
     public boolean sendPrivateMessage(long senderId, String message) {
-        PrivateMessagePayload p = new PrivateMessagePayload();
-        p.setClientId(senderId);
-        p.setMessage(message);
-        p.setPayloadType(PayloadType.PRIVATE_MESSAGE);
-        return send(p);
+        return send(new MessageFrames(senderId, PayloadType.PRIVATE_MESSAGE, message).frameFor(this));
     }
 
     public boolean sendClientSync(long clientId, String clientName) {
@@ -319,11 +397,25 @@ public class ServerThread extends BaseServerThread {
         cp.setClientName(clientName);
         cp.setConnect(true);
         cp.setPayloadType(PayloadType.SYNC_CLIENT);
-        send(cp);
+        return send(cp);
+    }
 
-        // Send muted users list to the client
-        sendMutedUsers();
-        return true;
+    /**
+     * Sends everyone in the room (this client included) and this client's mute
+     * list in one payload; see {@link RoomSnapshotPayload}
+     * 
+     * @param room    the room's name
+     * @param members the room's members
+     * @return success of sending the payload
+     */
+    public boolean sendRoomSnapshot(String room, Collection<ServerThread> members) {
+        RoomSnapshotPayload sp = new RoomSnapshotPayload();
+        sp.setRoomName(room);
+        for (ServerThread member : members) {
+            sp.addClient(member.getClientId(), member.getClientName());
+        }
+        sp.setMutedUsers(getMutedUserNames());
+        return send(sp);
     }
 
     /**
@@ -337,7 +429,8 @@ public class ServerThread extends BaseServerThread {
     }
 
     /**
-     * Sends a message with the author/source identifier
+     * Sends a message with the author/source identifier; its markup is
+     * parsed or rendered here (see MessageFrames), clients display it as is
      * 
      * @param senderId
      * @param message
@@ -346,11 +439,7 @@ public class ServerThread extends BaseServerThread {
 
     // kr553 10/20/2024
     public boolean sendMessage(long senderId, String message) {
-        Payload p = new Payload();
-        p.setClientId(senderId);
-        p.setMessage(message);
-        p.setPayloadType(PayloadType.MESSAGE);
-        return send(p);
+        return send(new MessageFrames(senderId, PayloadType.MESSAGE, message).frameFor(this));
     }
 
     /**
@@ -363,13 +452,7 @@ public class ServerThread extends BaseServerThread {
      * @return success of sending the payload
      */
     public boolean sendRoomAction(long clientId, String clientName, String room, boolean isJoin) {
-        ConnectionPayload cp = new ConnectionPayload();
-        cp.setPayloadType(PayloadType.ROOM_JOIN);
-        cp.setConnect(isJoin); // <-- determine if join or leave
-        cp.setMessage(room);
-        cp.setClientId(clientId);
-        cp.setClientName(clientName);
-        return send(cp);
+        return send(buildRoomAction(clientId, clientName, room, isJoin));
     }
 
     /**
@@ -381,12 +464,7 @@ public class ServerThread extends BaseServerThread {
      */
     // kr553 10/21/2024
     public boolean sendDisconnect(long clientId, String clientName) {
-        ConnectionPayload cp = new ConnectionPayload();
-        cp.setPayloadType(PayloadType.DISCONNECT);
-        cp.setConnect(false);
-        cp.setClientId(clientId);
-        cp.setClientName(clientName);
-        return send(cp);
+        return send(buildDisconnect(clientId, clientName));
     }
 
     /**
@@ -402,8 +480,40 @@ public class ServerThread extends BaseServerThread {
         cp.setConnect(true);
         cp.setClientId(clientId);
         cp.setClientName(clientName);
+        cp.setFeatures(features); // tells the client what was accepted from its CLIENT_CONNECT offer
         return send(cp);
     }
 
     // end send methods
+
+    // payload builders (shared with broadcasts that send one OutboundFrame to many clients)
+
+    static Payload buildMessage(long senderId, String message) {
+        Payload p = new Payload();
+        p.setClientId(senderId);
+        p.setMessage(message);
+        p.setPayloadType(PayloadType.MESSAGE);
+        return p;
+    }
+
+    static ConnectionPayload buildRoomAction(long clientId, String clientName, String room, boolean isJoin) {
+        ConnectionPayload cp = new ConnectionPayload();
+        cp.setPayloadType(PayloadType.ROOM_JOIN);
+        cp.setConnect(isJoin); // <-- determine if join or leave
+        cp.setMessage(room);
+        cp.setClientId(clientId);
+        cp.setClientName(clientName);
+        return cp;
+    }
+
+    static ConnectionPayload buildDisconnect(long clientId, String clientName) {
+        ConnectionPayload cp = new ConnectionPayload();
+        cp.setPayloadType(PayloadType.DISCONNECT);
+        cp.setConnect(false);
+        cp.setClientId(clientId);
+        cp.setClientName(clientName);
+        return cp;
+    }
+
+    // end payload builders
 }
\ No newline at end of file
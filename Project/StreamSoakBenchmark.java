@@ -0,0 +1,77 @@
+package Project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Soak test for long-lived legacy stream connections: pushes millions of
+ * distinct chat payloads through an ObjectStreamWriter over a loopback socket
+ * to an ObjectInputStream reader (the legacy client's side) and samples the
+ * heap of both ends along the way.
+ * <p>
+ * With resets the used heap after GC stays flat; with "never" it grows with
+ * every message until the JVM runs out of memory (use a smaller count).
+ * </p>
+ * Usage: java Project.StreamSoakBenchmark reset|never [messages]
+ */
+public class StreamSoakBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        boolean reset = args.length == 0 || !args[0].equalsIgnoreCase("never");
+        long messages = args.length > 1 ? Long.parseLong(args[1]) : 5_000_000L;
+        long resetBytes = reset ? ServerConfig.STREAM_RESET_BYTES : 0;
+        long resetObjects = reset ? ServerConfig.STREAM_RESET_OBJECTS : 0;
+        AtomicLong received = new AtomicLong();
+
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket sending = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+                Socket receiving = serverSocket.accept()) {
+            Thread reader = Thread.ofPlatform().name("soak-reader").start(() -> {
+                try (ObjectInputStream in = new ObjectInputStream(
+                        new BufferedInputStream(receiving.getInputStream()))) {
+                    while (received.get() < messages) {
+                        Benchmarks.consume(in.readObject());
+                        received.incrementAndGet();
+                    }
+                } catch (IOException | ClassNotFoundException e) {
+                    System.out.println("reader stopped: " + e);
+                }
+            });
+
+            ObjectStreamWriter writer = new ObjectStreamWriter(
+                    new BufferedOutputStream(sending.getOutputStream()), resetBytes, resetObjects);
+            long checkpoint = Math.max(1, messages / 10);
+            long base = usedHeap();
+            long start = System.nanoTime();
+            System.out.println(String.format("resetBytes=%d resetObjects=%d messages=%d baseHeap=%.1f MB",
+                    resetBytes, resetObjects, messages, base / 1048576.0));
+            for (long i = 1; i <= messages; i++) {
+                Payload p = ServerThread.buildMessage(i, "soak message #" + i);
+                p.setTimestamp(System.currentTimeMillis());
+                writer.write(p);
+                if (i % checkpoint == 0) {
+                    System.out.println(String.format("%,12d sent  heap=%8.1f MB  %s", i,
+                            (usedHeap() - base) / 1048576.0, writer));
+                }
+            }
+            writer.flush();
+            reader.join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("%,d received in %.1fs (%.0f msg/s), final heap delta %.1f MB",
+                    received.get(), seconds, received.get() / seconds, (usedHeap() - base) / 1048576.0));
+            writer.close();
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -1,11 +1,13 @@
 package Project;
 
 import Project.TextFX.TextColor;
+import java.util.regex.Pattern;
 
 /**
  * Utility to provide TextColored and formatted text in the GUI using HTML.
  */
 public abstract class TextFX {
+    private static final Pattern TAG = Pattern.compile("<[^>]*>");
 
     /**
      * Enum representing available text TextColors using HTML TextColor codes.
@@ -62,35 +64,15 @@ public abstract class TextFX {
 
     /**
      * Formats text with bold, italic, underline, and TextColor tags based on
-     * markdown-style symbols.
+     * markdown-style symbols, escaping any HTML in it.
      *
      * @param text Text to format.
      * @return Formatted text string with HTML tags.
+     * @see MessageFormatter
      */
     public static String formatText(String text) {
-        if (text == null || text.isEmpty()) {
-            return text;
-        }
-    
-        // Applying formatting in stages while preserving existing tags.
-    
-        // Step 1: Apply bold, italic, and underline formatting
-        text = text.replaceAll("\\*\\*(.+?)\\*\\*", "<b>$1</b>");    // Bold
-        text = text.replaceAll("\\*(.+?)\\*", "<i>$1</i>");          // Italic
-        text = text.replaceAll("_(.+?)_", "<u>$1</u>");              // Underline
-    
-        // Step 2: Process color tags (#r, #g, #b)
-        text = text.replaceAll("#r(.*?)r#", "<span style='color:red;'>$1</span>");    // Red
-        text = text.replaceAll("#g(.*?)g#", "<span style='color:green;'>$1</span>");  // Green
-        text = text.replaceAll("#b(.*?)b#", "<span style='color:blue;'>$1</span>");   // Blue
-    
-        // Step 3: Escape HTML special characters in the remaining text
-        
-    
-        return text;
+        return MessageFormatter.format(text);
     }
-    
-    
 
     /**
      * Escapes HTML special characters in the text to prevent HTML injection.
@@ -104,6 +86,23 @@ public abstract class TextFX {
                 .replace(">", "&gt;");
     }
 
+    /**
+     * Reverses formatting for plain text output (i.e., exporting chat history):
+     * removes tags and decodes the entities escapeHTML produces.
+     *
+     * @param html Formatted text.
+     * @return The text without markup.
+     */
+    public static String toPlainText(String html) {
+        if (html == null || html.isEmpty()) {
+            return html;
+        }
+        return TAG.matcher(html).replaceAll("")
+                .replace("&lt;", "<")
+                .replace("&gt;", ">")
+                .replace("&amp;", "&");
+    }
+
     /**
      * Main method for demonstrating the usage of formatting methods.
      *
@@ -0,0 +1,48 @@
+package Project;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * How the Server drives client connections; chosen at startup
+ */
+public enum TransportMode {
+    BLOCKING(Thread.ofPlatform()), // one platform thread per client blocking on reads (ServerThread)
+    VIRTUAL(Thread.ofVirtual()), // one virtual thread per client blocking on reads (ServerThread)
+    NIO(Thread.ofPlatform()); // fixed set of selector event loops shared by all clients (NioServer)
+
+    // built once, so thread names keep counting up across callers
+    private final ThreadFactory readerThreads;
+
+    TransportMode(Thread.Builder threads) {
+        this.readerThreads = threads.name("client-reader-", 0).factory();
+    }
+
+    /**
+     * Threads used for the per-client read loops of the socket based modes
+     * 
+     * @return the mode's shared factory, producing virtual threads for VIRTUAL,
+     *         platform threads otherwise
+     */
+    public ThreadFactory readerThreads() {
+        return readerThreads;
+    }
+
+    /**
+     * Lenient lookup used when parsing startup arguments
+     * 
+     * @param value
+     * @param fallback returned when value is null or unknown
+     * @return the matching mode
+     */
+    public static TransportMode parse(String value, TransportMode fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return TransportMode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Log.warn("TransportMode", String.format("Unknown transport mode '%s', using %s", value, fallback));
+            return fallback;
+        }
+    }
+}
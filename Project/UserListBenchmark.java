@@ -0,0 +1,115 @@
+package Project;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import javax.swing.DefaultListModel;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+/**
+ * Cost of keeping the user list current in a large room: UserListModel's
+ * in-place updates against the old clear-and-re-add of a DefaultListModel
+ * with HTML for muted users. Runs headless; a listener counts the events a
+ * JList would have to handle.
+ * <p>
+ * Usage: java Project.UserListBenchmark [users] [joins]
+ * </p>
+ */
+public class UserListBenchmark {
+    private static long events = 0;
+    private static boolean print = false;
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int joins = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        Random random = new Random(42);
+        List<String> names = new ArrayList<>(users + joins);
+        for (int i = 0; i < users + joins; i++) {
+            names.add("user" + Integer.toString(random.nextInt(1 << 30), 36));
+        }
+        Set<String> muted = new HashSet<>(names.subList(0, 100));
+        System.out.println(String.format("users=%d joins=%d", users, joins));
+        run(users, joins, names, muted); // warmup, so the JIT has compiled both paths
+        print = true;
+        run(users, joins, names, muted);
+    }
+
+    private static void run(int users, int joins, List<String> names, Set<String> muted) {
+        UserListModel model = new UserListModel();
+        model.addListDataListener(counter());
+        Map<Long, String> snapshot = new HashMap<>();
+        for (int i = 0; i < users; i++) {
+            snapshot.put((long) i, names.get(i));
+        }
+        report("snapshot (one batch)", 1, () -> model.update(snapshot, List.of()));
+        report("join (insert)", joins, () -> {
+            for (int i = users; i < users + joins; i++) {
+                model.add(i, names.get(i));
+            }
+        });
+        report("leave (remove)", joins, () -> {
+            for (int i = users; i < users + joins; i++) {
+                model.remove(i);
+            }
+        });
+        report("mute list update", 1, () -> model.setMuted(muted));
+        report("filter keystroke", 4, () -> {
+            model.setFilter("u");
+            model.setFilter("us");
+            model.setFilter("use");
+            model.setFilter("");
+        });
+
+        // what ChatRoomPanel.updateUserList used to do for every single join
+        DefaultListModel<String> old = new DefaultListModel<>();
+        old.addListDataListener(counter());
+        List<String> current = new ArrayList<>(names.subList(0, users));
+        int oldJoins = Math.min(joins, 100); // it's slow enough that a sample will do
+        report("join (old full rebuild)", oldJoins, () -> {
+            for (int i = users; i < users + oldJoins; i++) {
+                current.add(names.get(i));
+                old.clear();
+                for (String user : current) {
+                    old.addElement(muted.contains(user) ? "<html><span style='color:gray;'>" + user + "</span></html>"
+                            : user);
+                }
+            }
+        });
+    }
+
+    private static void report(String name, int ops, Runnable run) {
+        long eventsBefore = events;
+        long start = System.nanoTime();
+        run.run();
+        if (!print) {
+            return;
+        }
+        double micros = (System.nanoTime() - start) / 1e3;
+        System.out.println(String.format("%-25s %,12.1f us/op %,10.1f events/op", name, micros / ops,
+                (events - eventsBefore) / (double) ops));
+    }
+
+    private static ListDataListener counter() {
+        return new ListDataListener() {
+            @Override
+            public void intervalAdded(ListDataEvent e) {
+                events++;
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {
+                events++;
+            }
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {
+                events++;
+            }
+        };
+    }
+}
@@ -0,0 +1,272 @@
+package Project;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.swing.AbstractListModel;
+
+/**
+ * Sorted list of the users in the current room for the ChatRoomPanel's JList.
+ * <p>
+ * Users are kept ordered by name (case-insensitive, then id) and changed in
+ * place: an insert or remove is a binary search plus one interval event, and
+ * a mute update only repaints the rows whose state flipped, so a join into a
+ * room with thousands of users doesn't rebuild the list. Large batches (like a
+ * room snapshot) are merged and announced with a single event instead.
+ * </p>
+ * <p>
+ * The list shows the users matching the filter (a case-insensitive substring
+ * of the name; empty shows everyone). Only use it from the EDT.
+ * </p>
+ */
+public class UserListModel extends AbstractListModel<UserListModel.User> {
+    // batches bigger than this are merged and re-sorted rather than inserted one by one
+    private static final int BULK_THRESHOLD = 64;
+
+    /**
+     * One row; rendered by ChatRoomPanel's cell renderer
+     */
+    public static final class User {
+        private final long clientId;
+        private final String name;
+        private final String sortKey;
+        private boolean muted;
+
+        private User(long clientId, String name) {
+            this.clientId = clientId;
+            this.name = name == null ? "Unknown" : name;
+            this.sortKey = this.name.toLowerCase();
+        }
+
+        public long getClientId() {
+            return clientId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isMuted() {
+            return muted;
+        }
+
+        @Override
+        public String toString() {
+            return name; // used by JList's type-ahead (getNextMatch)
+        }
+    }
+
+    private static final Comparator<User> ORDER = Comparator.comparing((User u) -> u.sortKey)
+            .thenComparingLong(u -> u.clientId);
+
+    private final ArrayList<User> all = new ArrayList<>(); // sorted
+    private final ArrayList<User> visible = new ArrayList<>(); // sorted subset matching the filter
+    private final HashMap<Long, User> byId = new HashMap<>();
+    private Set<String> mutedNames = Set.of();
+    private String filter = "";
+
+    @Override
+    public int getSize() {
+        return visible.size();
+    }
+
+    @Override
+    public User getElementAt(int index) {
+        return visible.get(index);
+    }
+
+    /**
+     * @return number of users, including those hidden by the filter
+     */
+    public int getTotalSize() {
+        return all.size();
+    }
+
+    public boolean contains(long clientId) {
+        return byId.containsKey(clientId);
+    }
+
+    /**
+     * Adds a user, or renames them if the id is already listed
+     *
+     * @param clientId
+     * @param name
+     */
+    public void add(long clientId, String name) {
+        User existing = byId.get(clientId);
+        if (existing != null) {
+            if (existing.name.equals(name)) {
+                return;
+            }
+            remove(clientId);
+        }
+        User user = new User(clientId, name);
+        user.muted = mutedNames.contains(user.name);
+        byId.put(clientId, user);
+        all.add(insertionPoint(all, user), user);
+        if (matches(user)) {
+            int index = insertionPoint(visible, user);
+            visible.add(index, user);
+            fireIntervalAdded(this, index, index);
+        }
+    }
+
+    /**
+     * @param clientId
+     * @return false if the user wasn't listed
+     */
+    public boolean remove(long clientId) {
+        User user = byId.remove(clientId);
+        if (user == null) {
+            return false;
+        }
+        all.remove(Collections.binarySearch(all, user, ORDER));
+        int index = Collections.binarySearch(visible, user, ORDER);
+        if (index >= 0) {
+            visible.remove(index);
+            fireIntervalRemoved(this, index, index);
+        }
+        return true;
+    }
+
+    /**
+     * Applies a batch of changes, firing one event for big batches
+     *
+     * @param added   id -> name of users to add (or rename)
+     * @param removed ids of users to remove
+     */
+    public void update(Map<Long, String> added, Collection<Long> removed) {
+        if (added.size() + removed.size() <= BULK_THRESHOLD) {
+            removed.forEach(this::remove);
+            added.forEach(this::add);
+            return;
+        }
+        for (long clientId : removed) {
+            User user = byId.remove(clientId);
+            if (user != null) {
+                all.remove(Collections.binarySearch(all, user, ORDER));
+            }
+        }
+        List<User> fresh = new ArrayList<>(added.size());
+        for (Map.Entry<Long, String> e : added.entrySet()) {
+            User existing = byId.get(e.getKey());
+            if (existing != null) {
+                if (existing.name.equals(e.getValue())) {
+                    continue;
+                }
+                byId.remove(e.getKey());
+                all.remove(Collections.binarySearch(all, existing, ORDER));
+            }
+            User user = new User(e.getKey(), e.getValue());
+            user.muted = mutedNames.contains(user.name);
+            byId.put(user.clientId, user);
+            fresh.add(user);
+        }
+        fresh.sort(ORDER);
+        merge(fresh);
+        refilter();
+    }
+
+    /**
+     * Removes everyone (i.e., when leaving the room)
+     */
+    public void clear() {
+        int size = visible.size();
+        all.clear();
+        visible.clear();
+        byId.clear();
+        if (size > 0) {
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+    }
+
+    /**
+     * Marks the users whose names are in the set as muted; only rows whose
+     * state changed are repainted
+     *
+     * @param names
+     */
+    public void setMuted(Set<String> names) {
+        mutedNames = Set.copyOf(names);
+        for (User user : all) {
+            boolean muted = mutedNames.contains(user.name);
+            if (user.muted != muted) {
+                user.muted = muted;
+                int index = Collections.binarySearch(visible, user, ORDER);
+                if (index >= 0) {
+                    fireContentsChanged(this, index, index);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param text case-insensitive part of a name; empty or null shows everyone
+     */
+    public void setFilter(String text) {
+        String next = text == null ? "" : text.trim().toLowerCase();
+        if (next.equals(filter)) {
+            return;
+        }
+        filter = next;
+        refilter();
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    private boolean matches(User user) {
+        return filter.isEmpty() || user.sortKey.contains(filter);
+    }
+
+    private void refilter() {
+        int before = visible.size();
+        visible.clear();
+        if (filter.isEmpty()) {
+            visible.addAll(all);
+        } else {
+            for (User user : all) {
+                if (matches(user)) {
+                    visible.add(user);
+                }
+            }
+        }
+        // one event for the whole list instead of one per row
+        int after = visible.size();
+        if (after < before) {
+            fireIntervalRemoved(this, after, before - 1);
+        } else if (after > before) {
+            fireIntervalAdded(this, before, after - 1);
+        }
+        if (Math.min(before, after) > 0) {
+            fireContentsChanged(this, 0, Math.min(before, after) - 1);
+        }
+    }
+
+    private void merge(List<User> sorted) {
+        if (sorted.isEmpty()) {
+            return;
+        }
+        ArrayList<User> merged = new ArrayList<>(all.size() + sorted.size());
+        int i = 0;
+        int j = 0;
+        while (i < all.size() && j < sorted.size()) {
+            merged.add(ORDER.compare(all.get(i), sorted.get(j)) <= 0 ? all.get(i++) : sorted.get(j++));
+        }
+        merged.addAll(all.subList(i, all.size()));
+        merged.addAll(sorted.subList(j, sorted.size()));
+        all.clear();
+        all.addAll(merged);
+    }
+
+    private static int insertionPoint(List<User> list, User user) {
+        int index = Collections.binarySearch(list, user, ORDER);
+        return index >= 0 ? index : -index - 1;
+    }
+}
@@ -0,0 +1,15 @@
+#!/bin/sh
+# Compiles the chat classes and runs the benchmark suite (see BenchmarkRunner).
+# Needs only a JDK 21+, no network or build tool.
+#
+# usage: Project/bench.sh [-l] [-f forks] [-wi n] [-i n] [-w s] [-r s]
+#                         [-p name=v1,v2] [-prof gc] [-jvmArgs "..."] [regex...]
+# e.g.:  Project/bench.sh -prof gc roomFanOut
+set -e
+cd "$(dirname "$0")/.."
+JAVA_BIN=${JAVA_HOME:+$JAVA_HOME/bin/}
+OUT=build/bench
+rm -rf "$OUT"
+mkdir -p "$OUT"
+"${JAVA_BIN}javac" -nowarn -d "$OUT" Project/*.java
+exec "${JAVA_BIN}java" -cp "$OUT" Project.BenchmarkRunner "$@"